@@ -0,0 +1,69 @@
+package org.krasnow.cng.diadem;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.krasnow.cng.data.SwcGenerator;
+import org.krasnow.cng.domain.ParentedBinaryTreeNode;
+import org.krasnow.cng.utils.BinaryTreeUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Exhaustive main path search. It tries every combination of the nodes whose
+ * children are both terminal, so its time doubles with each of them; the trees
+ * here are kept small enough to finish rather than sized like the others.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MainPathBenchmark {
+
+    // Number of nodes; a thousand already takes minutes
+    @Param({"100", "400", "800"})
+    public int size;
+
+    private File swcFile;
+    private DiademMetric metric;
+    private ParentedBinaryTreeNode tree;
+
+    @Setup(Level.Trial)
+    public void writeFile() throws Exception {
+        swcFile = File.createTempFile("main-path-" + size + "-", ".swc");
+        SwcGenerator generator = new SwcGenerator();
+        generator.setNodes(size);
+        generator.generate(size).write(swcFile);
+        metric = new DiademMetric(swcFile, swcFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFile() {
+        swcFile.delete();
+    }
+
+    @Setup(Level.Invocation)
+    public void readTree() throws Exception {
+        // The search merges nodes of the tree it is given; only the first tree is searched
+        tree = (ParentedBinaryTreeNode) ReconstructionFiles.read(swcFile, metric).getChildren().get(0);
+    }
+
+    @Benchmark
+    public ParentedBinaryTreeNode findMainPathBifurcationsExhaustive() throws Exception {
+        return BinaryTreeUtils.findMainPathBifurcationsExhaustive(tree);
+    }
+
+}
@@ -0,0 +1,75 @@
+package org.krasnow.cng.diadem;
+
+import java.util.concurrent.TimeUnit;
+
+import org.krasnow.cng.domain.SwcTreeNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scoring a test reconstruction against a prepared gold standard, and the
+ * excess weighing done at the end of scoring on its own.
+ * Scoring changes the test trees, so each invocation gets a freshly read copy
+ * (reading is not measured).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MatchBenchmark {
+
+    private ReconstructionFiles files;
+    private PreparedGold gold;
+    private DiademMetric metric;
+    private SwcTreeNode testRoot;
+
+    // Matched trees for weighExcess, which leaves them unchanged
+    private DiademMetric matchedMetric;
+    private SwcTreeNode matchedTestRoot;
+    private NodeTable matchedGoldTable;
+
+    @Setup(Level.Trial)
+    public void prepare(ReconstructionFiles files) throws Exception {
+        this.files = files;
+        gold = files.createMetric().prepareGold(files.goldFile);
+
+        matchedMetric = files.createMetric();
+        SwcTreeNode goldRoot = ReconstructionFiles.read(files.goldFile, matchedMetric);
+        matchedTestRoot = ReconstructionFiles.read(files.testFile, matchedMetric);
+        matchedGoldTable = matchedMetric.prepareGoldTrees(goldRoot);
+        matchedMetric.matchTrees(matchedTestRoot, goldRoot, matchedGoldTable);
+        if (matchedMetric.getRemoveSpurs() > 0) {
+            matchedMetric.removeSpurs(matchedTestRoot, matchedMetric.getRemoveSpurs(),
+                    matchedGoldTable.getPartnerTable());
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void readTest() throws Exception {
+        metric = files.createMetric();
+        testRoot = ReconstructionFiles.read(files.testFile, metric);
+    }
+
+    @Benchmark
+    public double scoreTrees() throws Exception {
+        metric.scoreTrees(testRoot, gold);
+        return metric.getFinalScore();
+    }
+
+    @Benchmark
+    public double weighExcess() {
+        return matchedMetric.weighExcess(matchedTestRoot, matchedGoldTable);
+    }
+
+}
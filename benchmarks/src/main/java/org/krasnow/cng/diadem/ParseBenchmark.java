@@ -0,0 +1,50 @@
+package org.krasnow.cng.diadem;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.krasnow.cng.domain.SwcTreeNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading an SWC file into binary trees, with trajectories
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+    private byte[] swc;
+
+    @Setup(Level.Trial)
+    public void formatGold(ReconstructionFiles files) throws IOException {
+        swc = files.gold.toByteArray();
+    }
+
+    @Benchmark
+    public SwcTreeNode convertSwcToBinaryTreeList(ReconstructionFiles files) throws Exception {
+        return ReconstructionFiles.read(files.goldFile, files.createMetric());
+    }
+
+    /**
+     * Without the file system, which the file may be read from on a cold cache
+     */
+    @Benchmark
+    public SwcTreeNode convertSwcToBinaryTreeListInMemory(ReconstructionFiles files) throws Exception {
+        return ReconstructionFiles.read(swc, files.createMetric());
+    }
+
+}
@@ -0,0 +1,53 @@
+package org.krasnow.cng.diadem;
+
+import java.util.concurrent.TimeUnit;
+
+import org.krasnow.cng.domain.SwcTreeNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Gold standard preparation: finding spurs and weighing nodes.
+ * Neither changes the trees, so both run repeatedly on the same gold standard.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PreprocessBenchmark {
+
+    private DiademMetric metric;
+    private SwcTreeNode goldRoot;
+    private NodeTable goldNodeTable;
+
+    @Setup(Level.Trial)
+    public void readGold(ReconstructionFiles files) throws Exception {
+        metric = files.createMetric();
+        goldRoot = ReconstructionFiles.read(files.goldFile, metric);
+        goldNodeTable = metric.prepareGoldTrees(goldRoot);
+    }
+
+    @Benchmark
+    public DiademMetric removeSpurs() {
+        metric.removeSpurs(goldRoot, metric.getRemoveSpurs(), null);
+        return metric;
+    }
+
+    @Benchmark
+    public DiademMetric generateNodeWeights() {
+        metric.generateNodeWeights(goldRoot, goldNodeTable);
+        return metric;
+    }
+
+}
@@ -0,0 +1,97 @@
+package org.krasnow.cng.diadem;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+import org.krasnow.cng.data.ReadSWC;
+import org.krasnow.cng.data.SwcGenerator;
+import org.krasnow.cng.data.SwcPoints;
+import org.krasnow.cng.domain.SwcDataNode;
+import org.krasnow.cng.domain.SwcTreeNode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Gold standard and test reconstructions of the requested size from
+ * SwcGenerator, written to SWC files once per trial, with the metric settings
+ * used to read and score them.
+ */
+@State(Scope.Benchmark)
+public class ReconstructionFiles {
+
+    // Number of gold standard SWC nodes; the binary trees keep only branch and end points, about a tenth
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int size;
+
+    // Thresholds and spur removal of a dataset that removes spurs
+    @Param({"3"})
+    public int dataset;
+
+    File goldFile;
+    File testFile;
+
+    SwcPoints gold;
+    SwcPoints test;
+
+    @Setup(Level.Trial)
+    public void writeFiles() throws IOException {
+        SwcGenerator generator = new SwcGenerator();
+        generator.setNodes(size);
+        gold = generator.generate(size);
+        test = generator.perturb(gold, size + 1);
+        goldFile = File.createTempFile("gold-" + size + "-", ".swc");
+        testFile = File.createTempFile("test-" + size + "-", ".swc");
+        gold.write(goldFile);
+        test.write(testFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() {
+        goldFile.delete();
+        testFile.delete();
+    }
+
+    /**
+     * @return metric with the settings of the dataset and none of the output
+     */
+    DiademMetric createMetric() {
+        DiademMetric metric = new DiademMetric(testFile, goldFile, dataset);
+        // Single pair, no point in other threads
+        metric.setThreads(1);
+        return metric;
+    }
+
+    /**
+     * @param swcFile
+     * @param metric
+     * @return trees of swcFile, read as metric reads them
+     */
+    static SwcTreeNode read(File swcFile, DiademMetric metric) throws Exception {
+        return ReadSWC.convertSwcToBinaryTreeList(swcFile, metric.isZPath(), metric.getScaleZ(),
+                getThresholds(metric));
+    }
+
+    /**
+     * @param swc SWC text
+     * @param metric
+     * @return trees of swc, read as metric reads files
+     */
+    static SwcTreeNode read(byte[] swc, DiademMetric metric) throws Exception {
+        return ReadSWC.convertSwcToBinaryTreeList(Channels.newChannel(new ByteArrayInputStream(swc)), "memory",
+                metric.isZPath(), metric.getScaleZ(), getThresholds(metric));
+    }
+
+    private static SwcDataNode getThresholds(DiademMetric metric) {
+        SwcDataNode thresholds = new SwcDataNode();
+        thresholds.setX(metric.getXYThreshold());
+        thresholds.setZ(metric.getZThreshold());
+        return thresholds;
+    }
+
+}
@@ -0,0 +1,145 @@
+package org.krasnow.cng.domain;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Depth first and breadth first traversals of a random binary tree with the
+ * linked and the array backed stack and queue. Run with -prof gc to compare
+ * the allocation per traversal.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TraversalBenchmark {
+
+    // Number of tree nodes
+    @Param({"1000000"})
+    public int size;
+
+    private ParentedBinaryTreeNode root;
+    private ArrayStack reusedStack = new ArrayStack();
+    private ArrayQueue reusedQueue = new ArrayQueue();
+
+    @Setup(Level.Trial)
+    public void buildTree() {
+        // Bifurcate randomly picked leaves until the tree is big enough
+        Random random = new Random(size);
+        ParentedBinaryTreeNode[] leaves = new ParentedBinaryTreeNode[size / 2 + 1];
+        root = new ParentedBinaryTreeNode();
+        leaves[0] = root;
+        int leafCount = 1, pick;
+        ParentedBinaryTreeNode leaf, left, right;
+        for (int nodes = 1; nodes + 2 <= size; nodes += 2) {
+            pick = random.nextInt(leafCount);
+            leaf = leaves[pick];
+            left = new ParentedBinaryTreeNode();
+            right = new ParentedBinaryTreeNode();
+            leaf.setLeft(left, false);
+            leaf.setRight(right, false);
+            leaves[pick] = left;
+            leaves[leafCount++] = right;
+        }
+    }
+
+    @Benchmark
+    public int depthFirstLinked() {
+        LinkedStack stack = new LinkedStack();
+        stack.push(root);
+        int count = 0;
+        BinaryTreeNode node;
+        while (!stack.isEmpty()) {
+            node = (BinaryTreeNode) stack.pop();
+            count++;
+            if (node.hasChildren()) {
+                stack.push(node.getLeft());
+                stack.push(node.getRight());
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int depthFirstArray() {
+        return depthFirst(new ArrayStack());
+    }
+
+    @Benchmark
+    public int depthFirstArrayReused() {
+        return depthFirst(reusedStack);
+    }
+
+    private int depthFirst(ArrayStack stack) {
+        stack.push(root);
+        int count = 0;
+        BinaryTreeNode node;
+        while (!stack.isEmpty()) {
+            node = (BinaryTreeNode) stack.pop();
+            count++;
+            if (node.hasChildren()) {
+                stack.push(node.getLeft());
+                stack.push(node.getRight());
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int breadthFirstLinked() {
+        LinkedQueue queue = new LinkedQueue();
+        queue.enqueue(root);
+        int count = 0;
+        BinaryTreeNode node;
+        while (!queue.isEmpty()) {
+            node = (BinaryTreeNode) queue.dequeue();
+            count++;
+            if (node.hasChildren()) {
+                queue.enqueue(node.getLeft());
+                queue.enqueue(node.getRight());
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int breadthFirstArray() {
+        return breadthFirst(new ArrayQueue());
+    }
+
+    @Benchmark
+    public int breadthFirstArrayReused() {
+        return breadthFirst(reusedQueue);
+    }
+
+    private int breadthFirst(ArrayQueue queue) {
+        queue.enqueue(root);
+        int count = 0;
+        BinaryTreeNode node;
+        while (!queue.isEmpty()) {
+            node = (BinaryTreeNode) queue.dequeue();
+            count++;
+            if (node.hasChildren()) {
+                queue.enqueue(node.getLeft());
+                queue.enqueue(node.getRight());
+            }
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,209 @@
+package org.krasnow.cng.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.krasnow.cng.domain.ArrayStack;
+import org.krasnow.cng.domain.ParentedBinaryTreeNode;
+import org.krasnow.cng.domain.SwcDataNode;
+import org.krasnow.cng.domain.SwcTreeNode;
+
+/**
+ * Points SwcGenerator grows and perturbs, and the SWC text SwcPoints gives of
+ * them as read back by SwcParser and ReadSWC.
+ */
+public class SwcGeneratorTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void sameSeedSamePoints() throws Exception{
+		SwcGenerator generator = new SwcGenerator();
+		generator.setNodes(2000);
+		generator.setStems(3);
+		SwcPoints points = generator.generate(1);
+		assertEquals(2000, points.size());
+		assertEquals(-1, points.getParent(0));
+		assertEquals(SwcGenerator.TYPE_SOMA, points.getType(0));
+		int stems = 0;
+		for (int i = 1; i < points.size(); i++){
+			assertTrue(points.getParent(i) >= 0 && points.getParent(i) < i);
+			assertEquals(SwcGenerator.TYPE_DENDRITE, points.getType(i));
+			if (points.getParent(i) == 0){
+				stems++;
+			}
+		}
+		assertEquals(3, stems);
+		assertArrayEquals(points.toByteArray(), generator.generate(1).toByteArray());
+		assertArrayEquals(generator.perturb(points, 2).toByteArray(), generator.perturb(points, 2).toByteArray());
+	}
+
+	@Test
+	public void perturbWithoutErrors() throws Exception{
+		SwcGenerator generator = quietGenerator();
+		SwcPoints gold = generator.generate(3);
+		SwcPoints test = generator.perturb(gold, 4);
+		assertEquals(gold.size(), test.size());
+		for (int i = 0; i < gold.size(); i++){
+			assertEquals(gold.getParent(i), test.getParent(i));
+			assertEquals(gold.getX(i), test.getX(i), 0);
+			assertEquals(gold.getRadius(i), test.getRadius(i), 0);
+		}
+	}
+
+	@Test
+	public void perturbSpurs() throws Exception{
+		SwcGenerator generator = quietGenerator();
+		generator.setSpurProbability(1);
+		SwcPoints gold = generator.generate(5);
+		SwcPoints test = generator.perturb(gold, 6);
+		// A spur on every point but the soma, each a leaf after its point
+		assertEquals(2 * gold.size() - 1, test.size());
+		for (int i = 1; i < test.size(); i += 2){
+			assertEquals(i, test.getParent(i + 1));
+		}
+	}
+
+	@Test
+	public void perturbDrops() throws Exception{
+		SwcGenerator generator = quietGenerator();
+		generator.setDropProbability(1);
+		generator.setMaxDroppedNodes(Integer.MAX_VALUE);
+		SwcPoints gold = generator.generate(7);
+		int[] children = new int[gold.size()];
+		for (int i = 1; i < gold.size(); i++){
+			children[gold.getParent(i)]++;
+		}
+		// Every branch leaving a bifurcation is dropped, so only the stems
+		// up to their first bifurcation are kept
+		boolean[] kept = new boolean[gold.size()];
+		kept[0] = true;
+		int keptCount = 1, parent;
+		for (int i = 1; i < gold.size(); i++){
+			parent = gold.getParent(i);
+			kept[i] = kept[parent] && (parent == 0 || children[parent] < 2);
+			if (kept[i]){
+				keptCount++;
+			}
+		}
+		assertTrue(keptCount < gold.size());
+		assertEquals(keptCount, generator.perturb(gold, 8).size());
+
+		// Branches larger than the limit are kept
+		generator.setMaxDroppedNodes(0);
+		assertEquals(gold.size(), generator.perturb(gold, 8).size());
+	}
+
+	@Test
+	public void textReadsBack() throws Exception{
+		SwcGenerator generator = new SwcGenerator();
+		generator.setNodes(3000);
+		SwcPoints points = generator.perturb(generator.generate(9), 10);
+		File file = folder.newFile("points.swc");
+		points.write(file);
+		byte[] text = points.toByteArray();
+		assertArrayEquals(readFile(file), text);
+
+		SwcParser parser = new SwcParser(Channels.newChannel(new ByteArrayInputStream(text)), "points", false, true);
+		for (int i = 0; i < points.size(); i++){
+			assertTrue(parser.next());
+			assertEquals(i + 1, parser.getNodeId());
+			assertEquals(points.getType(i), parser.getType());
+			assertEquals(rounded(points.getX(i)), parser.getX(), 0);
+			assertEquals(rounded(points.getY(i)), parser.getY(), 0);
+			assertEquals(rounded(points.getZ(i)), parser.getZ(), 0);
+			assertEquals(rounded(points.getRadius(i)), parser.getRadius(), 0);
+			assertEquals(points.getParent(i) < 0 ? -1 : points.getParent(i) + 1, parser.getParentId());
+		}
+		assertTrue(!parser.next());
+
+		// The channel reads as the file does
+		SwcTreeNode fromChannel = ReadSWC.convertSwcToBinaryTreeList(points.newChannel(), "points", true, 1, null);
+		SwcTreeNode fromFile = ReadSWC.convertSwcToBinaryTreeList(file);
+		List channelTrees = fromChannel.getChildren(), fileTrees = fromFile.getChildren();
+		assertEquals(fileTrees.size(), channelTrees.size());
+		for (int i = 0; i < fileTrees.size(); i++){
+			assertSameTree((ParentedBinaryTreeNode)fileTrees.get(i), (ParentedBinaryTreeNode)channelTrees.get(i), points);
+		}
+	}
+
+	/**
+	 * @return generator making test points that are the gold points unchanged
+	 */
+	private static SwcGenerator quietGenerator(){
+		SwcGenerator generator = new SwcGenerator();
+		generator.setNodes(2000);
+		generator.setStems(3);
+		generator.setJitter(0);
+		generator.setZJitter(0);
+		generator.setDropProbability(0);
+		generator.setSpurProbability(0);
+		generator.setSpuriousBranchProbability(0);
+		return generator;
+	}
+
+	private static double rounded(double value){
+		return Math.round(value * 1000) / 1000.0;
+	}
+
+	private static byte[] readFile(File file) throws IOException{
+		byte[] bytes = new byte[(int)file.length()];
+		FileInputStream in = new FileInputStream(file);
+		try{
+			int read = 0;
+			while (read < bytes.length){
+				read += in.read(bytes, read, bytes.length - read);
+			}
+		}
+		finally{
+			in.close();
+		}
+		return bytes;
+	}
+
+	private static void assertSameTree(ParentedBinaryTreeNode tree, ParentedBinaryTreeNode other, SwcPoints points){
+		ArrayStack stack = new ArrayStack();
+		stack.push(tree);
+		stack.push(other);
+		ParentedBinaryTreeNode node, otherNode;
+		SwcDataNode data, otherData;
+		int i;
+		while (!stack.isEmpty()){
+			otherNode = (ParentedBinaryTreeNode)stack.pop();
+			node = (ParentedBinaryTreeNode)stack.pop();
+			data = node.getSwcData();
+			otherData = otherNode.getSwcData();
+			i = data.getNodeId() - 1;
+			assertEquals(data.getNodeId(), otherData.getNodeId());
+			assertEquals(data.getParentId(), otherData.getParentId());
+			assertEquals(rounded(points.getX(i)), otherData.getX(), 0);
+			assertEquals(rounded(points.getY(i)), otherData.getY(), 0);
+			assertEquals(rounded(points.getZ(i)), otherData.getZ(), 0);
+			assertEquals(data.getX(), otherData.getX(), 0);
+			assertEquals(data.getZ(), otherData.getZ(), 0);
+			assertEquals(node.hasLeft(), otherNode.hasLeft());
+			assertEquals(node.hasRight(), otherNode.hasRight());
+			if (node.hasLeft()){
+				stack.push(node.getParentedLeft());
+				stack.push(otherNode.getParentedLeft());
+			}
+			if (node.hasRight()){
+				stack.push(node.getParentedRight());
+				stack.push(otherNode.getParentedRight());
+			}
+		}
+	}
+
+}
@@ -0,0 +1,150 @@
+package org.krasnow.cng.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.channels.Channels;
+import java.util.zip.DataFormatException;
+
+import org.junit.Test;
+
+/**
+ * Lines SwcParser takes as data, skips and rejects, and the numbers it reads
+ */
+public class SwcParserTest {
+
+	private static SwcParser parser(String text, boolean allowTabs, boolean strict)
+	throws UnsupportedEncodingException{
+		return new SwcParser(Channels.newChannel(new ByteArrayInputStream(text.getBytes("US-ASCII"))),
+				"test.swc", allowTabs, strict);
+	}
+
+	@Test
+	public void readsFields() throws Exception{
+		SwcParser parser = parser("# soma\n1 1 10.5 -20.25 3 5 -1\n  2 3 11 -21 3.5 0.75 1  \n", false, true);
+		assertTrue(parser.next());
+		assertEquals(2, parser.getLine());
+		assertEquals(1, parser.getNodeId());
+		assertEquals(1, parser.getType());
+		assertEquals(10.5, parser.getX(), 0);
+		assertEquals(-20.25, parser.getY(), 0);
+		assertEquals(3, parser.getZ(), 0);
+		assertEquals(5, parser.getRadius(), 0);
+		assertEquals(-1, parser.getParentId());
+		assertTrue(parser.next());
+		assertEquals(3, parser.getLine());
+		assertEquals(2, parser.getNodeId());
+		assertEquals(3, parser.getType());
+		assertEquals(0.75, parser.getRadius(), 0);
+		assertEquals(1, parser.getParentId());
+		assertFalse(parser.next());
+	}
+
+	@Test
+	public void lineEndings() throws Exception{
+		SwcParser parser = parser("1 1 0 0 0 1 -1\r2 1 0 0 0 1 1\r\n3 1 0 0 0 1 2\n4 1 0 0 0 1 3", false, true);
+		for (int id = 1; id <= 4; id++){
+			assertTrue(parser.next());
+			assertEquals(id, parser.getNodeId());
+			assertEquals(id, parser.getLine());
+		}
+		assertFalse(parser.next());
+	}
+
+	@Test
+	public void lineLongerThanBuffer() throws Exception{
+		StringBuffer text = new StringBuffer("#");
+		for (int i = 0; i < 100000; i++){
+			text.append('x');
+		}
+		text.append("\r\n1 1 0 0 0 1 -1\r\n");
+		SwcParser parser = parser(text.toString(), false, true);
+		assertTrue(parser.next());
+		assertEquals(2, parser.getLine());
+		assertEquals(-1, parser.getParentId());
+		assertFalse(parser.next());
+	}
+
+	@Test
+	public void tabsOnlyWhenAllowed() throws Exception{
+		String text = "1\t1\t0\t0\t0\t1\t-1\n";
+		assertTrue(parser(text, true, true).next());
+		assertFalse(parser(text, false, false).next());
+		assertRejected(parser(text, false, true));
+	}
+
+	@Test
+	public void skipsOtherLinesUnlessStrict() throws Exception{
+		String[] lines = {
+				"",
+				"1 1 0 0 0 1",
+				"1 1 0 0 0 1 -1 7",
+				"1 1 a 0 0 1 -1",
+				"-1 1 0 0 0 1 -1",
+				"1 -1 0 0 0 1 -1",
+				"1 1 0 0 0 -1 -1",
+				"1 1 - 0 0 1 -1",
+				"1 1 0 0 0 1 1.5",
+				"1 1 0,5 0 0 1 -1",
+				"1 1 1e3 0 0 1 -1",
+		};
+		for (int i = 0; i < lines.length; i++){
+			assertFalse(lines[i], parser(lines[i] + "\n", true, false).next());
+			assertRejected(parser(lines[i] + "\n", true, true));
+		}
+		SwcParser parser = parser("junk\n2 1 0 0 0 1 -1\n", true, false);
+		assertTrue(parser.next());
+		assertEquals(2, parser.getNodeId());
+		assertEquals(2, parser.getLine());
+	}
+
+	@Test
+	public void numbersAsParseDoubleGives() throws Exception{
+		String[] numbers = {
+				"0", "0.1", "-0.1", "123.456", "0007.25", "5.", ".5", "-.5", "-0",
+				"1234567.8901234", "12345678901234567890", "0.12345678901234567890",
+				"3.14159265358979323846", "999999.999999999",
+		};
+		for (int i = 0; i < numbers.length; i++){
+			String number = numbers[i];
+			SwcParser parser = parser("1 1 " + number + " " + number + " " + number + " 1 -1\n", false, true);
+			assertTrue(number, parser.next());
+			double expected = Double.parseDouble(number);
+			assertEquals(number, Double.doubleToLongBits(expected), Double.doubleToLongBits(parser.getX()));
+			assertEquals(number, Double.doubleToLongBits(expected), Double.doubleToLongBits(parser.getZ()));
+		}
+	}
+
+	@Test
+	public void malformedNumbers() throws Exception{
+		assertNumberFormatException("1 1 1.2.3 0 0 1 -1\n");
+		assertNumberFormatException("1 1 0 0 0 . -1\n");
+		assertNumberFormatException("12345678901 1 0 0 0 1 -1\n");
+		assertNumberFormatException("1 1 0 0 0 1 -12345678901\n");
+	}
+
+	private static void assertRejected(SwcParser parser) throws Exception{
+		try{
+			parser.next();
+			fail("Line accepted");
+		}
+		catch (DataFormatException e){
+			assertTrue(e.getMessage(), e.getMessage().indexOf("test.swc") >= 0);
+		}
+	}
+
+	private static void assertNumberFormatException(String text) throws Exception{
+		try{
+			parser(text, false, true).next();
+			fail(text);
+		}
+		catch (NumberFormatException e){
+			// Expected
+		}
+	}
+
+}
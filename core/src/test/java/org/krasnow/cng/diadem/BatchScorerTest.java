@@ -0,0 +1,180 @@
+package org.krasnow.cng.diadem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.krasnow.cng.data.SwcGenerator;
+import org.krasnow.cng.data.SwcPoints;
+
+/**
+ * Scores of the pairs under gold standard and test directories, scored in
+ * one run on one or more threads, against the scores of each pair on its own.
+ */
+public class BatchScorerTest {
+
+    private final static String[] PAIRS = {"a.swc", "b.swc", "sub" + File.separator + "c.swc"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void directoryResultsMatchPairResults() throws Exception {
+        File goldDirectory = folder.newFolder("gold"), testDirectory = folder.newFolder("test");
+        SwcGenerator generator = new SwcGenerator();
+        generator.setNodes(1500);
+        SwcPoints points;
+        for (int i = 0; i < PAIRS.length; i++) {
+            points = generator.generate(i);
+            write(points, new File(goldDirectory, PAIRS[i]));
+            write(generator.perturb(points, 100 + i), new File(testDirectory, PAIRS[i]));
+        }
+
+        for (int dataset = 1; dataset <= 5; dataset++) {
+            ScoreResult serialTotal = null;
+            for (int threads = 1; threads <= 2; threads++) {
+                CollectingSink sink = new CollectingSink();
+                DiademMetric directories = new DiademMetric(testDirectory, goldDirectory, dataset);
+                directories.setThreads(threads);
+                directories.setResultSink(sink);
+                score(directories);
+                assertNotNull(sink.total);
+                assertEquals(PAIRS.length, sink.total.getPairs());
+                assertEquals(PAIRS.length, sink.pairs.size());
+
+                for (int i = 0; i < PAIRS.length; i++) {
+                    DiademMetric pair = new DiademMetric(new File(testDirectory, PAIRS[i]),
+                            new File(goldDirectory, PAIRS[i]), dataset);
+                    score(pair);
+                    ScoreResult result = (ScoreResult) sink.pairs.get(new File(goldDirectory, PAIRS[i]));
+                    String name = PAIRS[i] + ", dataset " + dataset + ", " + threads + " threads";
+                    assertNotNull(name, result);
+                    assertEquals(name, pair.getGoldNodeCount(), result.getGoldNodes());
+                    assertEquals(name, pair.getFinalScore(), result.getFinalScore(), 0);
+                    assertEquals(name, pair.getQualityScore(), result.getQualityScore(), 0);
+                    assertEquals(name, pair.getDirectMatchScore(), result.getDirectMatchScore(), 0);
+                }
+
+                // Pair results are added to the total in order, whatever thread scored them
+                if (serialTotal == null) {
+                    serialTotal = sink.total;
+                } else {
+                    assertEquals(serialTotal.getFinalScore(), sink.total.getFinalScore(), 0);
+                    assertEquals(serialTotal.getGoldNodes(), sink.total.getGoldNodes());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void repeatedGoldPreparedOnce() throws Exception {
+        File directory = folder.newFolder("manifest");
+        SwcGenerator generator = new SwcGenerator();
+        generator.setNodes(1500);
+        // Three test files for one gold standard and two for another
+        FileWriter manifestWriter = new FileWriter(new File(directory, "pairs.csv"));
+        try {
+            manifestWriter.write("gold,test\n");
+            SwcPoints points;
+            int test = 0;
+            for (int gold = 0; gold < 2; gold++) {
+                points = generator.generate(gold);
+                write(points, new File(directory, "gold" + gold + ".swc"));
+                for (int i = 0; i < 3 - gold; i++, test++) {
+                    write(generator.perturb(points, 200 + test), new File(directory, "test" + test + ".swc"));
+                    manifestWriter.write("gold" + gold + ".swc,test" + test + ".swc\n");
+                }
+            }
+        } finally {
+            manifestWriter.close();
+        }
+        File manifest = new File(directory, "pairs.csv");
+
+        for (int threads = 1; threads <= 2; threads++) {
+            DiademMetric metric = new DiademMetric(manifest, manifest, 1);
+            metric.setManifest(manifest);
+            metric.setThreads(threads);
+            metric.setGoldCacheNodes(Integer.MAX_VALUE);
+            BatchScorer scorer = new BatchScorer(metric);
+            PairSource pairs = metric.createPairSource();
+            PrintStream out = System.out;
+            System.setOut(new PrintStream(new ByteArrayOutputStream()));
+            try {
+                assertEquals(5, scorer.score(pairs));
+            } finally {
+                System.setOut(out);
+                pairs.close();
+            }
+            assertEquals(2, scorer.getGoldCache().getPrepared());
+        }
+        assertNull(new BatchScorer(new DiademMetric(null, null, 1)).getGoldCache());
+
+        // Prepared gold standards score as gold standards read for each pair
+        // (a manifest run is named after the manifest, as main names it)
+        for (int dataset = 1; dataset <= 5; dataset++) {
+            ScoreResult[] totals = new ScoreResult[2];
+            for (int cached = 0; cached < 2; cached++) {
+                CollectingSink sink = new CollectingSink();
+                DiademMetric metric = new DiademMetric(manifest, manifest, dataset);
+                metric.setManifest(manifest);
+                metric.setThreads(2);
+                metric.setGoldCacheNodes(cached * Integer.MAX_VALUE);
+                metric.setResultSink(sink);
+                score(metric);
+                totals[cached] = sink.total;
+            }
+            assertEquals("dataset " + dataset, totals[0].getFinalScore(), totals[1].getFinalScore(), 0);
+            assertEquals("dataset " + dataset, totals[0].getGoldNodes(), totals[1].getGoldNodes());
+        }
+    }
+
+    private static void write(SwcPoints points, File file) throws Exception {
+        file.getParentFile().mkdirs();
+        points.write(file);
+    }
+
+    private static void score(DiademMetric metric) throws Exception {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new ByteArrayOutputStream()));
+        try {
+            metric.scoreReconstruction();
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    /**
+     * Keeps the result of each pair by its gold standard file, and the total
+     */
+    private static class CollectingSink implements ResultSink {
+
+        private Map pairs = new HashMap();
+        private ScoreResult total;
+
+        public synchronized void write(ScoreResult result) {
+            if (result.getPairs() == 1) {
+                pairs.put(new File(result.getGoldFile()), result);
+            } else {
+                total = result;
+            }
+        }
+
+        public void flush() {
+        }
+
+        public void close() {
+        }
+
+    }
+
+}
@@ -0,0 +1,73 @@
+package org.krasnow.cng.diadem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.krasnow.cng.data.SwcGenerator;
+import org.krasnow.cng.data.SwcPoints;
+
+/**
+ * Scores of generated pairs, and the misses listed for them, don't depend on
+ * the number of threads checking missed bifurcations for continuations.
+ */
+public class ContinuationThreadsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sameScoresAndMisses() throws Exception {
+        // Enough dropped branches for several hundred missed bifurcations,
+        // more than are ever checked in parallel
+        SwcGenerator generator = new SwcGenerator();
+        generator.setNodes(5000);
+        generator.setStems(3);
+        generator.setDropProbability(0.4);
+        generator.setJitter(2);
+        SwcPoints goldPoints = generator.generate(5);
+        File gold = folder.newFile("gold.swc"), test = folder.newFile("test.swc");
+        goldPoints.write(gold);
+        generator.perturb(goldPoints, 6).write(test);
+
+        for (int dataset = 1; dataset <= 5; dataset++) {
+            DiademMetric serial = new DiademMetric(test, gold, dataset);
+            serial.setContinuationThreads(1);
+            String serialOutput = score(serial);
+            DiademMetric parallel = new DiademMetric(test, gold, dataset);
+            parallel.setContinuationThreads(4);
+            String parallelOutput = score(parallel);
+
+            String name = "dataset " + dataset;
+            assertEquals(name, serial.getFinalScore(), parallel.getFinalScore(), 0);
+            assertEquals(name, serial.getQualityScore(), parallel.getQualityScore(), 0);
+            assertEquals(name, serial.getDirectMatchScore(), parallel.getDirectMatchScore(), 0);
+            assertTrue(name, serialOutput.indexOf("Nodes that were missed (position and weight):") >= 0);
+            // Scores, misses and excess nodes as listed
+            assertEquals(name, serialOutput, parallelOutput);
+        }
+    }
+
+    /**
+     * @return what scoring printed, misses included
+     */
+    private static String score(DiademMetric metric) throws Exception {
+        metric.setListMisses(true);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(output, true, "UTF-8"));
+        try {
+            metric.scoreReconstruction();
+        } finally {
+            System.setOut(out);
+        }
+        return output.toString("UTF-8");
+    }
+
+}
@@ -0,0 +1,79 @@
+package org.krasnow.cng.diadem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Maps of a scoring context, cleared of the keys put in them
+ */
+public class ResettableMapTest {
+
+    @Test
+    public void clearedOfKeysPut() {
+        ResettableMap map = new ResettableMap(new IdentityHashMap(), 4);
+        Object[] keys = new Object[1000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new Object();
+            map.put(keys[i], Boolean.TRUE);
+        }
+        // Put again, and removed and put again, without being lost or left behind
+        map.put(keys[0], Boolean.FALSE);
+        map.remove(keys[1]);
+        map.put(keys[1], Boolean.TRUE);
+        map.remove(keys[2]);
+        assertEquals(keys.length - 1, map.size());
+        assertEquals(Boolean.FALSE, map.get(keys[0]));
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey(keys[1]));
+
+        map.put(keys[3], Boolean.TRUE);
+        assertEquals(1, map.size());
+        map.clear();
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void keepsOrderOfMapGiven() {
+        ResettableMap map = new ResettableMap(new LinkedHashMap(), 4);
+        List keys = new ArrayList();
+        for (int i = 0; i < 100; i++) {
+            keys.add(new Integer(99 - i));
+            map.put(keys.get(i), new Integer(i));
+        }
+        ResettableMap copy = new ResettableMap(new LinkedHashMap(), 4);
+        copy.putAll(map);
+        int i = 0;
+        for (Iterator it = copy.keySet().iterator(); it.hasNext(); i++) {
+            assertEquals(keys.get(i), it.next());
+        }
+        assertEquals(100, i);
+    }
+
+    @Test
+    public void contextEmptyAfterReset() {
+        ScoringContext context = new ScoringContext(16);
+        Object node = new Object();
+        context.clearSpurs().put(node, Boolean.TRUE);
+        context.listedWeights.put(node, new Integer(1));
+        context.excessNodes.put(node, new Integer(1));
+        context.pathTrajectories.put(node, new IdentityHashMap());
+        context.useRunTrajectories().put(node, node);
+        context.reset();
+        assertTrue(context.spurs.isEmpty());
+        assertTrue(context.listedWeights.isEmpty());
+        assertTrue(context.excessNodes.isEmpty());
+        assertTrue(context.pathTrajectories.isEmpty());
+        assertTrue(context.useRunTrajectories().isEmpty());
+    }
+
+}
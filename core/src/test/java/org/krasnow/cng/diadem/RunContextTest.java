@@ -0,0 +1,78 @@
+package org.krasnow.cng.diadem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.krasnow.cng.data.SwcGenerator;
+import org.krasnow.cng.data.SwcPoints;
+
+/**
+ * Nodes of the pairs of a run are kept by the run only when they are listed
+ */
+public class RunContextTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void nothingKeptWhenNothingListed() throws Exception {
+        File goldDirectory = folder.newFolder("gold"), testDirectory = folder.newFolder("test");
+        writePairs(goldDirectory, testDirectory);
+
+        for (int dataset = 1; dataset <= 5; dataset++) {
+            DiademMetric run = new DiademMetric(testDirectory, goldDirectory, dataset);
+            score(run);
+            ScoringContext context = run.getContext();
+            String name = "dataset " + dataset;
+            assertEquals(name, 0, context.misses.size());
+            assertEquals(name, 0, context.continuations.size());
+            assertEquals(name, 0, context.distantMatches.size());
+            assertEquals(name, 0, context.excessNodes.size());
+            assertEquals(name, 0, context.listedWeights.size());
+        }
+    }
+
+    @Test
+    public void listedNodesKept() throws Exception {
+        File goldDirectory = folder.newFolder("gold"), testDirectory = folder.newFolder("test");
+        writePairs(goldDirectory, testDirectory);
+
+        DiademMetric run = new DiademMetric(testDirectory, goldDirectory, 1);
+        run.setListMisses(true);
+        score(run);
+        ScoringContext context = run.getContext();
+        assertFalse(context.misses.isEmpty());
+        assertFalse(context.excessNodes.isEmpty());
+        assertEquals(0, context.continuations.size());
+        assertEquals(0, context.distantMatches.size());
+    }
+
+    private static void writePairs(File goldDirectory, File testDirectory) throws Exception {
+        SwcGenerator generator = new SwcGenerator();
+        generator.setNodes(1000);
+        SwcPoints points;
+        for (int i = 0; i < 3; i++) {
+            points = generator.generate(i);
+            points.write(new File(goldDirectory, i + ".swc"));
+            generator.perturb(points, 10 + i).write(new File(testDirectory, i + ".swc"));
+        }
+    }
+
+    private static void score(DiademMetric metric) throws Exception {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new ByteArrayOutputStream()));
+        try {
+            metric.scoreReconstruction();
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+}
@@ -0,0 +1,223 @@
+package org.krasnow.cng.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.krasnow.cng.data.ReadSWC;
+import org.krasnow.cng.data.SwcGenerator;
+
+/**
+ * Branch statistics of trees read with ReadSWC, which links nodes without
+ * statistics and computes them in one pass, against copies of the same trees
+ * linked one edge at a time with addChildNode and setLeft/setRight.
+ */
+public class BranchStatisticsTest {
+
+	// Soma with three stems: a continuation leading to a bifurcation, a lone
+	// node, and a trifurcation whose children are listed after its grandchildren
+	private static final String FIXTURE =
+		"1 1 0 0 0 5 -1\n" +
+		"2 1 10 0 0 1 1\n" +
+		"3 1 20 0 0 1 2\n" +
+		"4 1 30 0 0 1 3\n" +
+		"5 1 40 10 0 1 4\n" +
+		"6 1 50 20 0 1 5\n" +
+		"7 1 40 -10 0 1 4\n" +
+		"8 1 0 10 0 1 1\n" +
+		"9 1 0 -10 0 1 1\n" +
+		"10 1 0 -20 0 1 9\n" +
+		"11 1 0 -30 0 1 10\n" +
+		"12 1 -10 -30 0 1 10\n" +
+		"13 1 10 -20 0 1 9\n" +
+		"14 1 20 -30 0 1 13\n" +
+		"15 1 10 -30 0 1 10\n" +
+		"16 1 0 -40 0 1 11\n";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void binaryTreesOfFixture() throws Exception{
+		SwcTreeNode root = ReadSWC.convertSwcToBinaryTreeList(writeFixture());
+		List trees = root.getChildren();
+		assertEquals(3, trees.size());
+		boolean lone = false;
+		for (int i = 0; i < trees.size(); i++){
+			ParentedBinaryTreeNode tree = (ParentedBinaryTreeNode)trees.get(i);
+			lone |= !tree.hasChildren();
+			assertSameStatistics(tree, copyBinary(tree, isLinked(tree, root)));
+		}
+		assertTrue("a stem of one node", lone);
+	}
+
+	@Test
+	public void binaryTreesOfGeneratedNeuron() throws Exception{
+		SwcTreeNode root = ReadSWC.convertSwcToBinaryTreeList(writeGenerated(SwcGenerator.TYPE_DENDRITE));
+		List trees = root.getChildren();
+		assertEquals(4, trees.size());
+		for (int i = 0; i < trees.size(); i++){
+			ParentedBinaryTreeNode tree = (ParentedBinaryTreeNode)trees.get(i);
+			assertSameStatistics(tree, copyBinary(tree, isLinked(tree, root)));
+		}
+	}
+
+	@Test
+	public void swcTreeOfFixture() throws Exception{
+		SwcTreeNode root = ReadSWC.convertSwcToSwcTree(writeFixture());
+		assertEquals(3, root.getChildren().size());
+		assertFalse(((TreeNode)root.getChildren().get(1)).hasChildren());
+		assertSameStatistics(root, copySwc(root));
+	}
+
+	@Test
+	public void swcTreeOfGeneratedNeuron() throws Exception{
+		// One type, so the stems are linked to the soma
+		SwcTreeNode root = ReadSWC.convertSwcToSwcTree(writeGenerated(SwcGenerator.TYPE_SOMA));
+		assertEquals(4, root.getChildren().size());
+		assertSameStatistics(root, copySwc(root));
+	}
+
+	private File writeFixture() throws IOException{
+		File file = folder.newFile("fixture.swc");
+		FileWriter out = new FileWriter(file);
+		try{
+			out.write(FIXTURE);
+		}
+		finally{
+			out.close();
+		}
+		return file;
+	}
+
+	private File writeGenerated(int type) throws IOException{
+		SwcGenerator generator = new SwcGenerator();
+		generator.setNodes(3000);
+		generator.setStems(4);
+		generator.setType(type);
+		File file = folder.newFile("generated" + type + ".swc");
+		generator.generate(11).write(file);
+		return file;
+	}
+
+	/**
+	 * @return whether the head of tree was linked below continuation nodes
+	 * that were removed, rather than being a node of the soma
+	 */
+	private static boolean isLinked(ParentedBinaryTreeNode tree, SwcTreeNode root){
+		return tree.getSwcData().getParentId() != root.getNodeId();
+	}
+
+	/**
+	 * @param linked whether the head of tree is to be linked as a child first
+	 * @return copy of the shape of tree, linked from the top with setLeft and setRight
+	 */
+	private static ParentedBinaryTreeNode copyBinary(ParentedBinaryTreeNode tree, boolean linked){
+		ParentedBinaryTreeNode copy = new ParentedBinaryTreeNode(tree.getData());
+		if (linked){
+			new ParentedBinaryTreeNode().setLeft(copy);
+		}
+		ArrayStack stack = new ArrayStack();
+		stack.push(tree);
+		stack.push(copy);
+		ParentedBinaryTreeNode node, nodeCopy, child;
+		while (!stack.isEmpty()){
+			nodeCopy = (ParentedBinaryTreeNode)stack.pop();
+			node = (ParentedBinaryTreeNode)stack.pop();
+			if (node.hasLeft()){
+				child = new ParentedBinaryTreeNode(node.getLeft().getData());
+				nodeCopy.setLeft(child);
+				stack.push(node.getParentedLeft());
+				stack.push(child);
+			}
+			if (node.hasRight()){
+				child = new ParentedBinaryTreeNode(node.getRight().getData());
+				nodeCopy.setRight(child);
+				stack.push(node.getParentedRight());
+				stack.push(child);
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * @return copy of the shape of tree, linked from the top with addChildNode
+	 */
+	private static SwcTreeNode copySwc(SwcTreeNode tree){
+		SwcTreeNode copy = new SwcTreeNode();
+		copy.setNodeId(tree.getNodeId());
+		ArrayStack stack = new ArrayStack();
+		stack.push(tree);
+		stack.push(copy);
+		SwcTreeNode node, nodeCopy, child;
+		while (!stack.isEmpty()){
+			nodeCopy = (SwcTreeNode)stack.pop();
+			node = (SwcTreeNode)stack.pop();
+			for (int i = 0; i < node.getChildren().size(); i++){
+				child = new SwcTreeNode();
+				child.setNodeId(node.getSwcChild(i).getNodeId());
+				nodeCopy.addChildNode(child);
+				stack.push(node.getSwcChild(i));
+				stack.push(child);
+			}
+		}
+		return copy;
+	}
+
+	private static void assertSameStatistics(ParentedBinaryTreeNode tree, ParentedBinaryTreeNode copy){
+		ArrayStack stack = new ArrayStack();
+		stack.push(tree);
+		stack.push(copy);
+		ParentedBinaryTreeNode node, nodeCopy;
+		String name;
+		while (!stack.isEmpty()){
+			nodeCopy = (ParentedBinaryTreeNode)stack.pop();
+			node = (ParentedBinaryTreeNode)stack.pop();
+			name = "node " + node.getData();
+			assertEquals(name, nodeCopy.getTreeSize(), node.getTreeSize());
+			assertEquals(name, nodeCopy.getHeight(), node.getHeight());
+			assertEquals(name, nodeCopy.getLeaves(), node.getLeaves());
+			assertEquals(name, nodeCopy.getTotalHeight(), node.getTotalHeight());
+			assertEquals(name, nodeCopy.getTotalAsymmetry(), node.getTotalAsymmetry(), 0f);
+			assertEquals(name, nodeCopy.getPartitionAsymmetry(), node.getPartitionAsymmetry(), 0);
+			if (node.hasLeft()){
+				stack.push(node.getParentedLeft());
+				stack.push(nodeCopy.getParentedLeft());
+			}
+			if (node.hasRight()){
+				stack.push(node.getParentedRight());
+				stack.push(nodeCopy.getParentedRight());
+			}
+		}
+	}
+
+	private static void assertSameStatistics(SwcTreeNode tree, SwcTreeNode copy){
+		ArrayStack stack = new ArrayStack();
+		stack.push(tree);
+		stack.push(copy);
+		SwcTreeNode node, nodeCopy;
+		String name;
+		while (!stack.isEmpty()){
+			nodeCopy = (SwcTreeNode)stack.pop();
+			node = (SwcTreeNode)stack.pop();
+			name = "node " + node.getNodeId();
+			assertEquals(name, nodeCopy.getBranchSize(), node.getBranchSize());
+			assertEquals(name, nodeCopy.getHeight(), node.getHeight());
+			assertEquals(name, nodeCopy.getLeaves(), node.getLeaves());
+			assertEquals(name, nodeCopy.getTotalHeight(), node.getTotalHeight());
+			for (int i = 0; i < node.getChildren().size(); i++){
+				stack.push(node.getSwcChild(i));
+				stack.push(nodeCopy.getSwcChild(i));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,121 @@
+package org.krasnow.cng.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.krasnow.cng.data.ReadSWC;
+import org.krasnow.cng.data.SwcGenerator;
+import org.krasnow.cng.utils.BinaryTreeUtils;
+
+/**
+ * Trees read with ReadSWC, put in arrays as scoring puts them, and turned back
+ * into trees with toTreeList.
+ */
+public class NeuronArraysTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void treesSurviveArrays() throws Exception{
+		SwcGenerator generator = new SwcGenerator();
+		generator.setNodes(3000);
+		generator.setStems(4);
+		File file = folder.newFile("generated.swc");
+		generator.perturb(generator.generate(13), 14).write(file);
+		SwcTreeNode read = ReadSWC.convertSwcToBinaryTreeList(file);
+
+		// Lists the nodes and parents the heads as scoring does
+		ParentedBinaryTreeNode root = new ParentedBinaryTreeNode(read.getSwcData());
+		List trees = read.getChildren(), nodeList = new ArrayList();
+		for (int i = 0; i < trees.size(); i++){
+			nodeList.addAll(BinaryTreeUtils.createNodeList((ParentedBinaryTreeNode)trees.get(i)));
+			((ParentedBinaryTreeNode)trees.get(i)).setParent(root, false);
+		}
+		// Heads keep the side they had below any nodes that were removed
+		((ParentedBinaryTreeNode)trees.get(0)).setSide(true);
+		((ParentedBinaryTreeNode)trees.get(1)).setSide(false);
+		NeuronArrays arrays = new NeuronArrays(nodeList, root);
+		assertEquals(nodeList.size(), arrays.size());
+
+		SwcTreeNode copy = arrays.toTreeList();
+		assertSameData(read.getSwcData(), copy.getSwcData());
+		List copies = copy.getChildren();
+		assertEquals(trees.size(), copies.size());
+		for (int i = 0; i < trees.size(); i++){
+			assertSameTree((ParentedBinaryTreeNode)trees.get(i), (ParentedBinaryTreeNode)copies.get(i));
+		}
+	}
+
+	private static void assertSameTree(ParentedBinaryTreeNode tree, ParentedBinaryTreeNode copy){
+		assertSameData(tree.getParent().getSwcData(), copy.getParent().getSwcData());
+		ArrayStack stack = new ArrayStack();
+		stack.push(tree);
+		stack.push(copy);
+		ParentedBinaryTreeNode node, nodeCopy;
+		String name;
+		while (!stack.isEmpty()){
+			nodeCopy = (ParentedBinaryTreeNode)stack.pop();
+			node = (ParentedBinaryTreeNode)stack.pop();
+			name = "node " + node.getSwcData().getNodeId();
+			assertSameData(node.getSwcData(), nodeCopy.getSwcData());
+			assertEquals(name, node.isLeft(), nodeCopy.isLeft());
+			assertEquals(name, node.getLevel(), nodeCopy.getLevel());
+			assertEquals(name, node.getTreeSize(), nodeCopy.getTreeSize());
+			assertEquals(name, node.getHeight(), nodeCopy.getHeight());
+			assertEquals(name, node.getLeaves(), nodeCopy.getLeaves());
+			assertEquals(name, node.hasLeft(), nodeCopy.hasLeft());
+			assertEquals(name, node.hasRight(), nodeCopy.hasRight());
+			if (node.hasLeft()){
+				assertTrue(name, nodeCopy.getParentedLeft().getParent() == nodeCopy);
+				stack.push(node.getParentedLeft());
+				stack.push(nodeCopy.getParentedLeft());
+			}
+			if (node.hasRight()){
+				assertTrue(name, nodeCopy.getParentedRight().getParent() == nodeCopy);
+				stack.push(node.getParentedRight());
+				stack.push(nodeCopy.getParentedRight());
+			}
+		}
+	}
+
+	private static void assertSameData(SwcDataNode data, SwcDataNode copy){
+		String name = "node " + data.getNodeId();
+		assertEquals(name, data.getNodeId(), copy.getNodeId());
+		assertEquals(name, data.getParentId(), copy.getParentId());
+		assertEquals(name, data.getType(), copy.getType());
+		assertEquals(name, data.getX(), copy.getX(), 0);
+		assertEquals(name, data.getY(), copy.getY(), 0);
+		assertEquals(name, data.getZ(), copy.getZ(), 0);
+		assertEquals(name, data.getRadius(), copy.getRadius(), 0);
+		SwcSecondaryData secondary = data.getSecondaryData(), secondaryCopy = copy.getSecondaryData();
+		if (secondary == null){
+			return;
+		}
+		assertEquals(name, secondary.getPathLength(), secondaryCopy.getPathLength(), 0);
+		assertEquals(name, secondary.getXYPathLength(), secondaryCopy.getXYPathLength(), 0);
+		assertEquals(name, secondary.getZPathLength(), secondaryCopy.getZPathLength(), 0);
+		assertSamePoint(name, secondary.getParentTrajectoryPoint(), secondaryCopy.getParentTrajectoryPoint());
+		assertSamePoint(name, secondary.getLeftTrajectoryPoint(), secondaryCopy.getLeftTrajectoryPoint());
+		assertSamePoint(name, secondary.getRightTrajectoryPoint(), secondaryCopy.getRightTrajectoryPoint());
+	}
+
+	private static void assertSamePoint(String name, EuclideanPoint point, EuclideanPoint copy){
+		if (point == null){
+			assertNull(name, copy);
+			return;
+		}
+		assertEquals(name, point.getX(), copy.getX(), 0);
+		assertEquals(name, point.getY(), copy.getY(), 0);
+		assertEquals(name, point.getZ(), copy.getZ(), 0);
+	}
+
+}
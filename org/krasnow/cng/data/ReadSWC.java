@@ -1,25 +1,23 @@
 package org.krasnow.cng.data;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.zip.DataFormatException;
 
+import org.krasnow.cng.domain.ArrayStack;
 import org.krasnow.cng.domain.EuclideanPoint;
-import org.krasnow.cng.domain.LinkedStack;
 import org.krasnow.cng.domain.NodePair;
 import org.krasnow.cng.domain.ParentedBinaryTreeNode;
 import org.krasnow.cng.domain.SwcDataNode;
 import org.krasnow.cng.domain.SwcSecondaryData;
 import org.krasnow.cng.domain.SwcTreeNode;
+import org.krasnow.cng.domain.TreeNode;
 import org.krasnow.cng.utils.SwcDataUtils;
 
 /**
@@ -73,6 +71,54 @@ public class ReadSWC {
 	}
 	public static SwcTreeNode convertSwcToBinaryTreeList(
 			File inputFile, boolean zInPathDist, double scaleZ, SwcDataNode trajectoryThresholds) throws Exception{
+		return convertSwcToBinaryTreeList(inputFile, zInPathDist, scaleZ, trajectoryThresholds, null);
+	}
+	/**
+	 * 
+	 * @param inputFile
+	 * @param zInPathDist
+	 * @param scaleZ
+	 * @param trajectoryThresholds
+	 * @param treeNodeMap if not null, filled with the same node id to SwcTreeNode entries 
+	 * convertSwcToTreeNodeMap returns, from the same read of the file
+	 * @return
+	 * @throws Exception
+	 */
+	public static SwcTreeNode convertSwcToBinaryTreeList(
+			File inputFile, boolean zInPathDist, double scaleZ, SwcDataNode trajectoryThresholds, 
+			Map treeNodeMap) throws Exception{
+		return convertSwcToBinaryTreeList(inputFile, zInPathDist, scaleZ, trajectoryThresholds, treeNodeMap, null);
+	}
+	/**
+	 * @param statistics if not null, given the time spent in each step of the read
+	 */
+	public static SwcTreeNode convertSwcToBinaryTreeList(
+			File inputFile, boolean zInPathDist, double scaleZ, SwcDataNode trajectoryThresholds, 
+			Map treeNodeMap, ReadStatistics statistics) throws Exception{
+		// Fields may be separated by tabs, and lines must be data or comments
+		return convertSwcToBinaryTreeList(new SwcParser(inputFile, true, true), inputFile.getName(), 
+				zInPathDist, scaleZ, trajectoryThresholds, treeNodeMap, statistics);
+	}
+	/**
+	 * Reads SWC text that isn't in a file, such as SwcPoints.newChannel() gives
+	 * @param channel closed once read
+	 * @param name used in error messages
+	 * @param zInPathDist
+	 * @param scaleZ
+	 * @param trajectoryThresholds
+	 * @return
+	 * @throws Exception
+	 */
+	public static SwcTreeNode convertSwcToBinaryTreeList(
+			ReadableByteChannel channel, String name, boolean zInPathDist, double scaleZ, 
+			SwcDataNode trajectoryThresholds) throws Exception{
+		return convertSwcToBinaryTreeList(new SwcParser(channel, name, true, true), name, 
+				zInPathDist, scaleZ, trajectoryThresholds, null, null);
+	}
+	private static SwcTreeNode convertSwcToBinaryTreeList(
+			SwcParser parser, String name, boolean zInPathDist, double scaleZ, SwcDataNode trajectoryThresholds, 
+			Map treeNodeMap, ReadStatistics statistics) throws Exception{
+		long start = statistics == null ? 0 : System.nanoTime(), stepStart;
 	    
 		List binaryTrees = new ArrayList();
 		
@@ -80,40 +126,32 @@ public class ReadSWC {
 		// 2. Removes continuations.
 		// 3. Transforms each into binary tree since all tree info is now known (provides stability in transformation).
 
-		BufferedReader reader = new BufferedReader(new FileReader(inputFile));
-
-		String dataString = "";
 		Map nodeMap = new HashMap();
 		Map addNodeSideMap = new HashMap();
+		List nodeList = new ArrayList();
 		SwcTreeNode node, parent, root = null;
-		Pattern p = Pattern.compile("[ \\t]*(\\d+)[ \\t]+(\\d+)[ \\t]+(\\-?[\\.\\d]+)[ \\t]+(\\-?[\\.\\d]+)[ \\t]+(\\-?[\\.\\d]+)[ \\t]+([\\.\\d]+)[ \\t]+(\\-?\\d+)[ \\t]*");
-		Matcher m;
-		int nodeId, parentId, line = 0;
+		int nodeId, parentId;
 		
 		// 1. Assembles individual trees
-		while ( (dataString=reader.readLine()) != null ) {
-			line++;
-	        m = p.matcher(dataString);
-	        //System.out.println(dataString);
-	        
-	        if (m.matches()){
+		try{
+			while (parser.next()){
 	        	node = new SwcTreeNode();
-	        	nodeId = Integer.parseInt(m.group(1));
+	        	nodeId = parser.getNodeId();
 	        	node.setNodeId(nodeId);
-	        	//type = Integer.parseInt(m.group(2));
+	        	//type = parser.getType();
 	        	//node.setType(type);
 	        	// Node types will all be set to 1
 	        	node.setType(1);
-	        	node.setX(Double.parseDouble(m.group(3)));
-	        	node.setY(Double.parseDouble(m.group(4)));
+	        	node.setX(parser.getX());
+	        	node.setY(parser.getY());
 	        	if (scaleZ == 1){
-	        		node.setZ(Double.parseDouble(m.group(5)));
+	        		node.setZ(parser.getZ());
 	        	}
 	        	else{
-	        		node.setZ(scaleZ * Double.parseDouble(m.group(5)));
+	        		node.setZ(scaleZ * parser.getZ());
 	        	}
-	        	node.setRadius(Double.parseDouble(m.group(6)));
-	        	parentId = Integer.parseInt(m.group(7));
+	        	node.setRadius(parser.getRadius());
+	        	parentId = parser.getParentId();
 	        	node.setParentId(parentId);
 	        	//System.out.println(nodeId + " " + type + " " + parentId);
 	        	if (parentId == -1){
@@ -126,34 +164,57 @@ public class ReadSWC {
 	        		parent = (SwcTreeNode)nodeMap.get(new Integer(parentId));
 	        	}
 
-    			addNode(node,parent,nodeMap,addNodeSideMap);
-        	}
-	        else if (dataString.charAt(0) != '#'){
-	        	throw new DataFormatException("Improper SWC format at line "+line+" of "+inputFile.getName());
-	        }
-	        m = null;
-	    }
+    			addNode(node,parent,nodeMap,addNodeSideMap,nodeList);
+		    }
+		}
+		finally{
+			parser.close();
+		}
+		updateBranchStatistics(nodeList);
 
 		if (root == null){
-			throw new DataFormatException("No root node found in "+inputFile.getName());
+			throw new DataFormatException("No root node found in "+name);
+		}
+		
+		if (treeNodeMap != null){
+			// Root's children are replaced by binary trees below
+			addTreePathNodes(root, treeNodeMap);
+		}
+		if (statistics != null){
+			statistics.addFile(nodeList.size(), System.nanoTime() - start);
+			start = System.nanoTime();
 		}
 		
 		// Assuming only multifurcation is root
-		ParentedBinaryTreeNode binaryTree, binaryRoot = new ParentedBinaryTreeNode(root.getSwcData());
+		ParentedBinaryTreeNode binaryTree, headNode, binaryRoot = new ParentedBinaryTreeNode(root.getSwcData());
 		for (int i = 0; i < root.getChildren().size(); i++){
 			binaryTree = convertTreeToBinary((SwcTreeNode)root.getChildren().get(i));
 			binaryTree.setParent(binaryRoot);
 			
 			if (trajectoryThresholds != null){
+				stepStart = statistics == null ? 0 : System.nanoTime();
 				calculateTrajectories(binaryTree, trajectoryThresholds, zInPathDist);
+				if (statistics != null){
+					statistics.addTrajectoryNanos(System.nanoTime() - stepStart);
+					// Binary conversion time is the rest
+					start += System.nanoTime() - stepStart;
+				}
 			}
 			//tree = removeContinuations((SwcTreeNode)root.getChildren().get(0), true, zInPathDist);
-			binaryTree = removeContinuations(root, binaryTree, true, zInPathDist);
+			headNode = removeContinuations(root, binaryTree, true, zInPathDist);
+			// Trees are linked without statistics, a lone node never had them
+			if (binaryTree.hasChildren()){
+				ParentedBinaryTreeNode.updateBranchStatisticsDown(binaryTree);
+			}
+			binaryTree = headNode;
 			
 			//binaryTrees.add(convertTreeToBinary(tree));
 			binaryTrees.add(binaryTree);
 		}
 		root.setChildren(binaryTrees);
+		if (statistics != null){
+			statistics.addBinaryNanos(System.nanoTime() - start);
+		}
 		
 		//System.out.println("Done assembling trees from swc");
 		
@@ -164,7 +225,8 @@ public class ReadSWC {
 			SwcTreeNode node,
 			SwcTreeNode parent,
 			Map nodeMap,
-			Map addNodeSideMap){
+			Map addNodeSideMap,
+			List nodeList){
 
 		if (node != null){
 			//System.out.println("Parent: "+parent);
@@ -172,18 +234,36 @@ public class ReadSWC {
     		nodeMap.put(new Integer(node.getNodeId()), node);
     		// Set node in meta data map (used for nodes with > 2 children)
     		addNodeSideMap.put(node, new Integer(0));
+    		nodeList.add(node);
     		// If parent is null, then this is just the start of a new tree
     		// If parent is of a different node type, DO NOT ATTACH
     		if (parent != null && 
     				parent.getType() == node.getType()){
-    			parent.addChildNode(node);
+    			// Statistics are updated once all nodes are read
+    			parent.addChildNode(node, false);
     		}
     	}
 	}
 
+	/**
+	 * Updates the branch statistics of nodes read by addNode, in reverse of the
+	 * order they were read so children come before their parents
+	 * @param nodeList
+	 */
+	private static void updateBranchStatistics(List nodeList){
+		SwcTreeNode node;
+		for (int i = nodeList.size() - 1; i >= 0; i--){
+			node = (SwcTreeNode)nodeList.get(i);
+			// Nodes without children were never updated when linked one at a time
+			if (node.hasChildren()){
+				TreeNode.updateBranchStatistics(node);
+			}
+		}
+	}
+
 	private static ParentedBinaryTreeNode removeContinuations(SwcTreeNode treeRoot, ParentedBinaryTreeNode binaryRoot, 
 			boolean calcPathDist, boolean zInPathDist){
-    	LinkedStack stack = new LinkedStack();
+    	ArrayStack stack = new ArrayStack();
     	ParentedBinaryTreeNode node, headNode = binaryRoot, child;
     	SwcDataNode data, childData;
 
@@ -236,10 +316,10 @@ public class ReadSWC {
     				else{
 						// add child to parent, remove self
 	    				if (node.isLeft()){
-	    					node.getParent().setLeft(child);
+	    					node.getParent().setLeft(child, false);
 	    				}
 	    				else{
-	    					node.getParent().setRight(child);
+	    					node.getParent().setRight(child, false);
 	    				}
     				}
 				}
@@ -285,7 +365,7 @@ public class ReadSWC {
 	}
 	
 	private static SwcTreeNode removeContinuations(SwcTreeNode root, boolean calcPathDist, boolean zInPathDist){
-    	LinkedStack stack = new LinkedStack();
+    	ArrayStack stack = new ArrayStack();
     	SwcTreeNode node, headNode = root, child;
     	Collection children;
     	stack.push(root);
@@ -381,7 +461,7 @@ public class ReadSWC {
 	 * @param zInPathDist
 	 */
 	private static void calculateTrajectories(ParentedBinaryTreeNode root, SwcDataNode thresholds, boolean zInPathDist){
-    	LinkedStack stack = new LinkedStack();
+    	ArrayStack stack = new ArrayStack();
     	ParentedBinaryTreeNode node, c;
     	SwcDataNode data, prevData, cData;
     	EuclideanPoint point, tmpPoint;
@@ -466,7 +546,7 @@ public class ReadSWC {
     	}
 	}
 	
-	private static void addChildBifurcationsToStack(LinkedStack stack, ParentedBinaryTreeNode node){
+	private static void addChildBifurcationsToStack(ArrayStack stack, ParentedBinaryTreeNode node){
 		ParentedBinaryTreeNode c = node.getParentedLeft();
 		// Traverse continuations until a bifurcation or termination (leaf) is found
 		while(c.getRight() == null && c.getLeft() != null) {
@@ -581,7 +661,7 @@ public class ReadSWC {
 		ParentedBinaryTreeNode root = new ParentedBinaryTreeNode(), node, tmp;
 		SwcTreeNode treeNode;
 		root.setData(head);
-		LinkedStack stack = new LinkedStack(), recentTreeStack = new LinkedStack();
+		ArrayStack stack = new ArrayStack(), recentTreeStack = new ArrayStack();
 		stack.push(root);
 		if (debug) System.out.println("Converting Tree to Binary");
 		while (!stack.isEmpty()){
@@ -593,10 +673,11 @@ public class ReadSWC {
 			if (debug) System.out.println("Node data: "+node.getData());
 			if (treeNode.hasChildren()){
 				if (treeNode.getChildren().size() > 1){
+					// Copy of children, so the tree node keeps them
 					tmp = convertTreeNodeToBinaryTreeNode(
-							(SwcDataNode)node.getData(),treeNode.getChildren());
-					node.setLeft(tmp.getParentedLeft());
-					node.setRight(tmp.getParentedRight());
+							(SwcDataNode)node.getData(),new ArrayList(treeNode.getChildren()));
+					node.setLeft(tmp.getParentedLeft(), false);
+					node.setRight(tmp.getParentedRight(), false);
 					// Find new bottom nodes
 					recentTreeStack.push(tmp.getLeft());
 					recentTreeStack.push(tmp.getRight());
@@ -612,7 +693,7 @@ public class ReadSWC {
 					}
 				}
 				else{
-					node.setLeft(new ParentedBinaryTreeNode());
+					node.setLeft(new ParentedBinaryTreeNode(), false);
 					node.getLeft().setData((SwcTreeNode)treeNode.getChildren().get(0));
 					stack.push(node.getLeft());	
 				}
@@ -683,21 +764,21 @@ public class ReadSWC {
 			object = best1;
 			childList.remove(best1);
 			if (object.getClass().equals(SwcTreeNode.class)){
-				newNode.setLeft(new ParentedBinaryTreeNode());
+				newNode.setLeft(new ParentedBinaryTreeNode(), false);
 				newNode.getLeft().setData((SwcTreeNode)object);
 			}
 			else{
-				newNode.setLeft((ParentedBinaryTreeNode)object);
+				newNode.setLeft((ParentedBinaryTreeNode)object, false);
 			}
 			
 			object = best2;
 			childList.remove(best2);
 			if (object.getClass().equals(SwcTreeNode.class)){
-				newNode.setRight(new ParentedBinaryTreeNode());
+				newNode.setRight(new ParentedBinaryTreeNode(), false);
 				newNode.getRight().setData((SwcTreeNode)object);
 			}
 			else{
-				newNode.setRight((ParentedBinaryTreeNode)object);
+				newNode.setRight((ParentedBinaryTreeNode)object, false);
 			}
 			childList.add(newNode);
 		}
@@ -715,37 +796,33 @@ public class ReadSWC {
 		// 2. Removes continuations.
 		// 3. Transforms each into binary tree since all tree info is now known (provides stability in transformation).
 
-		BufferedReader reader = new BufferedReader(new FileReader(inputFile));
+		// Fields separated by spaces only, other lines are skipped
+		SwcParser parser = new SwcParser(inputFile, false, false);
 
-		String dataString = "";
 		Map nodeMap = new HashMap();
 		Map addNodeSideMap = new HashMap();
+		List nodeList = new ArrayList();
 		SwcTreeNode node, parent, root = null;
-		Pattern p = Pattern.compile(" *(\\d+) +(\\d+) +(\\-?[\\.\\d]+) +(\\-?[\\.\\d]+) +(\\-?[\\.\\d]+) +([\\.\\d]+) +(\\-?\\d+) *");
-		Matcher m;
 		int nodeId, parentId, type;
 		
 		// 1. Assembles individual trees
-		while ( (dataString=reader.readLine()) != null ) { 
-	        m = p.matcher(dataString);
-	        //System.out.println(dataString);
-	        
-	        if (m.matches()){
+		try{
+			while (parser.next()){
 	        	node = new SwcTreeNode();
-	        	nodeId = Integer.parseInt(m.group(1));
+	        	nodeId = parser.getNodeId();
 	        	node.setNodeId(nodeId);
-	        	type = Integer.parseInt(m.group(2));
+	        	type = parser.getType();
 	        	node.setType(type);
-	        	node.setX(Double.parseDouble(m.group(3)));
-	        	node.setY(Double.parseDouble(m.group(4)));
+	        	node.setX(parser.getX());
+	        	node.setY(parser.getY());
 	        	if (scaleZ == 1){
-	        		node.setZ(Double.parseDouble(m.group(5)));
+	        		node.setZ(parser.getZ());
 	        	}
 	        	else{
-	        		node.setZ(scaleZ * Double.parseDouble(m.group(5)));
+	        		node.setZ(scaleZ * parser.getZ());
 	        	}
-	        	node.setRadius(Double.parseDouble(m.group(6)));
-	        	parentId = Integer.parseInt(m.group(7));
+	        	node.setRadius(parser.getRadius());
+	        	parentId = parser.getParentId();
 	        	node.setParentId(parentId);
 	        	//System.out.println(nodeId + " " + type + " " + parentId);
 	        	if (parentId == -1){
@@ -759,11 +836,13 @@ public class ReadSWC {
 	        		parent = (SwcTreeNode)nodeMap.get(new Integer(parentId));
 	        	}
 
-    			addNode(node,parent,nodeMap,addNodeSideMap);
-
-        	}
-	        m = null;
-	    }
+    			addNode(node,parent,nodeMap,addNodeSideMap,nodeList);
+		    }
+		}
+		finally{
+			parser.close();
+		}
+		updateBranchStatistics(nodeList);
 
 		return root;
 	}
@@ -775,39 +854,35 @@ public class ReadSWC {
 		// 2. Removes continuations.
 		// 3. Transforms each into binary tree since all tree info is now known (provides stability in transformation).
 
-		BufferedReader reader = new BufferedReader(new FileReader(inputFile));
+		// Fields separated by spaces only, other lines are skipped
+		SwcParser parser = new SwcParser(inputFile, false, false);
 
-		String dataString = "";
 		Map nodeMap = new HashMap();
 		Map addNodeSideMap = new HashMap();
+		List nodeList = new ArrayList();
 		SwcTreeNode node, parent, root = null;
-		Pattern p = Pattern.compile(" *(\\d+) +(\\d+) +(\\-?[\\.\\d]+) +(\\-?[\\.\\d]+) +(\\-?[\\.\\d]+) +([\\.\\d]+) +(\\-?\\d+) *");
-		Matcher m;
 		int nodeId, parentId;
 		
 		// 1. Assembles individual trees
-		while ( (dataString=reader.readLine()) != null ) { 
-	        m = p.matcher(dataString);
-	        if (debug) System.out.println(dataString);
-	        
-	        if (m.matches()){
+		try{
+			while (parser.next()){
 	        	node = new SwcTreeNode();
-	        	nodeId = Integer.parseInt(m.group(1));
+	        	nodeId = parser.getNodeId();
 	        	node.setNodeId(nodeId);
-	        	//type = Integer.parseInt(m.group(2));
+	        	//type = parser.getType();
 	        	//node.setType(type);
 	        	// Node types will all be set to 1
 	        	node.setType(1);
-	        	node.setX(Double.parseDouble(m.group(3)));
-	        	node.setY(Double.parseDouble(m.group(4)));
+	        	node.setX(parser.getX());
+	        	node.setY(parser.getY());
 	        	if (scaleZ == 1){
-	        		node.setZ(Double.parseDouble(m.group(5)));
+	        		node.setZ(parser.getZ());
 	        	}
 	        	else{
-	        		node.setZ(scaleZ * Double.parseDouble(m.group(5)));
+	        		node.setZ(scaleZ * parser.getZ());
 	        	}
-	        	node.setRadius(Double.parseDouble(m.group(6)));
-	        	parentId = Integer.parseInt(m.group(7));
+	        	node.setRadius(parser.getRadius());
+	        	parentId = parser.getParentId();
 	        	node.setParentId(parentId);
 	        	if (debug) System.out.println(nodeId + " " + parentId);
 	        	if (parentId == -1){
@@ -821,30 +896,41 @@ public class ReadSWC {
 	        		parent = (SwcTreeNode)nodeMap.get(new Integer(parentId));
 	        	}
 
-    			addNode(node,parent,nodeMap,addNodeSideMap);
-
-        	}
-	        m = null;
-	    }
+    			addNode(node,parent,nodeMap,addNodeSideMap,nodeList);
+		    }
+		}
+		finally{
+			parser.close();
+		}
+		updateBranchStatistics(nodeList);
 
 		// Find terminations and assemble them into a list
-		int i;
 		nodeMap.clear();
-		LinkedStack stack = new LinkedStack();
+		addTreePathNodes(root, nodeMap);
+		
+		if (debug) System.out.println("Done assembling trees from swc");
+		
+		return nodeMap;
+	}
+	
+	/**
+	 * Puts terminations and branch points under root into nodeMap, keyed by node id
+	 * @param root
+	 * @param nodeMap
+	 */
+	private static void addTreePathNodes(SwcTreeNode root, Map nodeMap){
+		SwcTreeNode node;
+		ArrayStack stack = new ArrayStack();
 		stack.push(root);
 		while (!stack.isEmpty()){
 			node = (SwcTreeNode)stack.pop();
 			if (node.isLeaf() || node.getChildren().size() > 1){
 				nodeMap.put(new Integer(node.getSwcData().getNodeId()), node);
 			}
-			for (i = 0; i < node.getChildren().size(); i++){
+			for (int i = 0; i < node.getChildren().size(); i++){
 				stack.push(node.getChildren().get(i));
 			}
 		}
-		
-		if (debug) System.out.println("Done assembling trees from swc");
-		
-		return nodeMap;
 	}
 	
 }
\ No newline at end of file
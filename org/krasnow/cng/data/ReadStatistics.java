@@ -0,0 +1,77 @@
+package org.krasnow.cng.data;
+
+/**
+ * 
+ * @author gillette
+ * Time spent reading SWC files, and how much was read. Filled by the reads it is
+ * passed to, so each thread of a parallel run keeps its own.
+ * 
+ */
+public class ReadStatistics {
+
+	private int files;
+	private int cachedFiles;
+	private long nodes;
+	// Parsing and assembling the SWC trees (or reading them from a cache)
+	private long parseNanos;
+	// Calculating trajectories
+	private long trajectoryNanos;
+	// Converting to binary trees, removing continuations
+	private long binaryNanos;
+
+	/**
+	 * Adds the statistics of other reads
+	 * @param other
+	 */
+	public void add(ReadStatistics other){
+		files += other.files;
+		cachedFiles += other.cachedFiles;
+		nodes += other.nodes;
+		parseNanos += other.parseNanos;
+		trajectoryNanos += other.trajectoryNanos;
+		binaryNanos += other.binaryNanos;
+	}
+
+	void addFile(long nodes, long parseNanos){
+		files++;
+		this.nodes += nodes;
+		this.parseNanos += parseNanos;
+	}
+	void addCachedFile(long nanos){
+		files++;
+		cachedFiles++;
+		parseNanos += nanos;
+	}
+	void addTrajectoryNanos(long nanos){
+		trajectoryNanos += nanos;
+	}
+	void addBinaryNanos(long nanos){
+		binaryNanos += nanos;
+	}
+
+	public int getFiles() {
+		return files;
+	}
+	/**
+	 * @return files read from a cache rather than parsed
+	 */
+	public int getCachedFiles() {
+		return cachedFiles;
+	}
+	/**
+	 * @return SWC points parsed
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+	public long getParseNanos() {
+		return parseNanos;
+	}
+	public long getTrajectoryNanos() {
+		return trajectoryNanos;
+	}
+	public long getBinaryNanos() {
+		return binaryNanos;
+	}
+
+}
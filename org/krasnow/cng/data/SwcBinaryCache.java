@@ -0,0 +1,522 @@
+package org.krasnow.cng.data;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.krasnow.cng.domain.ArrayStack;
+import org.krasnow.cng.domain.EuclideanPoint;
+import org.krasnow.cng.domain.ParentedBinaryTreeNode;
+import org.krasnow.cng.domain.SwcDataNode;
+import org.krasnow.cng.domain.SwcSecondaryData;
+import org.krasnow.cng.domain.SwcTreeNode;
+
+/**
+ *
+ * @author gillette
+ * Keeps the trees ReadSWC.convertSwcToBinaryTreeList makes from SWC files in
+ * binary files, so later reads of the same file with the same parameters
+ * skip text parsing and tree building.
+ * Cache files are named by the checksum and length of the SWC file and by the
+ * parameters, so an SWC file that has changed is simply read again. Cache files
+ * that can't be read (damaged, or from another version) are replaced.
+ * Cache files are made of fixed size records and are read memory mapped.
+ * Safe to use from several threads and processes at once.
+ * The same format keeps trees in memory (toByteArray), for making new copies
+ * of trees that scoring changes.
+ *
+ */
+public class SwcBinaryCache {
+
+	private static final int MAGIC = 0x53574342; // SWCB
+	private static final int VERSION = 1;
+	private static final String SUFFIX = ".swcb";
+	private static final int HEADER_SIZE = 80;
+	private static final int POINT_SIZE = 24;
+	private static final int SECONDARY_SIZE = 76;
+	private static final int DATA_SIZE = 48;
+	private static final int NODE_SIZE = 52;
+	private static final int TREE_SIZE = 12;
+
+	// Node flags
+	private static final int LEFT = 1;
+	private static final int STATISTICS = 2;
+
+	private File directory;
+
+	/**
+	 * @param directory where cache files are kept, created if necessary
+	 */
+	public SwcBinaryCache(File directory){
+		this.directory = directory;
+	}
+
+	public File getDirectory(){
+		return directory;
+	}
+
+	/**
+	 * Same as ReadSWC.convertSwcToBinaryTreeList, reading the trees from the cache when possible
+	 * @param inputFile
+	 * @param zInPathDist
+	 * @param scaleZ
+	 * @param trajectoryThresholds
+	 * @return
+	 * @throws Exception
+	 */
+	public SwcTreeNode convertSwcToBinaryTreeList(
+			File inputFile, boolean zInPathDist, double scaleZ, SwcDataNode trajectoryThresholds) throws Exception{
+		return convertSwcToBinaryTreeList(inputFile, zInPathDist, scaleZ, trajectoryThresholds, null);
+	}
+
+	/**
+	 * @param statistics if not null, given the time spent reading
+	 */
+	public SwcTreeNode convertSwcToBinaryTreeList(
+			File inputFile, boolean zInPathDist, double scaleZ, SwcDataNode trajectoryThresholds,
+			ReadStatistics statistics) throws Exception{
+		long start = statistics == null ? 0 : System.nanoTime();
+		Key key = new Key(inputFile, zInPathDist, scaleZ, trajectoryThresholds);
+		File cacheFile = new File(directory, key.getFileName());
+		SwcTreeNode root = null;
+		if (cacheFile.exists()){
+			try{
+				root = read(cacheFile, key);
+			}
+			catch (Exception e){
+				// Unusable cache file, replaced below
+				root = null;
+			}
+		}
+		if (root == null){
+			root = ReadSWC.convertSwcToBinaryTreeList(inputFile, zInPathDist, scaleZ, trajectoryThresholds, null, statistics);
+			try{
+				write(root, cacheFile, key);
+			}
+			catch (IOException e){
+				// Trees are still good without a cache file
+			}
+		}
+		else if (statistics != null){
+			statistics.addCachedFile(System.nanoTime() - start);
+		}
+		return root;
+	}
+
+	/**
+	 * @param root trees as ReadSWC.convertSwcToBinaryTreeList gives them
+	 * @return the trees in the cache file format
+	 * @throws IOException if the trees can't be kept (a node without SWC data, for one)
+	 */
+	public static byte[] toByteArray(SwcTreeNode root) throws IOException{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		write(root, out, MEMORY_KEY);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @param bytes from toByteArray
+	 * @return new trees, the same as those given to toByteArray
+	 * @throws IOException if bytes are not from toByteArray
+	 */
+	public static SwcTreeNode fromByteArray(byte[] bytes) throws IOException{
+		SwcTreeNode root = read(ByteBuffer.wrap(bytes), MEMORY_KEY);
+		if (root == null){
+			throw new IOException("Not trees from toByteArray");
+		}
+		return root;
+	}
+
+	// Trees kept in memory have no file
+	private static final Key MEMORY_KEY = new Key();
+
+	/**
+	 * Identifies the content of an SWC file and the parameters it is read with
+	 */
+	private static class Key {
+		private long length;
+		private long checksum;
+		private boolean zInPathDist;
+		private double scaleZ;
+		private double xyThreshold;
+		private double zThreshold;
+
+		Key(){
+		}
+
+		Key(File inputFile, boolean zInPathDist, double scaleZ, SwcDataNode trajectoryThresholds) throws IOException{
+			CRC32 crc = new CRC32();
+			byte[] bytes = new byte[1 << 16];
+			InputStream in = new FileInputStream(inputFile);
+			try{
+				int read;
+				while ((read = in.read(bytes)) > 0){
+					crc.update(bytes, 0, read);
+					length += read;
+				}
+			}
+			finally{
+				in.close();
+			}
+			checksum = crc.getValue();
+			this.zInPathDist = zInPathDist;
+			this.scaleZ = scaleZ;
+			// No thresholds, no trajectories
+			xyThreshold = trajectoryThresholds == null ? Double.NaN : trajectoryThresholds.getX();
+			zThreshold = trajectoryThresholds == null ? Double.NaN : trajectoryThresholds.getZ();
+		}
+
+		String getFileName(){
+			long parameters = Double.doubleToLongBits(scaleZ) * 31
+				+ Double.doubleToLongBits(xyThreshold) * 17
+				+ Double.doubleToLongBits(zThreshold) * 7
+				+ (zInPathDist ? 1 : 0);
+			return Long.toHexString(checksum) + "-" + Long.toHexString(length)
+				+ "-" + Long.toHexString(parameters) + SUFFIX;
+		}
+
+		void write(DataOutputStream out) throws IOException{
+			out.writeLong(length);
+			out.writeLong(checksum);
+			out.writeInt(zInPathDist ? 1 : 0);
+			out.writeDouble(scaleZ);
+			out.writeDouble(xyThreshold);
+			out.writeDouble(zThreshold);
+		}
+
+		boolean matches(ByteBuffer buffer){
+			return buffer.getLong() == length
+				&& buffer.getLong() == checksum
+				&& buffer.getInt() == (zInPathDist ? 1 : 0)
+				&& Double.doubleToLongBits(buffer.getDouble()) == Double.doubleToLongBits(scaleZ)
+				&& Double.doubleToLongBits(buffer.getDouble()) == Double.doubleToLongBits(xyThreshold)
+				&& Double.doubleToLongBits(buffer.getDouble()) == Double.doubleToLongBits(zThreshold);
+		}
+	}
+
+	/**
+	 * Writes the trees to a temporary file, then moves it into place so readers
+	 * never see a partly written cache file
+	 */
+	private void write(SwcTreeNode root, File cacheFile, Key key) throws IOException{
+		directory.mkdirs();
+		File tmpFile = File.createTempFile("swc", ".tmp", directory);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16));
+		try{
+			write(root, out, key);
+		}
+		catch (IOException e){
+			out.close();
+			tmpFile.delete();
+			throw e;
+		}
+		out.close();
+		if (!tmpFile.renameTo(cacheFile)){
+			// Another reader may have just written the same file
+			cacheFile.delete();
+			if (!tmpFile.renameTo(cacheFile)){
+				tmpFile.delete();
+			}
+		}
+	}
+
+	private static void write(SwcTreeNode root, DataOutputStream out, Key key) throws IOException{
+		// Number objects, keeping shared objects shared
+		Map dataIndex = new IdentityHashMap(), secondaryIndex = new IdentityHashMap(), pointIndex = new IdentityHashMap();
+		List dataList = new ArrayList(), secondaryList = new ArrayList(), pointList = new ArrayList();
+		List nodeList = new ArrayList();
+		Map nodeIndex = new IdentityHashMap();
+		addData(root.getSwcData(), dataIndex, dataList, secondaryIndex, secondaryList, pointIndex, pointList);
+
+		List trees = root.getChildren();
+		ArrayStack stack = new ArrayStack();
+		ParentedBinaryTreeNode node, tree;
+		for (int i = 0; i < trees.size(); i++){
+			tree = (ParentedBinaryTreeNode)trees.get(i);
+			if (tree.getParent() != null){
+				addData(tree.getParent().getSwcData(), dataIndex, dataList, secondaryIndex, secondaryList, pointIndex, pointList);
+			}
+			stack.push(tree);
+			while (!stack.isEmpty()){
+				node = (ParentedBinaryTreeNode)stack.pop();
+				nodeIndex.put(node, new Integer(nodeList.size()));
+				nodeList.add(node);
+				addData(node.getSwcData(), dataIndex, dataList, secondaryIndex, secondaryList, pointIndex, pointList);
+				if (node.getRight() != null){
+					stack.push(node.getParentedRight());
+				}
+				if (node.getLeft() != null){
+					stack.push(node.getParentedLeft());
+				}
+			}
+		}
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		key.write(out);
+		out.writeInt(pointList.size());
+		out.writeInt(secondaryList.size());
+		out.writeInt(dataList.size());
+		out.writeInt(nodeList.size());
+		out.writeInt(trees.size());
+		// Pad to HEADER_SIZE
+		out.writeLong(0);
+
+		EuclideanPoint point;
+		for (int i = 0; i < pointList.size(); i++){
+			point = (EuclideanPoint)pointList.get(i);
+			out.writeDouble(point.getX());
+			out.writeDouble(point.getY());
+			out.writeDouble(point.getZ());
+		}
+		SwcSecondaryData secondary;
+		for (int i = 0; i < secondaryList.size(); i++){
+			secondary = (SwcSecondaryData)secondaryList.get(i);
+			out.writeDouble(secondary.getLocalAngleOfBifurcation());
+			out.writeDouble(secondary.getRemoteAngleOfBifurcation());
+			out.writeDouble(secondary.getPathLength());
+			out.writeDouble(secondary.getXYPathLength());
+			out.writeDouble(secondary.getZPathLength());
+			out.writeDouble(secondary.getSurfaceArea());
+			out.writeDouble(secondary.getVolume());
+			out.writeDouble(secondary.getEuclideanDistance());
+			out.writeInt(indexOf(secondary.getParentTrajectoryPoint(), pointIndex));
+			out.writeInt(indexOf(secondary.getLeftTrajectoryPoint(), pointIndex));
+			out.writeInt(indexOf(secondary.getRightTrajectoryPoint(), pointIndex));
+		}
+		SwcDataNode data;
+		for (int i = 0; i < dataList.size(); i++){
+			data = (SwcDataNode)dataList.get(i);
+			out.writeInt(data.getNodeId());
+			out.writeInt(data.getParentId());
+			out.writeInt(data.getType());
+			out.writeDouble(data.getX());
+			out.writeDouble(data.getY());
+			out.writeDouble(data.getZ());
+			out.writeDouble(data.getRadius());
+			out.writeInt(indexOf(data.getSecondaryData(), secondaryIndex));
+		}
+		for (int i = 0; i < nodeList.size(); i++){
+			node = (ParentedBinaryTreeNode)nodeList.get(i);
+			out.writeInt(indexOf(node.getSwcData(), dataIndex));
+			out.writeInt(indexOf(node.getLeft(), nodeIndex));
+			out.writeInt(indexOf(node.getRight(), nodeIndex));
+			out.writeLong(node.getLevel());
+			out.writeInt((node.isLeft() ? LEFT : 0) | (node.hasStatistics() ? STATISTICS : 0));
+			out.writeInt(node.getTreeSize());
+			out.writeInt(node.getLeaves());
+			out.writeInt(node.getHeight());
+			out.writeInt(node.getTotalHeight());
+			out.writeFloat(node.getAverageHeight());
+			out.writeFloat((float)node.getPartitionAsymmetry());
+			out.writeFloat(node.getTotalAsymmetry());
+		}
+		for (int i = 0; i < trees.size(); i++){
+			tree = (ParentedBinaryTreeNode)trees.get(i);
+			out.writeInt(indexOf(tree, nodeIndex));
+			out.writeInt(tree.getParent() == null ? -1 : indexOf(tree.getParent().getSwcData(), dataIndex));
+			out.writeInt(tree.isLeft() ? LEFT : 0);
+		}
+	}
+
+	private static void addData(SwcDataNode data, Map dataIndex, List dataList,
+			Map secondaryIndex, List secondaryList, Map pointIndex, List pointList) throws IOException{
+		if (data == null){
+			throw new IOException("Node without SWC data");
+		}
+		if (add(data, dataIndex, dataList) && data.getSecondaryData() != null){
+			SwcSecondaryData secondary = data.getSecondaryData();
+			if (add(secondary, secondaryIndex, secondaryList)){
+				addPoint(secondary.getParentTrajectoryPoint(), pointIndex, pointList);
+				addPoint(secondary.getLeftTrajectoryPoint(), pointIndex, pointList);
+				addPoint(secondary.getRightTrajectoryPoint(), pointIndex, pointList);
+			}
+		}
+	}
+
+	private static void addPoint(EuclideanPoint point, Map pointIndex, List pointList) throws IOException{
+		if (point != null){
+			if (!point.getClass().equals(EuclideanPoint.class)){
+				// Would not be the same object after reading
+				throw new IOException("Trajectory point is a "+point.getClass().getName());
+			}
+			add(point, pointIndex, pointList);
+		}
+	}
+
+	/**
+	 * @return whether object was added, rather than already there
+	 */
+	private static boolean add(Object object, Map index, List list){
+		if (index.containsKey(object)){
+			return false;
+		}
+		index.put(object, new Integer(list.size()));
+		list.add(object);
+		return true;
+	}
+
+	private static int indexOf(Object object, Map index){
+		if (object == null){
+			return -1;
+		}
+		return ((Integer)index.get(object)).intValue();
+	}
+
+	private SwcTreeNode read(File cacheFile, Key key) throws IOException{
+		RandomAccessFile file = new RandomAccessFile(cacheFile, "r");
+		ByteBuffer buffer;
+		try{
+			FileChannel channel = file.getChannel();
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		finally{
+			file.close();
+		}
+		return read(buffer, key);
+	}
+
+	/**
+	 * @return the trees in buffer, null if they are not for key
+	 */
+	private static SwcTreeNode read(ByteBuffer buffer, Key key){
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+				|| !key.matches(buffer)){
+			return null;
+		}
+		int points = buffer.getInt();
+		int secondaries = buffer.getInt();
+		int datas = buffer.getInt();
+		int nodes = buffer.getInt();
+		int trees = buffer.getInt();
+		long size = HEADER_SIZE + (long)points*POINT_SIZE + (long)secondaries*SECONDARY_SIZE
+			+ (long)datas*DATA_SIZE + (long)nodes*NODE_SIZE + (long)trees*TREE_SIZE;
+		if (points < 0 || secondaries < 0 || datas < 1 || nodes < 0 || trees < 0 || size != buffer.capacity()){
+			return null;
+		}
+
+		buffer.position(HEADER_SIZE);
+		EuclideanPoint[] pointArray = new EuclideanPoint[points];
+		for (int i = 0; i < points; i++){
+			pointArray[i] = new EuclideanPoint(buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+		}
+		SwcSecondaryData[] secondaryArray = new SwcSecondaryData[secondaries];
+		SwcSecondaryData secondary;
+		for (int i = 0; i < secondaries; i++){
+			secondary = new SwcSecondaryData();
+			secondary.setLocalAngleOfBifurcation(buffer.getDouble());
+			secondary.setRemoteAngleOfBifurcation(buffer.getDouble());
+			secondary.setPathLength(buffer.getDouble());
+			secondary.setXYPathLength(buffer.getDouble());
+			secondary.setZPathLength(buffer.getDouble());
+			secondary.setSurfaceArea(buffer.getDouble());
+			secondary.setVolume(buffer.getDouble());
+			secondary.setEuclideanDistance(buffer.getDouble());
+			secondary.setParentTrajectoryPoint((EuclideanPoint)get(pointArray, buffer.getInt()));
+			secondary.setLeftTrajectoryPoint((EuclideanPoint)get(pointArray, buffer.getInt()));
+			secondary.setRightTrajectoryPoint((EuclideanPoint)get(pointArray, buffer.getInt()));
+			secondaryArray[i] = secondary;
+		}
+
+		// The first data is the SWC root's
+		SwcTreeNode root = new SwcTreeNode();
+		SwcDataNode[] dataArray = new SwcDataNode[datas];
+		SwcDataNode data;
+		for (int i = 0; i < datas; i++){
+			data = i == 0 ? root.getSwcData() : new SwcDataNode();
+			data.setNodeId(buffer.getInt());
+			data.setParentId(buffer.getInt());
+			data.setType(buffer.getInt());
+			data.setX(buffer.getDouble());
+			data.setY(buffer.getDouble());
+			data.setZ(buffer.getDouble());
+			data.setRadius(buffer.getDouble());
+			data.setSecondaryData((SwcSecondaryData)get(secondaryArray, buffer.getInt()));
+			dataArray[i] = data;
+		}
+
+		ParentedBinaryTreeNode[] nodeArray = new ParentedBinaryTreeNode[nodes];
+		for (int i = 0; i < nodes; i++){
+			nodeArray[i] = new ParentedBinaryTreeNode();
+		}
+		// Link first, as linking sets levels
+		int nodeStart = buffer.position();
+		ParentedBinaryTreeNode node;
+		for (int i = 0; i < nodes; i++){
+			node = nodeArray[i];
+			buffer.position(nodeStart + i*NODE_SIZE);
+			node.setData(get(dataArray, buffer.getInt()));
+			node.setLeft((ParentedBinaryTreeNode)get(nodeArray, buffer.getInt()), false);
+			node.setRight((ParentedBinaryTreeNode)get(nodeArray, buffer.getInt()), false);
+		}
+		int flags;
+		for (int i = 0; i < nodes; i++){
+			node = nodeArray[i];
+			buffer.position(nodeStart + i*NODE_SIZE + 12);
+			node.setLevel(buffer.getLong());
+			flags = buffer.getInt();
+			node.setTreeSize(buffer.getInt());
+			if ((flags & STATISTICS) != 0){
+				node.setLeaves(buffer.getInt());
+				node.setHeight(buffer.getInt());
+				node.setTotalHeight(buffer.getInt());
+				node.setAverageHeight(buffer.getFloat());
+				node.setPartitionAsymmetry(buffer.getFloat());
+				node.setTotalAsymmetry(buffer.getFloat());
+			}
+		}
+		buffer.position(nodeStart + nodes*NODE_SIZE);
+
+		// Tree heads keep the parent they were given while reading the SWC file
+		List treeList = new ArrayList();
+		Map parents = new IdentityHashMap();
+		ParentedBinaryTreeNode tree, parent;
+		for (int i = 0; i < trees; i++){
+			tree = nodeArray[buffer.getInt()];
+			data = (SwcDataNode)get(dataArray, buffer.getInt());
+			flags = buffer.getInt();
+			if (data != null){
+				long level = tree.getLevel();
+				if ((flags & LEFT) != 0){
+					parent = new ParentedBinaryTreeNode(data);
+					parent.setLeft(tree, false);
+				}
+				else{
+					parent = (ParentedBinaryTreeNode)parents.get(data);
+					if (parent == null){
+						parent = new ParentedBinaryTreeNode(data);
+						parents.put(data, parent);
+					}
+					tree.setParent(parent, false);
+				}
+				tree.setLevel(level);
+			}
+			treeList.add(tree);
+		}
+		root.setChildren(treeList);
+		return root;
+	}
+
+	private static Object get(Object[] array, int index){
+		if (index == -1){
+			return null;
+		}
+		return array[index];
+	}
+
+}
@@ -0,0 +1,373 @@
+package org.krasnow.cng.data;
+
+import java.util.Random;
+
+/**
+ *
+ * @author gillette
+ * Grows synthetic neuron reconstructions, for scale and regression tests where
+ * real reconstructions can't be shared, and makes "test" reconstructions of them
+ * with controlled tracing errors.
+ * Stems leave the soma in random directions; a randomly picked growing tip is
+ * extended one step at a time, bifurcating or terminating with the given
+ * probabilities and turning back at the edge of the spatial extent. Z steps are
+ * scaled separately, as images usually have coarser Z than XY resolution.
+ * The same seed and settings always give the same points.
+ *
+ */
+public class SwcGenerator {
+
+	public static final int TYPE_SOMA = 1;
+	public static final int TYPE_DENDRITE = 3;
+
+	// Growth
+	private int nodes = 1000;
+	private int stems = 2;
+	private double stepLength = 3;
+	private double branchProbability = 0.06;
+	private double terminationProbability = 0.005;
+	// Largest turn (radians) of each daughter branch, and of each step
+	private double branchAngle = 0.8;
+	private double tortuosity = 0.2;
+	// Z step relative to the XY step
+	private double zScale = 0.3;
+	// Largest XY distance and Z distance from the soma, 0 for no limit
+	private double extentXY = 0;
+	private double extentZ = 0;
+	// Within a typical image stack rather than at its corner
+	private double somaX = 500, somaY = 500, somaZ = 20;
+	private double somaRadius = 5;
+	private double stemRadius = 2;
+	// Radius multiplier per step, down to minRadius
+	private double taper = 0.999;
+	private double minRadius = 0.2;
+	private int type = TYPE_DENDRITE;
+
+	// Tracing errors of test reconstructions
+	// Standard deviation of point displacement in XY and in Z
+	private double jitter = 0.5;
+	private double zJitter = 0.15;
+	// Chance of each branch being dropped, along with the branches after it,
+	// if that is at most maxDroppedNodes points
+	private double dropProbability = 0.02;
+	private int maxDroppedNodes = 500;
+	// Chance of a one point spur at each point, and the largest spur length
+	private double spurProbability = 0.02;
+	private double spurLength = 4;
+	// Chance of a spurious branch at each point, and its number of points
+	private double spuriousBranchProbability = 0.001;
+	private int spuriousBranchNodes = 20;
+
+	/**
+	 * @param seed
+	 * @return the points of a reconstruction of the given number of nodes,
+	 * the soma first
+	 */
+	public SwcPoints generate(long seed){
+		Random random = new Random(seed);
+		SwcPoints points = new SwcPoints(nodes);
+		int soma = points.add(TYPE_SOMA, somaX, somaY, somaZ, somaRadius, -1);
+
+		// Growing tips and their XY headings
+		int[] tips = new int[Math.max(16, stems)];
+		double[] headings = new double[tips.length];
+		int tipCount = 0;
+		for (int i = 0; i < stems; i++){
+			tips[tipCount] = soma;
+			headings[tipCount++] = random.nextDouble() * 2 * Math.PI;
+		}
+
+		int tip, branches, point;
+		double heading, turn;
+		while (points.size() < nodes && tipCount > 0){
+			// Take a random tip, moving the last tip into its place
+			int pick = random.nextInt(tipCount);
+			tip = tips[pick];
+			heading = headings[pick];
+			tipCount--;
+			tips[pick] = tips[tipCount];
+			headings[pick] = headings[tipCount];
+
+			if (tip == soma){
+				// Each stem starts with a single point
+				branches = 1;
+				turn = 0;
+			}
+			else{
+				// The last tip keeps growing until the reconstruction is complete
+				if (tipCount > 0 && random.nextDouble() < terminationProbability){
+					continue;
+				}
+				branches = random.nextDouble() < branchProbability ? 2 : 1;
+				turn = branches > 1 ? branchAngle : tortuosity;
+			}
+			for (int b = 0; b < branches && points.size() < nodes; b++){
+				point = extend(points, tip, heading + (random.nextDouble() * 2 - 1) * turn, random);
+				if (tipCount == tips.length){
+					int[] newTips = new int[tips.length * 2];
+					double[] newHeadings = new double[newTips.length];
+					System.arraycopy(tips, 0, newTips, 0, tipCount);
+					System.arraycopy(headings, 0, newHeadings, 0, tipCount);
+					tips = newTips;
+					headings = newHeadings;
+				}
+				tips[tipCount] = point;
+				headings[tipCount++] = heading(points, tip, point);
+			}
+		}
+		return points;
+	}
+
+	/**
+	 * Adds a point one step from point from, turned back if outside the spatial extent
+	 * @return index of the new point
+	 */
+	private int extend(SwcPoints points, int from, double heading, Random random){
+		double x = points.getX(from), y = points.getY(from), z = points.getZ(from);
+		double nextX = x + stepLength * Math.cos(heading);
+		double nextY = y + stepLength * Math.sin(heading);
+		double dz = (random.nextDouble() * 2 - 1) * zScale * stepLength;
+		if (extentXY > 0 && distanceXY(nextX, nextY) > extentXY && distanceXY(nextX, nextY) > distanceXY(x, y)){
+			// Head back towards the soma
+			heading = Math.atan2(somaY - y, somaX - x) + (random.nextDouble() * 2 - 1) * tortuosity;
+			nextX = x + stepLength * Math.cos(heading);
+			nextY = y + stepLength * Math.sin(heading);
+		}
+		if (extentZ > 0 && Math.abs(z + dz - somaZ) > extentZ && Math.abs(z + dz - somaZ) > Math.abs(z - somaZ)){
+			dz = -dz;
+		}
+		double radius = points.getParent(from) < 0 ? stemRadius : Math.max(minRadius, points.getRadius(from) * taper);
+		return points.add(type, nextX, nextY, z + dz, radius, from);
+	}
+
+	private double distanceXY(double x, double y){
+		return Math.sqrt((x - somaX) * (x - somaX) + (y - somaY) * (y - somaY));
+	}
+
+	private static double heading(SwcPoints points, int from, int to){
+		return Math.atan2(points.getY(to) - points.getY(from), points.getX(to) - points.getX(from));
+	}
+
+	/**
+	 * @param gold reconstruction the test reconstruction is made from
+	 * @param seed
+	 * @return points of gold displaced by the jitter, with some branches
+	 * dropped, and spurs and spurious branches added.
+	 * Points are renumbered, parents still coming before their children.
+	 */
+	public SwcPoints perturb(SwcPoints gold, long seed){
+		Random random = new Random(seed);
+		int size = gold.size();
+		// Number of children, and number of points in the subtree, of each point
+		int[] children = new int[size];
+		int[] subtreeSize = new int[size];
+		int parent;
+		for (int i = size - 1; i >= 0; i--){
+			subtreeSize[i]++;
+			parent = gold.getParent(i);
+			if (parent >= 0){
+				children[parent]++;
+				subtreeSize[parent] += subtreeSize[i];
+			}
+		}
+
+		SwcPoints test = new SwcPoints(size + size / 16);
+		// Index in test of each gold point, -1 if dropped
+		int[] map = new int[size];
+		int point, branchPoint;
+		double angle, length;
+		for (int i = 0; i < size; i++){
+			parent = gold.getParent(i);
+			if (parent >= 0 && map[parent] < 0){
+				map[i] = -1;
+				continue;
+			}
+			// Branches start at bifurcations, stems are never dropped
+			if (parent >= 0 && gold.getParent(parent) >= 0 && children[parent] > 1
+					&& subtreeSize[i] <= maxDroppedNodes && random.nextDouble() < dropProbability){
+				map[i] = -1;
+				continue;
+			}
+			point = test.add(gold.getType(i),
+					gold.getX(i) + random.nextGaussian() * jitter,
+					gold.getY(i) + random.nextGaussian() * jitter,
+					gold.getZ(i) + random.nextGaussian() * zJitter,
+					gold.getRadius(i), parent < 0 ? -1 : map[parent]);
+			map[i] = point;
+			if (parent < 0){
+				// Nothing added to the soma
+				continue;
+			}
+			if (random.nextDouble() < spurProbability){
+				angle = random.nextDouble() * 2 * Math.PI;
+				length = random.nextDouble() * spurLength;
+				test.add(gold.getType(i),
+						test.getX(point) + length * Math.cos(angle),
+						test.getY(point) + length * Math.sin(angle),
+						test.getZ(point), test.getRadius(point), point);
+			}
+			if (random.nextDouble() < spuriousBranchProbability){
+				angle = random.nextDouble() * 2 * Math.PI;
+				branchPoint = point;
+				for (int j = 0; j < spuriousBranchNodes; j++){
+					branchPoint = extend(test, branchPoint, angle + (random.nextDouble() * 2 - 1) * tortuosity, random);
+				}
+			}
+		}
+		return test;
+	}
+
+	public int getNodes() {
+		return nodes;
+	}
+	public void setNodes(int nodes) {
+		this.nodes = nodes;
+	}
+	public int getStems() {
+		return stems;
+	}
+	public void setStems(int stems) {
+		this.stems = stems;
+	}
+	public double getStepLength() {
+		return stepLength;
+	}
+	public void setStepLength(double stepLength) {
+		this.stepLength = stepLength;
+	}
+	public double getBranchProbability() {
+		return branchProbability;
+	}
+	public void setBranchProbability(double branchProbability) {
+		this.branchProbability = branchProbability;
+	}
+	public double getTerminationProbability() {
+		return terminationProbability;
+	}
+	public void setTerminationProbability(double terminationProbability) {
+		this.terminationProbability = terminationProbability;
+	}
+	public double getBranchAngle() {
+		return branchAngle;
+	}
+	public void setBranchAngle(double branchAngle) {
+		this.branchAngle = branchAngle;
+	}
+	public double getTortuosity() {
+		return tortuosity;
+	}
+	public void setTortuosity(double tortuosity) {
+		this.tortuosity = tortuosity;
+	}
+	public double getZScale() {
+		return zScale;
+	}
+	public void setZScale(double scale) {
+		zScale = scale;
+	}
+	public double getExtentXY() {
+		return extentXY;
+	}
+	public void setExtentXY(double extentXY) {
+		this.extentXY = extentXY;
+	}
+	public double getExtentZ() {
+		return extentZ;
+	}
+	public void setExtentZ(double extentZ) {
+		this.extentZ = extentZ;
+	}
+	public void setSoma(double x, double y, double z) {
+		somaX = x;
+		somaY = y;
+		somaZ = z;
+	}
+	public double getSomaX() {
+		return somaX;
+	}
+	public double getSomaY() {
+		return somaY;
+	}
+	public double getSomaZ() {
+		return somaZ;
+	}
+	public double getSomaRadius() {
+		return somaRadius;
+	}
+	public void setSomaRadius(double somaRadius) {
+		this.somaRadius = somaRadius;
+	}
+	public double getStemRadius() {
+		return stemRadius;
+	}
+	public void setStemRadius(double stemRadius) {
+		this.stemRadius = stemRadius;
+	}
+	public double getTaper() {
+		return taper;
+	}
+	public void setTaper(double taper) {
+		this.taper = taper;
+	}
+	public double getMinRadius() {
+		return minRadius;
+	}
+	public void setMinRadius(double minRadius) {
+		this.minRadius = minRadius;
+	}
+	public int getType() {
+		return type;
+	}
+	public void setType(int type) {
+		this.type = type;
+	}
+	public double getJitter() {
+		return jitter;
+	}
+	public void setJitter(double jitter) {
+		this.jitter = jitter;
+	}
+	public double getZJitter() {
+		return zJitter;
+	}
+	public void setZJitter(double jitter) {
+		zJitter = jitter;
+	}
+	public double getDropProbability() {
+		return dropProbability;
+	}
+	public void setDropProbability(double dropProbability) {
+		this.dropProbability = dropProbability;
+	}
+	public int getMaxDroppedNodes() {
+		return maxDroppedNodes;
+	}
+	public void setMaxDroppedNodes(int maxDroppedNodes) {
+		this.maxDroppedNodes = maxDroppedNodes;
+	}
+	public double getSpurProbability() {
+		return spurProbability;
+	}
+	public void setSpurProbability(double spurProbability) {
+		this.spurProbability = spurProbability;
+	}
+	public double getSpurLength() {
+		return spurLength;
+	}
+	public void setSpurLength(double spurLength) {
+		this.spurLength = spurLength;
+	}
+	public double getSpuriousBranchProbability() {
+		return spuriousBranchProbability;
+	}
+	public void setSpuriousBranchProbability(double spuriousBranchProbability) {
+		this.spuriousBranchProbability = spuriousBranchProbability;
+	}
+	public int getSpuriousBranchNodes() {
+		return spuriousBranchNodes;
+	}
+	public void setSpuriousBranchNodes(int spuriousBranchNodes) {
+		this.spuriousBranchNodes = spuriousBranchNodes;
+	}
+
+}
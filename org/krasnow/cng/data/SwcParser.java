@@ -0,0 +1,322 @@
+package org.krasnow.cng.data;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.DataFormatException;
+
+/**
+ *
+ * @author gillette
+ * Reads SWC data lines (id type x y z radius parent) straight from the bytes of
+ * a channel, without creating a String per line or per field.
+ * Accepts the same lines as the patterns formerly used by ReadSWC: fields
+ * separated by spaces (and tabs if allowed), ids and types unsigned,
+ * coordinates optionally negative. Lines end with \n, \r or \r\n.
+ * Numbers are converted to exactly the values Integer.parseInt and
+ * Double.parseDouble give.
+ *
+ */
+public class SwcParser {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	// Largest number of significant digits converted without Double.parseDouble
+	private static final int MAX_FAST_DIGITS = 15;
+	private static final double[] POWERS_OF_TEN = new double[MAX_FAST_DIGITS + 1];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++){
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i-1] * 10;
+		}
+	}
+
+	// Field positions
+	private static final int ID = 0;
+	private static final int TYPE = 1;
+	private static final int X = 2;
+	private static final int Y = 3;
+	private static final int Z = 4;
+	private static final int RADIUS = 5;
+	private static final int PARENT = 6;
+	private static final int FIELDS = 7;
+
+	private ReadableByteChannel channel;
+	private String name;
+	private boolean allowTabs;
+	private boolean strict;
+
+	private byte[] bytes = new byte[BUFFER_SIZE];
+	private int position, limit;
+	private boolean endOfInput;
+
+	private int line;
+	private int lineStart, lineEnd;
+	private int[] fieldStart = new int[FIELDS];
+	private int[] fieldEnd = new int[FIELDS];
+
+	private int nodeId, parentId;
+	private double x, y, z, radius;
+
+	/**
+	 * @param inputFile
+	 * @param allowTabs whether tabs separate fields as well as spaces
+	 * @param strict whether lines that are neither data nor comments (starting with #) are errors,
+	 * rather than skipped
+	 * @throws IOException
+	 */
+	public SwcParser(File inputFile, boolean allowTabs, boolean strict) throws IOException{
+		this(new FileInputStream(inputFile).getChannel(), inputFile.getName(), allowTabs, strict);
+	}
+
+	/**
+	 * @param channel
+	 * @param name used in error messages
+	 * @param allowTabs whether tabs separate fields as well as spaces
+	 * @param strict whether lines that are neither data nor comments (starting with #) are errors,
+	 * rather than skipped
+	 */
+	public SwcParser(ReadableByteChannel channel, String name, boolean allowTabs, boolean strict){
+		this.channel = channel;
+		this.name = name;
+		this.allowTabs = allowTabs;
+		this.strict = strict;
+	}
+
+	/**
+	 * Moves to the next data line
+	 * @return false when there are no more data lines
+	 * @throws DataFormatException if strict and a line is neither data nor a comment
+	 * @throws NumberFormatException if a number is out of range or malformed (such as 1.2.3)
+	 */
+	public boolean next() throws IOException, DataFormatException{
+		while (nextLine()){
+			line++;
+			if (splitFields()){
+				nodeId = parseInt(ID);
+				x = parseDouble(X);
+				y = parseDouble(Y);
+				z = parseDouble(Z);
+				radius = parseDouble(RADIUS);
+				parentId = parseInt(PARENT);
+				return true;
+			}
+			else if (strict && (lineStart == lineEnd || bytes[lineStart] != '#')){
+				throw new DataFormatException("Improper SWC format at line "+line+" of "+name);
+			}
+		}
+		return false;
+	}
+
+	public int getLine(){
+		return line;
+	}
+	public int getNodeId(){
+		return nodeId;
+	}
+	public int getType(){
+		// Only parsed when asked for, as most readers ignore it
+		return parseInt(TYPE);
+	}
+	public double getX(){
+		return x;
+	}
+	public double getY(){
+		return y;
+	}
+	public double getZ(){
+		return z;
+	}
+	public double getRadius(){
+		return radius;
+	}
+	public int getParentId(){
+		return parentId;
+	}
+
+	public void close() throws IOException{
+		channel.close();
+	}
+
+	/**
+	 * Finds the next line, from lineStart up to lineEnd (terminator excluded)
+	 * @return false at end of input
+	 */
+	private boolean nextLine() throws IOException{
+		int i = position;
+		while (true){
+			while (i < limit && bytes[i] != '\n' && bytes[i] != '\r'){
+				i++;
+			}
+			if (i < limit){
+				if (bytes[i] == '\r' && i + 1 == limit && !endOfInput){
+					// Need the next byte to know whether this is \r\n
+					i -= fill();
+					continue;
+				}
+				lineStart = position;
+				lineEnd = i;
+				position = i + 1;
+				if (bytes[i] == '\r' && position < limit && bytes[position] == '\n'){
+					position++;
+				}
+				return true;
+			}
+			if (endOfInput){
+				if (position < limit){
+					lineStart = position;
+					lineEnd = limit;
+					position = limit;
+					return true;
+				}
+				return false;
+			}
+			i -= fill();
+		}
+	}
+
+	/**
+	 * Moves unread bytes to the start of the buffer and reads more
+	 * @return distance the unread bytes moved
+	 */
+	private int fill() throws IOException{
+		int shift = position;
+		if (shift > 0){
+			System.arraycopy(bytes, position, bytes, 0, limit - position);
+			limit -= position;
+			position = 0;
+		}
+		if (limit == bytes.length){
+			// Line longer than the buffer
+			byte[] tmp = new byte[bytes.length*2];
+			System.arraycopy(bytes, 0, tmp, 0, limit);
+			bytes = tmp;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, limit, bytes.length - limit);
+		int read = channel.read(buffer);
+		if (read < 0){
+			endOfInput = true;
+		}
+		else{
+			limit += read;
+		}
+		return shift;
+	}
+
+	private boolean isSeparator(byte b){
+		return b == ' ' || (allowTabs && b == '\t');
+	}
+
+	private static boolean isDigit(byte b){
+		return b >= '0' && b <= '9';
+	}
+
+	/**
+	 * Finds the bounds of each field of the current line
+	 * @return whether the line is a data line
+	 */
+	private boolean splitFields(){
+		int i = lineStart;
+		int start;
+		for (int field = 0; field < FIELDS; field++){
+			start = i;
+			while (i < lineEnd && isSeparator(bytes[i])){
+				i++;
+			}
+			// Fields after the first need a separator before them
+			if (field > 0 && i == start){
+				return false;
+			}
+			start = i;
+			if (field == X || field == Y || field == Z || field == PARENT){
+				if (i < lineEnd && bytes[i] == '-'){
+					i++;
+				}
+			}
+			if (field == ID || field == TYPE || field == PARENT){
+				while (i < lineEnd && isDigit(bytes[i])){
+					i++;
+				}
+			}
+			else{
+				while (i < lineEnd && (isDigit(bytes[i]) || bytes[i] == '.')){
+					i++;
+				}
+			}
+			// Need at least one digit (or point) after any sign
+			if (i == start || (i == start + 1 && bytes[start] == '-')){
+				return false;
+			}
+			fieldStart[field] = start;
+			fieldEnd[field] = i;
+		}
+		while (i < lineEnd && isSeparator(bytes[i])){
+			i++;
+		}
+		return i == lineEnd;
+	}
+
+	private String fieldString(int field){
+		return new String(bytes, fieldStart[field], fieldEnd[field] - fieldStart[field]);
+	}
+
+	private int parseInt(int field){
+		int start = fieldStart[field], end = fieldEnd[field];
+		boolean negative = bytes[start] == '-';
+		if (negative){
+			start++;
+		}
+		if (end - start > 9){
+			// Might not fit
+			return Integer.parseInt(fieldString(field));
+		}
+		int value = 0;
+		for (int i = start; i < end; i++){
+			value = value*10 + (bytes[i] - '0');
+		}
+		return negative ? -value : value;
+	}
+
+	private double parseDouble(int field){
+		int start = fieldStart[field], end = fieldEnd[field];
+		boolean negative = bytes[start] == '-';
+		if (negative){
+			start++;
+		}
+		long significand = 0;
+		int digits = 0, fractionDigits = 0;
+		boolean point = false, anyDigit = false;
+		byte b;
+		for (int i = start; i < end; i++){
+			b = bytes[i];
+			if (b == '.'){
+				if (point){
+					// Malformed, let Double.parseDouble report it
+					return Double.parseDouble(fieldString(field));
+				}
+				point = true;
+				continue;
+			}
+			anyDigit = true;
+			if (point){
+				fractionDigits++;
+			}
+			// Leading zeros aren't significant
+			if (digits > 0 || b != '0'){
+				digits++;
+				if (digits > MAX_FAST_DIGITS){
+					return Double.parseDouble(fieldString(field));
+				}
+				significand = significand*10 + (b - '0');
+			}
+		}
+		if (!anyDigit || fractionDigits > MAX_FAST_DIGITS){
+			return Double.parseDouble(fieldString(field));
+		}
+		// Both operands are exact, so the quotient is correctly rounded
+		double value = significand / POWERS_OF_TEN[fractionDigits];
+		return negative ? -value : value;
+	}
+
+}
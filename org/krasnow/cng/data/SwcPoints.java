@@ -0,0 +1,272 @@
+package org.krasnow.cng.data;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ *
+ * @author gillette
+ * SWC points kept in arrays rather than as objects, so that reconstructions of
+ * millions of points are cheap to hold and to write. Point i has id i+1 and
+ * parents come before their children.
+ * Coordinates and radii are written with three decimals, so reading the SWC
+ * text back gives the rounded values exactly.
+ *
+ */
+public class SwcPoints {
+
+	// Longest line written: 7 fields of at most 24 characters, each followed by a space or line break
+	private static final int MAX_LINE = 7 * 25;
+	// Usual length of a line, for sizing buffers
+	private static final int LINE_ESTIMATE = 48;
+
+	private int size;
+	private byte[] type;
+	private double[] x, y, z;
+	private float[] radius;
+	// Index of each point's parent, -1 for roots
+	private int[] parent;
+
+	/**
+	 * @param capacity expected number of points
+	 */
+	public SwcPoints(int capacity){
+		capacity = Math.max(capacity, 16);
+		type = new byte[capacity];
+		x = new double[capacity];
+		y = new double[capacity];
+		z = new double[capacity];
+		radius = new float[capacity];
+		parent = new int[capacity];
+	}
+
+	/**
+	 * @param type SWC type (0 to 127)
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param radius
+	 * @param parent index of the parent point, -1 for a root
+	 * @return index of the point
+	 */
+	public int add(int type, double x, double y, double z, double radius, int parent){
+		if (parent >= size){
+			throw new IllegalArgumentException("Parent "+parent+" must be added before its children");
+		}
+		if (size == this.x.length){
+			grow();
+		}
+		this.type[size] = (byte)type;
+		this.x[size] = x;
+		this.y[size] = y;
+		this.z[size] = z;
+		this.radius[size] = (float)radius;
+		this.parent[size] = parent;
+		return size++;
+	}
+
+	private void grow(){
+		int capacity = size + (size >> 1);
+		byte[] newType = new byte[capacity];
+		double[] newX = new double[capacity];
+		double[] newY = new double[capacity];
+		double[] newZ = new double[capacity];
+		float[] newRadius = new float[capacity];
+		int[] newParent = new int[capacity];
+		System.arraycopy(type, 0, newType, 0, size);
+		System.arraycopy(x, 0, newX, 0, size);
+		System.arraycopy(y, 0, newY, 0, size);
+		System.arraycopy(z, 0, newZ, 0, size);
+		System.arraycopy(radius, 0, newRadius, 0, size);
+		System.arraycopy(parent, 0, newParent, 0, size);
+		type = newType;
+		x = newX;
+		y = newY;
+		z = newZ;
+		radius = newRadius;
+		parent = newParent;
+	}
+
+	public int size(){
+		return size;
+	}
+	public int getType(int i){
+		return type[i];
+	}
+	public double getX(int i){
+		return x[i];
+	}
+	public double getY(int i){
+		return y[i];
+	}
+	public double getZ(int i){
+		return z[i];
+	}
+	public double getRadius(int i){
+		return radius[i];
+	}
+	/**
+	 * @param i
+	 * @return index of the parent point, -1 for a root
+	 */
+	public int getParent(int i){
+		return parent[i];
+	}
+
+	/**
+	 * @return the SWC text of the points, read as it is needed
+	 * (for ReadSWC to read them without a file)
+	 */
+	public ReadableByteChannel newChannel(){
+		return new PointChannel();
+	}
+
+	/**
+	 * @return the SWC text of the points
+	 * @throws IOException if the text is too large for an array
+	 */
+	public byte[] toByteArray() throws IOException{
+		byte[] bytes = new byte[(int)Math.min((long)size * LINE_ESTIMATE + 1, Integer.MAX_VALUE - 8)];
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		ReadableByteChannel channel = newChannel();
+		while (channel.read(buffer) >= 0){
+			if (!buffer.hasRemaining()){
+				if (bytes.length == Integer.MAX_VALUE - 8){
+					throw new IOException("SWC text of "+size+" points is too large for an array");
+				}
+				bytes = new byte[(int)Math.min((long)bytes.length * 2, Integer.MAX_VALUE - 8)];
+				buffer.flip();
+				buffer = ByteBuffer.wrap(bytes).put(buffer);
+			}
+		}
+		byte[] text = new byte[buffer.position()];
+		System.arraycopy(bytes, 0, text, 0, text.length);
+		return text;
+	}
+
+	public void write(File file) throws IOException{
+		FileChannel out = new FileOutputStream(file).getChannel();
+		try{
+			ReadableByteChannel channel = newChannel();
+			ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+			while (channel.read(buffer) >= 0){
+				buffer.flip();
+				while (buffer.hasRemaining()){
+					out.write(buffer);
+				}
+				buffer.clear();
+			}
+		}
+		finally{
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes line i (with its line break) into bytes
+	 * @return position after the line
+	 */
+	private int formatLine(int i, byte[] bytes, int position){
+		position = formatLong(i + 1, bytes, position);
+		bytes[position++] = ' ';
+		position = formatLong(type[i], bytes, position);
+		bytes[position++] = ' ';
+		position = formatDecimal(x[i], bytes, position);
+		bytes[position++] = ' ';
+		position = formatDecimal(y[i], bytes, position);
+		bytes[position++] = ' ';
+		position = formatDecimal(z[i], bytes, position);
+		bytes[position++] = ' ';
+		position = formatDecimal(radius[i], bytes, position);
+		bytes[position++] = ' ';
+		position = formatLong(parent[i] < 0 ? -1 : parent[i] + 1, bytes, position);
+		bytes[position++] = '\n';
+		return position;
+	}
+
+	private static int formatLong(long value, byte[] bytes, int position){
+		if (value < 0){
+			bytes[position++] = '-';
+			value = -value;
+		}
+		// Digits are written backwards, then reversed
+		int start = position;
+		do{
+			bytes[position++] = (byte)('0' + value % 10);
+			value /= 10;
+		} while (value > 0);
+		byte b;
+		for (int i = start, j = position - 1; i < j; i++, j--){
+			b = bytes[i];
+			bytes[i] = bytes[j];
+			bytes[j] = b;
+		}
+		return position;
+	}
+
+	/**
+	 * Writes value rounded to three decimals
+	 */
+	private static int formatDecimal(double value, byte[] bytes, int position){
+		long thousandths = Math.round(value * 1000);
+		if (thousandths < 0){
+			bytes[position++] = '-';
+			thousandths = -thousandths;
+		}
+		position = formatLong(thousandths / 1000, bytes, position);
+		int fraction = (int)(thousandths % 1000);
+		bytes[position++] = '.';
+		bytes[position++] = (byte)('0' + fraction / 100);
+		bytes[position++] = (byte)('0' + fraction / 10 % 10);
+		bytes[position++] = (byte)('0' + fraction % 10);
+		return position;
+	}
+
+	/**
+	 * Formats lines as they are read
+	 */
+	private class PointChannel implements ReadableByteChannel{
+		private int next;
+		private boolean open = true;
+		// Part of a line that didn't fit in the last read
+		private byte[] line = new byte[MAX_LINE];
+		private int linePosition, lineLimit;
+
+		public int read(ByteBuffer dst) throws IOException{
+			if (!open){
+				throw new ClosedChannelException();
+			}
+			if (next == size && linePosition == lineLimit){
+				return -1;
+			}
+			int start = dst.position(), length;
+			while (dst.hasRemaining()){
+				if (linePosition == lineLimit){
+					if (next == size){
+						break;
+					}
+					lineLimit = formatLine(next++, line, 0);
+					linePosition = 0;
+				}
+				length = Math.min(dst.remaining(), lineLimit - linePosition);
+				dst.put(line, linePosition, length);
+				linePosition += length;
+			}
+			return dst.position() - start;
+		}
+
+		public boolean isOpen(){
+			return open;
+		}
+
+		public void close(){
+			open = false;
+		}
+	}
+
+}
@@ -0,0 +1,208 @@
+package org.krasnow.cng.diadem;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Scores gold standard and test file pairs, each with its own DiademMetric
+ * so that pairs can be scored in parallel.
+ * Pairs are taken from their source only as threads become free, so a large
+ * corpus is never held at once. Results are added to the owning metric in
+ * source order, so scores don't depend on the number of threads.
+ * Scoring contexts are reused from pair to pair once their results have been
+ * added, so buffers grown for one pair serve the next. Continuation checks of
+ * all pairs share one executor, and by default run serially when pairs are
+ * scored in parallel. Unless the owner has a gold cache, pairs share one of
+ * the size the owner asks for, if any.
+ */
+class BatchScorer {
+
+    private DiademMetric owner;
+    // Contexts of pairs whose results have been added, to be reused
+    private List freeContexts = new ArrayList();
+    // Continuation check threads of each pair, and the executor they share (null if checked serially)
+    private int continuationThreads;
+    private ExecutorService continuationExecutor;
+    // Prepared gold standards shared by the pairs, null to read them for each pair
+    private PreparedGoldCache goldCache;
+
+    /**
+     * @param owner supplies the parameters for each pair, receives the results, and reports unmatched files
+     */
+    BatchScorer(DiademMetric owner) {
+        this.owner = owner;
+        goldCache = owner.getGoldCache();
+        if (goldCache == null && owner.getGoldCacheNodes() > 0) {
+            goldCache = new PreparedGoldCache(owner.getGoldCacheNodes());
+        }
+    }
+
+    /**
+     * @param pairs
+     * @return number of pairs scored
+     * @throws Exception the failure of the first pair (in source order) that could not be scored
+     */
+    int score(PairSource pairs) throws Exception {
+        ExecutorService executor = owner.getExecutor();
+        FilePair first = nextPair(pairs);
+        FilePair second = first == null ? null : nextPair(pairs);
+        boolean parallel = executor != null || (second != null && owner.getThreads() > 1);
+        continuationThreads = owner.resolveContinuationThreads(parallel);
+        if (continuationThreads > 1) {
+            continuationExecutor = createExecutor(continuationThreads, owner.isVirtualThreads());
+        }
+        try {
+            if (!parallel) {
+                // Nothing to gain from other threads
+                int scored = 0;
+                DiademMetric metric;
+                ScoringContext context = new ScoringContext();
+                for (FilePair pair = first; pair != null; pair = scored == 1 ? second : nextPair(pairs)) {
+                    metric = createMetric(context);
+                    metric.scorePair(pair.getGoldFile(), pair.getTestFile());
+                    owner.addPairResult(metric);
+                    scored++;
+                }
+                return scored;
+            }
+
+            boolean shutdown = false;
+            if (executor == null) {
+                executor = createExecutor(owner.getThreads(), owner.isVirtualThreads());
+                shutdown = true;
+            }
+            try {
+                return score(first, second, pairs, executor);
+            } finally {
+                if (shutdown) {
+                    executor.shutdownNow();
+                }
+            }
+        } finally {
+            if (continuationExecutor != null) {
+                continuationExecutor.shutdownNow();
+                continuationExecutor = null;
+            }
+        }
+    }
+
+    /**
+     * @param context reused for the pair's results
+     * @return metric for scoring a pair with the owner's parameters
+     */
+    private DiademMetric createMetric(ScoringContext context) {
+        DiademMetric metric = new DiademMetric(owner, context);
+        metric.setContinuationThreads(continuationThreads);
+        metric.setContinuationExecutor(continuationExecutor);
+        metric.setGoldCache(goldCache);
+        return metric;
+    }
+
+    /**
+     * @return prepared gold standards shared by the pairs, null if they are read for each pair
+     */
+    PreparedGoldCache getGoldCache() {
+        return goldCache;
+    }
+
+    private int score(FilePair first, FilePair second, PairSource pairs, ExecutorService executor) throws Exception {
+        // Only a limited number of pairs are in memory at once, even on an unbounded executor
+        int window = Math.max(1, owner.getThreads());
+        ExecutorCompletionService completion = new ExecutorCompletionService(executor);
+        // Finished pairs waiting for the pairs before them, by position
+        Map finished = new HashMap();
+        int submitted = 0, nextResult = 0;
+        FilePair pair = first;
+        PairTask task;
+        while (pair != null || nextResult < submitted) {
+            if (pair != null && submitted - nextResult < window) {
+                completion.submit(new PairTask(submitted, pair));
+                submitted++;
+                pair = submitted == 1 ? second : nextPair(pairs);
+                continue;
+            }
+            task = (PairTask) completion.take().get();
+            finished.put(new Integer(task.index), task);
+
+            // Add finished pairs to the owner in source order
+            while ((task = (PairTask) finished.remove(new Integer(nextResult))) != null) {
+                if (task.failure != null) {
+                    throw task.failure;
+                }
+                owner.addPairResult(task.metric);
+                freeContexts.add(task.context);
+                nextResult++;
+            }
+        }
+        return submitted;
+    }
+
+    /**
+     * @return the next matched pair, reporting unmatched files passed on the way, null when there are none left
+     */
+    private FilePair nextPair(PairSource pairs) throws Exception {
+        FilePair pair;
+        while ((pair = pairs.next()) != null && !pair.isMatched()) {
+            owner.reportUnmatched(pair);
+        }
+        return pair;
+    }
+
+    /**
+     * @param threads
+     * @param virtualThreads
+     * @return executor running each pair on a virtual thread if requested and available,
+     * otherwise on a pool of threads
+     */
+    static ExecutorService createExecutor(int threads, boolean virtualThreads) {
+        if (virtualThreads) {
+            try {
+                Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor", new Class[0]);
+                return (ExecutorService) method.invoke(null, new Object[0]);
+            } catch (Exception e) {
+                // Virtual threads not supported by this JVM
+            }
+        }
+        return Executors.newFixedThreadPool(Math.max(1, threads));
+    }
+
+    /**
+     * Scores one pair with its own metric, keeping any failure to report in pair order
+     */
+    private class PairTask implements Callable {
+        private int index;
+        private File goldFile;
+        private File testFile;
+        private ScoringContext context;
+        private DiademMetric metric;
+        private Exception failure;
+
+        PairTask(int index, FilePair pair) {
+            this.index = index;
+            goldFile = pair.getGoldFile();
+            testFile = pair.getTestFile();
+            // Tasks are made by the thread adding results, so the free contexts need no locking
+            context = freeContexts.isEmpty() ? new ScoringContext()
+                    : (ScoringContext) freeContexts.remove(freeContexts.size() - 1);
+        }
+
+        public Object call() {
+            try {
+                metric = createMetric(context);
+                metric.scorePair(goldFile, testFile);
+            } catch (Exception e) {
+                failure = e;
+            }
+            return this;
+        }
+    }
+
+}
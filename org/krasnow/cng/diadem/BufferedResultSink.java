@@ -0,0 +1,180 @@
+package org.krasnow.cng.diadem;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Formats results into a buffer, writing them out in batches: once batchSize
+ * results are held, or once results have been held flushInterval milliseconds,
+ * which a timer shared by all sinks checks even while no results arrive.
+ * Results are always written out by flush and close.
+ */
+public abstract class BufferedResultSink implements ResultSink {
+
+    public final static int DEFAULT_BATCH_SIZE = 64;
+    public final static long DEFAULT_FLUSH_INTERVAL = 5000;
+
+    private Writer out;
+    private StringBuffer buffer = new StringBuffer();
+    private int held;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private long flushInterval = DEFAULT_FLUSH_INTERVAL;
+    private long lastFlush = System.currentTimeMillis();
+    private TimerTask flushTask;
+    // Error of a timed write, thrown by the next call that writes
+    private IOException flushError;
+
+    // Daemon thread running the timed writes of all sinks, started with the first sink
+    private static Timer flushTimer;
+
+    /**
+     * @param out
+     */
+    protected BufferedResultSink(Writer out) {
+        this.out = out;
+        scheduleFlush();
+    }
+
+    private static synchronized Timer getFlushTimer() {
+        if (flushTimer == null) {
+            flushTimer = new Timer(true);
+        }
+        return flushTimer;
+    }
+
+    /**
+     * Replaces the timed write with one checking every flushInterval milliseconds
+     */
+    private synchronized void scheduleFlush() {
+        if (flushTask != null) {
+            flushTask.cancel();
+            flushTask = null;
+        }
+        if (out == null || flushInterval <= 0) {
+            return;
+        }
+        flushTask = new TimerTask() {
+            public void run() {
+                flushHeld();
+            }
+        };
+        getFlushTimer().schedule(flushTask, flushInterval, flushInterval);
+    }
+
+    /**
+     * Writes out results held flushInterval milliseconds or more, from the timer
+     */
+    private synchronized void flushHeld() {
+        if (out == null || held == 0 || System.currentTimeMillis() - lastFlush < flushInterval) {
+            return;
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            flushError = e;
+            flushTask.cancel();
+        }
+    }
+
+    private void throwFlushError() throws IOException {
+        if (flushError != null) {
+            IOException e = flushError;
+            flushError = null;
+            throw e;
+        }
+    }
+
+    /**
+     * @param file appended to, and created if it doesn't exist
+     */
+    protected BufferedResultSink(File file) throws IOException {
+        this(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8")));
+        if (file.length() == 0) {
+            formatHeader(buffer);
+        }
+    }
+
+    /**
+     * Appends the lines starting a new output, if any
+     */
+    protected void formatHeader(StringBuffer buffer) {
+    }
+
+    /**
+     * Appends result as one line
+     */
+    protected abstract void format(ScoreResult result, StringBuffer buffer);
+
+    public synchronized void write(ScoreResult result) throws IOException {
+        if (out == null) {
+            throw new IOException("Result sink is closed");
+        }
+        throwFlushError();
+        format(result, buffer);
+        held++;
+        if (held >= batchSize) {
+            flush();
+        }
+    }
+
+    public synchronized void flush() throws IOException {
+        if (out == null) {
+            return;
+        }
+        throwFlushError();
+        if (buffer.length() > 0) {
+            out.write(buffer.toString());
+            buffer.setLength(0);
+        }
+        out.flush();
+        held = 0;
+        lastFlush = System.currentTimeMillis();
+    }
+
+    public synchronized void close() throws IOException {
+        if (out == null) {
+            return;
+        }
+        if (flushTask != null) {
+            flushTask.cancel();
+            flushTask = null;
+        }
+        try {
+            flush();
+        } finally {
+            out.close();
+            out = null;
+        }
+    }
+
+    public synchronized int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize number of results held before they are written out
+     */
+    public synchronized void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public synchronized long getFlushInterval() {
+        return flushInterval;
+    }
+
+    /**
+     * @param flushInterval milliseconds after which held results are written out,
+     *                      or 0 to write them out only by batch size, flush and close
+     */
+    public synchronized void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+        scheduleFlush();
+    }
+
+}
@@ -0,0 +1,58 @@
+package org.krasnow.cng.diadem;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes results as comma separated values, with a header line at the start of the file
+ */
+public class CsvResultSink extends BufferedResultSink {
+
+    public CsvResultSink(Writer out) {
+        super(out);
+    }
+
+    public CsvResultSink(File file) throws IOException {
+        super(file);
+    }
+
+    protected void formatHeader(StringBuffer buffer) {
+        buffer.append("gold,test,dataset,pairs,gold_nodes,score,quality_score,direct_match_score\n");
+    }
+
+    protected void format(ScoreResult result, StringBuffer buffer) {
+        appendField(result.getGoldFile(), buffer);
+        buffer.append(',');
+        appendField(result.getTestFile(), buffer);
+        buffer.append(',').append(result.getDataset())
+                .append(',').append(result.getPairs())
+                .append(',').append(result.getGoldNodes())
+                .append(',').append(result.getFinalScore())
+                .append(',').append(result.getQualityScore())
+                .append(',').append(result.getDirectMatchScore())
+                .append('\n');
+    }
+
+    /**
+     * Appends value, quoted if it holds a comma, quote or line break
+     */
+    private static void appendField(String value, StringBuffer buffer) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0
+                && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            buffer.append(value);
+            return;
+        }
+        buffer.append('"');
+        char c;
+        for (int i = 0; i < value.length(); i++) {
+            c = value.charAt(i);
+            if (c == '"') {
+                buffer.append('"');
+            }
+            buffer.append(c);
+        }
+        buffer.append('"');
+    }
+
+}
@@ -1,24 +1,30 @@
 package org.krasnow.cng.diadem;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.IOException;
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.zip.DataFormatException;
 
 import org.krasnow.cng.data.ReadSWC;
+import org.krasnow.cng.data.ReadStatistics;
+import org.krasnow.cng.data.SwcBinaryCache;
+import org.krasnow.cng.domain.ArrayStack;
 import org.krasnow.cng.domain.BinaryTreeNode;
 import org.krasnow.cng.domain.EuclideanPoint;
-import org.krasnow.cng.domain.LinkedStack;
+import org.krasnow.cng.domain.NeuronArrays;
 import org.krasnow.cng.domain.ParentedBinaryTreeNode;
 import org.krasnow.cng.domain.SwcDataNode;
 import org.krasnow.cng.domain.SwcSecondaryData;
@@ -58,6 +64,14 @@ public class DiademMetric {
     public final static String PARAM_Z_PATH_THRESHOLD = "zPathThresh";
     public final static String PARAM_Z_PATH = "z-path";
     public final static String PARAM_REMOVE_SPURS = "remove-spurs";
+    public final static String PARAM_THREADS = "threads";
+    public final static String PARAM_CONTINUATION_THREADS = "continuation-threads";
+    public final static String PARAM_SWC_CACHE = "swc-cache";
+    public final static String PARAM_GOLD_CACHE_NODES = "gold-cache-nodes";
+    public final static String PARAM_RESULTS = "results";
+    public final static String PARAM_RESULTS_FORMAT = "results-format";
+    public final static String PARAM_MANIFEST = "manifest";
+    public final static String PARAM_METRICS = "metrics";
 
     public final static boolean DEFAULT_WEIGHTED = true;
     public final static double DEFAULT_XY_THRESHOLD = 1.2;
@@ -79,6 +93,10 @@ public class DiademMetric {
     public final static int DATASET_NM_PROJECTION = 4;
     public final static int DATASET_OLFACTORY_PROJECTION = 5;
 
+    // Spatial index used to find candidate matches
+    public final static int SPATIAL_INDEX_LINEAR = 0;
+    public final static int SPATIAL_INDEX_GRID = 1;
+
     private File testSwcFile;
     private File goldSwcFile;
     private int dataset = 0;
@@ -104,39 +122,111 @@ public class DiademMetric {
     private double removeSpurs = 0;
     // Set based on whether current/target node is which XY threshold of x and y parameters
     boolean writeDetails;
+    private int spatialIndex = SPATIAL_INDEX_GRID;
+    // Number of file pairs scored at once when scoring directories
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean virtualThreads = false;
+    // Number of threads checking missed bifurcations for continuations, 0 for as many as there are
+    // processors when pairs are scored one at a time, otherwise none
+    private int continuationThreads = 0;
+    // Executor shared by the continuation checks of all pairs of a run, null to make one for each check
+    private ExecutorService continuationExecutor;
+    // Executor supplied by the caller for scoring directories (not shut down here)
+    private ExecutorService executor;
+    // Gold standards already prepared, shared with other metrics
+    private PreparedGoldCache goldCache;
+    // Nodes of the gold standards kept prepared for the pairs of a run when no cache is given, 0 for none
+    private int goldCacheNodes = 0;
+    // Binary copies of the trees read from SWC files
+    private SwcBinaryCache swcCache;
+    // Where scores are recorded, besides the console
+    private ResultSink resultSink;
+    // CSV list of the pairs to score, used instead of the gold standard and test files
+    private File manifest;
+    // Phase times and counts of this metric's work, null when not collected
+    private RunMetrics runMetrics;
+    // Distant match found by the last continuation check made against table snapshots
+    private ParentedBinaryTreeNode distantMatch;
 
     private boolean calculated;
 
-    private List misses = new ArrayList();
-    private List continuations = new ArrayList();
-    private List distantMatches = new ArrayList();
-    private List spurList = new ArrayList();
-    private Map weightMap = new HashMap();
-    private Map excessNodes = new LinkedHashMap();
-
-    private double scoreSum, weightSum, quantityScoreSum;
+    // Nodes listed, spurs, weights and sums of the pairs scored, and buffers used scoring them
+    private ScoringContext context;
+    // Files found without a match when scoring directories
+    private int unmatchedGold, unmatchedTest;
 
     private double directMatchScore;
     private double qualityScore;
     private double finalScore;
 
+    // Fewest misses checked for continuations in parallel
+    private final static int MIN_PARALLEL_CONTINUATIONS = 256;
+
     // Specifically for Neuromuscular Projection Fibers (dataset 4)
     private final static double ROSETTE_THRESHOLD = 10;
     private Map testTreePathNodes = null;
 
-    // For ensuring nodes aren't used multiple times
-    private Map matches = new HashMap();
-
     public DiademMetric(File testSwcFile, File goldSwcFile, int dataset) {
         this.testSwcFile = testSwcFile;
         this.goldSwcFile = goldSwcFile;
         setDataset(dataset);
+        context = new ScoringContext();
         calculated = false;
     }
 
     public DiademMetric(File testSwcFile, File goldSwcFile) {
         this.testSwcFile = testSwcFile;
         this.goldSwcFile = goldSwcFile;
+        context = new ScoringContext();
+        calculated = false;
+    }
+
+    /**
+     * Creates a metric with the same parameters as settings, but none of its results
+     *
+     * @param settings
+     */
+    DiademMetric(DiademMetric settings) {
+        this(settings, new ScoringContext());
+    }
+
+    /**
+     * Creates a metric with the same parameters as settings, reusing context for its results
+     *
+     * @param settings
+     * @param context  reset here, so no longer holding the results of the metric it was used by
+     */
+    DiademMetric(DiademMetric settings, ScoringContext context) {
+        this.testSwcFile = settings.testSwcFile;
+        this.goldSwcFile = settings.goldSwcFile;
+        this.microns = settings.microns;
+        this.dataset = settings.dataset;
+        this.XYThreshold = settings.XYThreshold;
+        this.ZThreshold = settings.ZThreshold;
+        this.XYPathErrorThreshold = settings.XYPathErrorThreshold;
+        this.ZPathErrorThreshold = settings.ZPathErrorThreshold;
+        this.LocalPathErrorThreshold = settings.LocalPathErrorThreshold;
+        this.weighted = settings.weighted;
+        this.debug = settings.debug;
+        this.listMisses = settings.listMisses;
+        this.listContinuations = settings.listContinuations;
+        this.listDistantMatches = settings.listDistantMatches;
+        this.zPath = settings.zPath;
+        this.scaleZ = settings.scaleZ;
+        this.x = settings.x;
+        this.y = settings.y;
+        this.removeSpurs = settings.removeSpurs;
+        this.spatialIndex = settings.spatialIndex;
+        this.goldCache = settings.goldCache;
+        this.goldCacheNodes = settings.goldCacheNodes;
+        this.swcCache = settings.swcCache;
+        this.resultSink = settings.resultSink;
+        this.manifest = settings.manifest;
+        this.runMetrics = settings.runMetrics == null ? null : new RunMetrics();
+        this.continuationThreads = settings.continuationThreads;
+        this.continuationExecutor = settings.continuationExecutor;
+        context.reset();
+        this.context = context;
         calculated = false;
     }
 
@@ -351,6 +441,164 @@ public class DiademMetric {
         this.y = y;
     }
 
+    public int getSpatialIndex() {
+        return spatialIndex;
+    }
+
+    public void setSpatialIndex(int spatialIndex) {
+        this.spatialIndex = spatialIndex;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @param threads number of file pairs scored at once when scoring directories
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * @param virtualThreads whether to score file pairs on virtual threads (where the JVM has them)
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public int getContinuationThreads() {
+        return continuationThreads;
+    }
+
+    /**
+     * @param continuationThreads number of threads checking the missed bifurcations of a pair for continuations,
+     *                            0 for as many as there are processors, unless pairs are scored in parallel
+     */
+    public void setContinuationThreads(int continuationThreads) {
+        this.continuationThreads = continuationThreads;
+    }
+
+    /**
+     * @param pairsInParallel whether pairs (or sets of thresholds) are scored in parallel
+     * @return number of threads to check the missed bifurcations of each pair with
+     */
+    int resolveContinuationThreads(boolean pairsInParallel) {
+        if (continuationThreads > 0) {
+            return continuationThreads;
+        }
+        return pairsInParallel ? 1 : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * @param continuationExecutor executor for the continuation checks of every pair scored with this
+     *                             metric's settings (not shut down here), null to make one for each check
+     */
+    void setContinuationExecutor(ExecutorService continuationExecutor) {
+        this.continuationExecutor = continuationExecutor;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @param executor used instead of creating threads when scoring directories, left running afterwards
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public PreparedGoldCache getGoldCache() {
+        return goldCache;
+    }
+
+    /**
+     * @param goldCache where gold standards are prepared once and then reused, null to read them every time
+     */
+    public void setGoldCache(PreparedGoldCache goldCache) {
+        this.goldCache = goldCache;
+    }
+
+    public int getGoldCacheNodes() {
+        return goldCacheNodes;
+    }
+
+    /**
+     * @param goldCacheNodes total nodes of the gold standards kept prepared by a run of many pairs,
+     *                       when no gold cache is set; 0 to read each gold standard for each pair
+     */
+    public void setGoldCacheNodes(int goldCacheNodes) {
+        this.goldCacheNodes = goldCacheNodes;
+    }
+
+    public SwcBinaryCache getSwcCache() {
+        return swcCache;
+    }
+
+    /**
+     * @param swcCache where trees read from SWC files are kept for later reads, null to always parse the files
+     */
+    public void setSwcCache(SwcBinaryCache swcCache) {
+        this.swcCache = swcCache;
+    }
+
+    public File getManifest() {
+        return manifest;
+    }
+
+    /**
+     * @param manifest CSV file listing the gold standard and test file of each pair, null to pair the files
+     * under the gold standard and test directories
+     */
+    public void setManifest(File manifest) {
+        this.manifest = manifest;
+    }
+
+    public boolean isCollectMetrics() {
+        return runMetrics != null;
+    }
+
+    /**
+     * @param collectMetrics whether to record phase times and counts of the work done, for each pair and in total
+     */
+    public void setCollectMetrics(boolean collectMetrics) {
+        if (!collectMetrics) {
+            runMetrics = null;
+        } else if (runMetrics == null) {
+            runMetrics = new RunMetrics();
+        }
+    }
+
+    /**
+     * @return phase times and counts of the pairs scored, null when not collected
+     */
+    public RunMetrics getRunMetrics() {
+        return runMetrics;
+    }
+
+    public ResultSink getResultSink() {
+        return resultSink;
+    }
+
+    /**
+     * @param resultSink receives the scores of each pair, and their total when scoring directories, null for none
+     */
+    public void setResultSink(ResultSink resultSink) {
+        this.resultSink = resultSink;
+    }
+
+    /**
+     * @return state of this metric's scoring, holding the nodes of every pair that are listed
+     */
+    ScoringContext getContext() {
+        return context;
+    }
+
     public boolean isCalculated() {
         return calculated;
     }
@@ -365,99 +613,49 @@ public class DiademMetric {
 
     public void scoreReconstruction() throws Exception {
 
-        SwcTreeNode testTreeRoot, goldTreeRoot;
-        List goldFileList = new ArrayList(), testFileList = new ArrayList();
-
-        // Gets all gold standard and test swc files in the directories
-        if (goldSwcFile.isDirectory()) {
-            File[] fileList = goldSwcFile.listFiles();
-            File goldFile, testFile;
-            String filename;
-            for (int i = 0; i < fileList.length; i++) {
-                goldFile = fileList[i];
-                if (!goldFile.isDirectory()) {
-                    filename = goldFile.getName();
-                    if (filename.endsWith(".swc") || filename.endsWith(".SWC")) {
-                        testFile = new File(testSwcFile.getAbsolutePath() + "/" + filename);
-                        if (testFile.exists()) {
-                            goldFileList.add(goldFile);
-                            testFileList.add(testFile);
-                        }
-                    }
-                }
-            }
-        } else {
-            // For case in which parameter values are swc files rather than directories
-            goldFileList.add(goldSwcFile);
-            testFileList.add(testSwcFile);
-        }
-
-        scoreSum = quantityScoreSum = 0;
-
-        // Loop through and read in all swc files
-        for (int i = 0; i < goldFileList.size(); i++) {
-            goldSwcFile = (File) goldFileList.get(i);
-            testSwcFile = (File) testFileList.get(i);
-
-            SwcDataNode thresholds = new SwcDataNode();
-            thresholds.setX(XYThreshold);
-            thresholds.setZ(ZThreshold);
-            goldTreeRoot = ReadSWC.convertSwcToBinaryTreeList(goldSwcFile, zPath, scaleZ, thresholds);
-            testTreeRoot = ReadSWC.convertSwcToBinaryTreeList(testSwcFile, zPath, scaleZ, thresholds);
-            if (dataset == DATASET_NM_PROJECTION) {
-                // Necessary for handling terminations within rossettes
-                testTreePathNodes = ReadSWC.convertSwcToTreeNodeMap(testSwcFile, scaleZ);
-            }
-            // target nodes near xyCheck will display detailed information (only in test environment)
-            xyCheck.setX(getX());
-            xyCheck.setY(getY());
+        context.scoreSum = context.quantityScoreSum = 0;
 
-            if (removeSpurs > 0) {
-                // Only remove spurs of gold standard. Remove test spurs prior to determining excess
-                removeSpurs(goldTreeRoot, removeSpurs);
-            }
-            generateNodeWeights(goldTreeRoot);
-
-            // This is where the real business is done
-            scoreTrees(testTreeRoot, goldTreeRoot);
+        // Score each pair on its own, adding results to this metric in order
+        int pairs;
+        PairSource pairSource = createPairSource();
+        try {
+            pairs = new BatchScorer(this).score(pairSource);
+        } finally {
+            pairSource.close();
         }
+        calculateScores();
 
         // Present output
         NumberFormat nf = NumberFormat.getInstance();
         System.out.println("Score: " + nf.format(finalScore));
+        if (runMetrics != null) {
+            System.out.println("Metrics: " + runMetrics);
+        }
 
-        //存结果
-        File result_file = null;
-        FileWriter fw = null;
-        result_file = new File("F:\\u\\result\\metric12\\diadem\\dataset\\dataset_5_result.txt");
-        if (!result_file.exists()) {
-            result_file.createNewFile();
+        if (resultSink != null && pairs > 1) {
+            resultSink.write(new ScoreResult(this, pairs));
         }
-        BufferedWriter output = new BufferedWriter(new FileWriter(result_file, true));
-        output.write("Score: " + nf.format(finalScore) + '\n');
-        output.flush();
-        output.close();
 
         // List misses
         ParentedBinaryTreeNode node;
         if (listMisses) {
             System.out.println();
-            if (misses.size() > 0) {
+            if (context.misses.size() > 0) {
                 System.out.println("Nodes that were missed (position and weight):");
-                for (int i = 0; i < misses.size(); i++) {
-                    node = (ParentedBinaryTreeNode) misses.get(i);
-                    System.out.println(getPositionString(node) + " " + weightMap.get(node));
+                for (int i = 0; i < context.misses.size(); i++) {
+                    node = (ParentedBinaryTreeNode) context.misses.get(i);
+                    System.out.println(getPositionString(node) + " " + context.listedWeights.get(node));
                 }
             } else {
                 System.out.println("Nodes that were missed: none");
             }
 
             System.out.println();
-            if (excessNodes.size() > 0) {
+            if (context.excessNodes.size() > 0) {
                 System.out.println("Extra nodes in test reconstruction (position and weight):");
-                for (Iterator it = excessNodes.keySet().iterator(); it.hasNext(); ) {
+                for (Iterator it = context.excessNodes.keySet().iterator(); it.hasNext(); ) {
                     node = (ParentedBinaryTreeNode) it.next();
-                    System.out.println(getPositionString(node) + " " + excessNodes.get(node));
+                    System.out.println(getPositionString(node) + " " + context.excessNodes.get(node));
                 }
             } else {
                 System.out.println("Extra nodes in test reconstruction: none");
@@ -473,10 +671,10 @@ public class DiademMetric {
             // List distant matches
             if (listDistantMatches) {
                 System.out.println();
-                if (distantMatches.size() > 0) {
+                if (context.distantMatches.size() > 0) {
                     System.out.println("Distant Matches:");
-                    for (int i = 0; i < distantMatches.size(); i++) {
-                        node = (ParentedBinaryTreeNode) distantMatches.get(i);
+                    for (int i = 0; i < context.distantMatches.size(); i++) {
+                        node = (ParentedBinaryTreeNode) context.distantMatches.get(i);
                         System.out.println(getPositionString(node) + " " + node.getDegree());
                     }
                 } else {
@@ -486,11 +684,11 @@ public class DiademMetric {
             // List continuations
             if (listContinuations) {
                 System.out.println();
-                if (continuations.size() > 0) {
+                if (context.continuations.size() > 0) {
                     System.out.println("Continuation nodes (position and weight):");
-                    for (int i = 0; i < continuations.size(); i++) {
-                        node = (ParentedBinaryTreeNode) continuations.get(i);
-                        System.out.println(getPositionString(node) + " " + weightMap.get(node));
+                    for (int i = 0; i < context.continuations.size(); i++) {
+                        node = (ParentedBinaryTreeNode) context.continuations.get(i);
+                        System.out.println(getPositionString(node) + " " + context.listedWeights.get(node));
                     }
                 } else {
                     System.out.println("Continuation nodes: none");
@@ -499,6 +697,255 @@ public class DiademMetric {
         }
     }
 
+    /**
+     * @return source of the pairs of files to score: the pairs listed in the manifest if there is one,
+     * the gold standard and test files if they are files, otherwise the SWC files under the gold
+     * standard directory and those at the same relative paths under the test directory
+     */
+    PairSource createPairSource() throws IOException {
+        if (manifest != null) {
+            return new ManifestPairSource(manifest);
+        }
+        return new DirectoryPairSource(goldSwcFile, testSwcFile);
+    }
+
+    /**
+     * Reports a file that has no file to be scored with
+     *
+     * @param pair
+     */
+    void reportUnmatched(FilePair pair) {
+        if (pair.getTestFile() == null) {
+            unmatchedGold++;
+            System.out.println("Unmatched gold standard file " + pair.getGoldFile());
+        } else {
+            unmatchedTest++;
+            System.out.println("Unmatched test file " + pair.getTestFile());
+        }
+    }
+
+    /**
+     * @return number of gold standard files found without a test file
+     */
+    public int getUnmatchedGold() {
+        return unmatchedGold;
+    }
+
+    /**
+     * @return number of test files found without a gold standard file
+     */
+    public int getUnmatchedTest() {
+        return unmatchedTest;
+    }
+
+    /**
+     * @return number of gold standard nodes scored
+     */
+    public int getGoldNodeCount() {
+        return context.goldNodeCount;
+    }
+
+    /**
+     * @return fraction of gold standard nodes matched directly
+     */
+    public double getDirectMatchScore() {
+        return directMatchScore;
+    }
+
+    /**
+     * @return weighted score of gold standard nodes, not accounting for excess nodes
+     */
+    public double getQualityScore() {
+        return qualityScore;
+    }
+
+    /**
+     * Reads and scores one pair of files, adding to the results of this metric
+     *
+     * @param goldFile
+     * @param testFile
+     */
+    void scorePair(File goldFile, File testFile) throws Exception {
+        scorePair(goldFile, testFile, null);
+    }
+
+    /**
+     * @param goldFile
+     * @param testFile
+     * @param testTrees trees of testFile read with the parameters of this metric (scoring changes them),
+     *                  null to read them here
+     */
+    void scorePair(File goldFile, File testFile, SwcTreeNode testTrees) throws Exception {
+        SwcTreeNode testTreeRoot, goldTreeRoot = null;
+        PreparedGold gold = null;
+        goldSwcFile = goldFile;
+        testSwcFile = testFile;
+        long start = runMetrics == null ? 0 : System.nanoTime();
+        if (runMetrics != null) {
+            runMetrics.addPair();
+        }
+
+        SwcDataNode thresholds = getThresholds();
+        if (goldCache != null) {
+            gold = goldCache.get(this, goldSwcFile);
+            if (runMetrics != null) {
+                runMetrics.addPrepareNanos(System.nanoTime() - start);
+            }
+        } else {
+            goldTreeRoot = readTrees(goldSwcFile, thresholds);
+        }
+        if (dataset == DATASET_NM_PROJECTION) {
+            // Necessary for handling terminations within rossettes, read along with the binary trees
+            // (always parsed, as the SWC cache only keeps the binary trees)
+            testTreePathNodes = new HashMap();
+            testTreeRoot = ReadSWC.convertSwcToBinaryTreeList(testSwcFile, zPath, scaleZ, thresholds, testTreePathNodes,
+                    runMetrics == null ? null : runMetrics.getReads());
+        } else if (testTrees != null) {
+            testTreeRoot = testTrees;
+        } else {
+            testTreeRoot = readTrees(testSwcFile, thresholds);
+        }
+        // target nodes near xyCheck will display detailed information (only in test environment)
+        xyCheck.setX(getX());
+        xyCheck.setY(getY());
+
+        if (gold != null) {
+            scoreTrees(testTreeRoot, gold);
+        } else {
+            start = runMetrics == null ? 0 : System.nanoTime();
+            NodeTable goldNodeTable = prepareGoldTrees(goldTreeRoot);
+            if (runMetrics != null) {
+                runMetrics.addPrepareNanos(System.nanoTime() - start);
+            }
+
+            // This is where the real business is done
+            scoreTrees(testTreeRoot, goldTreeRoot, goldNodeTable);
+        }
+        testTreePathNodes = null;
+    }
+
+    /**
+     * @param swcFile
+     * @return binary trees of swcFile read with the parameters of this metric
+     */
+    SwcTreeNode readTrees(File swcFile) throws Exception {
+        return readTrees(swcFile, getThresholds());
+    }
+
+    /**
+     * @param swcFile
+     * @param thresholds
+     * @return binary trees of swcFile, from the SWC cache if there is one
+     */
+    private SwcTreeNode readTrees(File swcFile, SwcDataNode thresholds) throws Exception {
+        ReadStatistics statistics = runMetrics == null ? null : runMetrics.getReads();
+        if (swcCache != null) {
+            return swcCache.convertSwcToBinaryTreeList(swcFile, zPath, scaleZ, thresholds, statistics);
+        }
+        return ReadSWC.convertSwcToBinaryTreeList(swcFile, zPath, scaleZ, thresholds, null, statistics);
+    }
+
+    private SwcDataNode getThresholds() {
+        SwcDataNode thresholds = new SwcDataNode();
+        thresholds.setX(XYThreshold);
+        thresholds.setZ(ZThreshold);
+        return thresholds;
+    }
+
+    /**
+     * Removes gold standard spurs, lists the remaining nodes and weighs them
+     *
+     * @param goldRoot
+     * @return table of the gold standard nodes
+     */
+    NodeTable prepareGoldTrees(SwcTreeNode goldRoot) {
+        if (removeSpurs > 0) {
+            // Only remove spurs of gold standard. Remove test spurs prior to determining excess
+            removeSpurs(goldRoot, removeSpurs, null);
+        }
+        NodeTable goldNodeTable = createGoldNodeTable(goldRoot);
+        generateNodeWeights(goldRoot, goldNodeTable);
+        return goldNodeTable;
+    }
+
+    /**
+     * Reads and prepares a gold standard for scoring against any number of test
+     * reconstructions with the current parameters. Results of this metric are not changed.
+     *
+     * @param goldFile
+     * @return the prepared gold standard
+     * @throws Exception
+     */
+    public PreparedGold prepareGold(File goldFile) throws Exception {
+        DiademMetric metric = new DiademMetric(this);
+        SwcTreeNode goldRoot = readTrees(goldFile, getThresholds());
+        NodeTable goldNodeTable = metric.prepareGoldTrees(goldRoot);
+        return new PreparedGold(goldFile, getGoldParameters(), goldRoot,
+                goldNodeTable, metric.context.spurs, metric.context.spurCount, metric.context.weights);
+    }
+
+    /**
+     * @return the parameters that determine how a gold standard is prepared
+     */
+    String getGoldParameters() {
+        return XYThreshold + " " + ZThreshold + " " + zPath + " " + scaleZ + " "
+                + removeSpurs + " " + spatialIndex;
+    }
+
+    /**
+     * Adds the sums and listed nodes of a metric that scored another pair of files
+     *
+     * @param pair
+     */
+    void addPairResult(DiademMetric pair) throws IOException {
+        if (resultSink != null) {
+            pair.calculateScores();
+            resultSink.write(new ScoreResult(pair, 1));
+        }
+        context.scoreSum += pair.context.scoreSum;
+        context.weightSum += pair.context.weightSum;
+        context.quantityScoreSum += pair.context.quantityScoreSum;
+        context.excessWeightSum += pair.context.excessWeightSum;
+        context.goldNodeCount += pair.context.goldNodeCount;
+
+        // Nodes are kept only to be listed, as they hold on to the trees of their pair
+        ParentedBinaryTreeNode node;
+        if (listMisses) {
+            for (int i = 0; i < pair.context.misses.size(); i++) {
+                node = (ParentedBinaryTreeNode) pair.context.misses.get(i);
+                context.misses.add(node);
+                context.listedWeights.put(node, new Integer(pair.context.weights[node.getIndex()]));
+            }
+            context.excessNodes.putAll(pair.context.excessNodes);
+        }
+        if (listContinuations) {
+            for (int i = 0; i < pair.context.continuations.size(); i++) {
+                node = (ParentedBinaryTreeNode) pair.context.continuations.get(i);
+                context.continuations.add(node);
+                context.listedWeights.put(node, new Integer(pair.context.weights[node.getIndex()]));
+            }
+        }
+        if (listDistantMatches) {
+            context.distantMatches.addAll(pair.context.distantMatches);
+        }
+        if (runMetrics != null && pair.runMetrics != null) {
+            runMetrics.add(pair.runMetrics);
+        }
+    }
+
+    /**
+     * Calculates scores from the sums of all pairs scored
+     */
+    void calculateScores() {
+        double matchWeightSum = context.weightSum - context.excessWeightSum;
+        if (matchWeightSum > 0) {
+            directMatchScore = context.quantityScoreSum / context.goldNodeCount;
+            // Quality score is average weighted node quality, without accounting for excess nodes
+            qualityScore = context.scoreSum / matchWeightSum;
+            finalScore = context.scoreSum / context.weightSum;
+        }
+    }
+
     /**
      * @param testRoot
      * @param goldRoot
@@ -506,6 +953,107 @@ public class DiademMetric {
      */
     public void scoreTrees(
             SwcTreeNode testRoot, SwcTreeNode goldRoot) throws Exception {
+        scoreTrees(testRoot, goldRoot, createGoldNodeTable(goldRoot));
+    }
+
+    /**
+     * Scores a test reconstruction against a prepared gold standard, which is left unchanged
+     *
+     * @param testRoot
+     * @param gold
+     */
+    public void scoreTrees(SwcTreeNode testRoot, PreparedGold gold) throws Exception {
+        if (!gold.getParameters().equals(getGoldParameters())) {
+            throw new IllegalArgumentException("Gold standard " + gold.getGoldFile().getName()
+                    + " was prepared with different parameters");
+        }
+        context.spurs = gold.getSpurs();
+        context.spurCount = gold.getSpurCount();
+        context.weights = gold.getWeights();
+        // Trajectories resolved for this test reconstruction must not change the shared ones
+        context.useRunTrajectories();
+        try {
+            scoreTrees(testRoot, gold.getGoldRoot(), gold.createRunTable());
+        } finally {
+            context.runTrajectories = null;
+        }
+    }
+
+    /**
+     * Gives the gold standard root its trajectories and lists the gold standard nodes
+     *
+     * @param goldRoot
+     * @return table of the gold standard nodes
+     */
+    NodeTable createGoldNodeTable(SwcTreeNode goldRoot) {
+        // For roots, create nodes and set as match
+        goldRoot.getSwcData().setSecondaryData(new SwcSecondaryData());
+        // Root is coregistered and so will have no trajectory calculation (trajectory is self for simplicity)
+        goldRoot.getSwcData().getSecondaryData().setLeftTrajectoryPoint(goldRoot.getSwcData());
+        goldRoot.getSwcData().getSecondaryData().setRightTrajectoryPoint(goldRoot.getSwcData());
+        goldRoot.getSwcData().getSecondaryData().setPathLength(0);
+        ParentedBinaryTreeNode trueBaselineRoot = new ParentedBinaryTreeNode(goldRoot.getSwcData());
+
+        // Traverses gold tree and returns a list of nodes
+        List goldTrees = goldRoot.getChildren();
+        List goldNodeList = new ArrayList();
+        ParentedBinaryTreeNode rootNode;
+        for (int i = 0; i < goldTrees.size(); i++) {
+            rootNode = (ParentedBinaryTreeNode) goldTrees.get(i);
+            goldNodeList.addAll(
+                    BinaryTreeUtils.createNodeList(rootNode));
+            // Give first node a stable parent, the root of all trees should be a given
+            rootNode.setParent(trueBaselineRoot, false);
+        }
+        return createNodeTable(goldNodeList, trueBaselineRoot);
+    }
+
+    private void scoreTrees(
+            SwcTreeNode testRoot, SwcTreeNode goldRoot, NodeTable goldNodeTable) throws Exception {
+        double excess;
+        context.pathTrajectories.clear();
+        int numberOfNodes = matchTrees(testRoot, goldRoot, goldNodeTable);
+
+        // Calculate final scores
+        if (context.weightSum > 0) {
+            directMatchScore = context.quantityScoreSum / numberOfNodes;
+
+            // Quality score is average weighted node quality, without accounting for excess nodes
+            qualityScore = context.scoreSum / context.weightSum;
+
+            if (testEnvironment) {
+                System.out.println("WeightSum: " + context.weightSum);
+                System.out.println("ScoreSum: " + context.scoreSum);
+            }
+
+            // Remove spurs prior to determining excess
+            long start = runMetrics == null ? 0 : System.nanoTime();
+            if (removeSpurs > 0) {
+                removeSpurs(testRoot, removeSpurs, goldNodeTable.getPartnerTable());
+            }
+            // Excess nodes weighed by degree of excess terms without any matches in between
+            excess = weighExcess(testRoot, goldNodeTable);
+            if (runMetrics != null) {
+                runMetrics.addExcessNanos(System.nanoTime() - start);
+            }
+            context.excessWeightSum += excess;
+            context.weightSum += excess;
+            finalScore = context.scoreSum / context.weightSum;
+        }
+        context.goldNodeCount += numberOfNodes;
+    }
+
+    /**
+     * Matches gold standard nodes to test nodes, directly or as continuations
+     *
+     * @param testRoot
+     * @param goldRoot
+     * @param goldNodeTable table of goldRoot's nodes, given the test node table as partner
+     * @return number of gold standard nodes scored
+     */
+    int matchTrees(
+            SwcTreeNode testRoot, SwcTreeNode goldRoot, NodeTable goldNodeTable) throws Exception {
+        long start = runMetrics == null ? 0 : System.nanoTime();
         ParentedBinaryTreeNode match;
 
         // Weights
@@ -517,18 +1065,12 @@ public class DiademMetric {
         SwcDataNode goldData;
 
         // For roots, create nodes and set as match
-        goldRoot.getSwcData().setSecondaryData(new SwcSecondaryData());
-        // Root is coregistered and so will have no trajectory calculation (trajectory is self for simplicity)
-        goldRoot.getSwcData().getSecondaryData().setLeftTrajectoryPoint(goldRoot.getSwcData());
-        goldRoot.getSwcData().getSecondaryData().setRightTrajectoryPoint(goldRoot.getSwcData());
-        goldRoot.getSwcData().getSecondaryData().setPathLength(0);
-        ParentedBinaryTreeNode trueBaselineRoot = new ParentedBinaryTreeNode(goldRoot.getSwcData());
+        ParentedBinaryTreeNode trueBaselineRoot = goldNodeTable.getRoot();
         testRoot.getSwcData().setSecondaryData(new SwcSecondaryData());
         testRoot.getSwcData().getSecondaryData().setLeftTrajectoryPoint(testRoot.getSwcData());
         testRoot.getSwcData().getSecondaryData().setRightTrajectoryPoint(testRoot.getSwcData());
         testRoot.getSwcData().getSecondaryData().setPathLength(0);
         ParentedBinaryTreeNode trueSampleRoot = new ParentedBinaryTreeNode(testRoot.getSwcData());
-        matches.put(trueBaselineRoot, trueSampleRoot);
 
         // Traverses test tree and returns a list of nodes
         List testNodeList = new ArrayList();
@@ -540,22 +1082,21 @@ public class DiademMetric {
             // Give first node a stable parent, the root of all trees should be a given
             rootNode.setParent(trueSampleRoot, false);
         }
+        NodeTable testNodeTable = createNodeTable(testNodeList, trueSampleRoot);
 
-        // Traverses gold tree and returns a list of nodes
-        List goldNodeList = new ArrayList();
-        for (int i = 0; i < goldTrees.size(); i++) {
-            rootNode = (ParentedBinaryTreeNode) goldTrees.get(i);
-            goldNodeList.addAll(
-                    BinaryTreeUtils.createNodeList(rootNode));
-            // Give first node a stable parent, the root of all trees should be a given
-            rootNode.setParent(trueBaselineRoot, false);
-        }
+        // Matches are recorded on both sides, also ensuring nodes aren't used multiple times
+        testNodeTable.setPartnerTable(goldNodeTable);
+        goldNodeTable.setPartnerTable(testNodeTable);
+        goldNodeTable.setMatch(trueBaselineRoot, trueSampleRoot);
+
+        // Misses of earlier trees (when scoring directories) were matched against other nodes
+        int firstMiss = context.misses.size();
 
         // Stack used to keep track of nodes to be scored
-        LinkedStack stack = new LinkedStack();
+        ArrayStack stack = new ArrayStack();
         ParentedBinaryTreeNode goldNode;
 
-        numberOfNodes -= spurList.size();
+        numberOfNodes -= context.spurCount;
 
         // Score nodes in each gold standard tree
         for (int i = 0; i < goldTrees.size(); i++) {
@@ -583,13 +1124,13 @@ public class DiademMetric {
                 }
 
                 // Only score node if it isn't a spur or single spur parent
-                if (spurList.contains(goldNode)) {
+                if (context.spurs.containsKey(goldNode)) {
                     if (writeDetails)
                         System.out.println("\nBaselineNode: " + getPositionString(goldNode) + " is a spur");
                 } else {
                     // Set weight
-                    weight = this.isWeighted() ? ((Integer) weightMap.get(goldNode)).intValue() : 1;
-                    weightSum += weight;
+                    weight = this.isWeighted() ? context.weights[goldNode.getIndex()] : 1;
+                    context.weightSum += weight;
 
                     if (writeDetails || debug) {
                         System.out.println("\nBaselineNode: " + getPositionString(goldNode));
@@ -598,36 +1139,49 @@ public class DiademMetric {
 
                     // Find match for target node (search for potentials, confirmation, and selection of best)
                     if (dataset == DATASET_NM_PROJECTION && goldNode.isLeaf()) {
-                        match = getNMPTerminationMatch(goldNode, goldNodeList, testNodeList);
+                        match = getNMPTerminationMatch(goldNode, goldNodeTable, testNodeTable);
                     } else {
-                        match = getClosestMatch(goldNode, goldNodeList, testNodeList);
+                        match = getClosestMatch(goldNode, goldNodeTable, testNodeTable);
                     }
 
                     // Update quantity score based on whether a match has been found
                     if (match != null) {
                         // Update node to save time on potential parent search
-                        matches.put(goldNode, match);
+                        goldNodeTable.setMatch(goldNode, match);
                         // Update node uses to prevent node reuse
-                        matches.put(match, goldNode);
+                        testNodeTable.setMatch(match, goldNode);
                         // increment score sum
-                        scoreSum += weight;
+                        context.scoreSum += weight;
 
                         // Increment quantity (non-continuations)
-                        quantityScoreSum++;
+                        context.quantityScoreSum++;
                         if (writeDetails) System.out.println("Scoring direct match to " + getPositionString(match));
                     } else {
                         if (writeDetails) System.out.println("No direct match.");
                         // Add to list of misses
-                        misses.add(goldNode);
+                        context.misses.add(goldNode);
                     }
                 }
             }
         }
 
+        if (runMetrics != null) {
+            runMetrics.addNodes(numberOfNodes, testNodeList.size());
+            runMetrics.addMatchNanos(System.nanoTime() - start);
+            start = System.nanoTime();
+        }
+
         // Loop through bifurcation misses to determine if any might be a continuation
         if (testEnvironment) System.out.println("\nLooking for continuations");
-        for (int i = 0; i < misses.size(); i++) {
-            goldNode = (ParentedBinaryTreeNode) misses.get(i);
+        boolean continuation;
+        // Checked ahead in parallel when there are enough misses, and committed here in order
+        ContinuationCheck[] checks = checkContinuations(firstMiss, testNodeTable);
+        // Positions whose matches have changed since the checks were made
+        BitSet changedGold = new BitSet(), changedTest = new BitSet();
+        // Misses that stay misses are moved down over those found to be continuations, in order
+        int kept = firstMiss;
+        for (int i = firstMiss; i < context.misses.size(); i++) {
+            goldNode = (ParentedBinaryTreeNode) context.misses.get(i);
             goldData = goldNode.getSwcData();
             writeDetails = false;
             if (isWithinXYThreshold(xyCheck, goldData)) {
@@ -638,51 +1192,41 @@ public class DiademMetric {
                 if (writeDetails || debug) System.out.println("\nTarget " + getPositionString(goldNode));
 
                 // If a continuation match via (grand)parent and (grand)child was found
-                if (isContinuation(goldNode, testNodeList)) {
+                continuation = checks == null
+                        ? isContinuation(goldNode, testNodeTable)
+                        : commitContinuation(checks[i - firstMiss], goldNode, testNodeTable, changedGold, changedTest);
+                if (runMetrics != null) {
+                    runMetrics.addContinuationAttempt(continuation);
+                }
+                if (continuation) {
                     // increment score sum
-                    weight = this.isWeighted() ? ((Integer) weightMap.get(goldNode)).intValue() : 1;
-                    scoreSum += weight;
+                    weight = this.isWeighted() ? context.weights[goldNode.getIndex()] : 1;
+                    context.scoreSum += weight;
                     if (writeDetails || debug) System.out.println("Found continuation");
                     // This node is now a continuation, not a miss
-                    misses.remove(i);
-                    i--;
+                    continue;
                 }
             }
+            context.misses.set(kept++, goldNode);
         }
-
-        // Calculate final scores
-        if (weightSum > 0) {
-            directMatchScore = quantityScoreSum / numberOfNodes;
-
-            // Quality score is average weighted node quality, without accounting for excess nodes
-            qualityScore = scoreSum / weightSum;
-
-            if (testEnvironment) {
-                System.out.println("WeightSum: " + weightSum);
-                System.out.println("ScoreSum: " + scoreSum);
-            }
-
-            // Remove spurs prior to determining excess
-            if (removeSpurs > 0) {
-                removeSpurs(testRoot, removeSpurs);
-            }
-            // Excess nodes weighed by degree of excess terms without any matches in between
-            weightSum += weighExcess(testRoot, goldTrees);
-            finalScore = scoreSum / weightSum;
+        context.misses.subList(kept, context.misses.size()).clear();
+        if (runMetrics != null) {
+            runMetrics.addContinuationNanos(System.nanoTime() - start);
         }
 
+        return numberOfNodes;
     }
 
     /**
      * @param goldNode
-     * @param testNodeList
+     * @param testNodeTable
      * @return ParentedBinaryTreeNode
      * Returns the best match to the target (gold) node
      */
     private ParentedBinaryTreeNode getClosestMatch(
-            ParentedBinaryTreeNode goldNode, List goldNodeList, List testNodeList) {
+            ParentedBinaryTreeNode goldNode, NodeTable goldNodeTable, NodeTable testNodeTable) {
         // Find nearest node to parent
-        List nearbyNodesList = findNearestNodes(goldNode, testNodeList);
+        List nearbyNodesList = findNearestNodes(goldNode, testNodeTable);
         ParentedBinaryTreeNode testNode, bestMatch = null;
 
         if (writeDetails) System.out.println(nearbyNodesList.size() + " nearby");
@@ -693,7 +1237,7 @@ public class DiademMetric {
             // Check whether nodes' parents match (based on position and path length)
             if (writeDetails)
                 System.out.println("Checking path lengths for match: " + getPositionString(testNode) + "; Dist: " + getDistance(goldNode, testNode));
-            if (nodeMatches(goldNode, testNode, goldNodeList, testNodeList)) {
+            if (nodeMatches(goldNode, testNode, goldNodeTable, testNodeTable)) {
                 matchList.add(testNode);
             }
         }
@@ -702,7 +1246,7 @@ public class DiademMetric {
             bestMatch = (ParentedBinaryTreeNode) matchList.get(0);
         } else if (matchList.size() > 1) {
             // Find the best match of those found based on descendant connectivity and/or proximity
-            bestMatch = determineBestMatch(matchList, goldNode, testNodeList);
+            bestMatch = determineBestMatch(matchList, goldNode, testNodeTable);
         }
         if (bestMatch != null && writeDetails)
             System.out.println("Best match is " + getPositionString(bestMatch));
@@ -713,13 +1257,16 @@ public class DiademMetric {
     /**
      * @param matchList
      * @param goldNode
-     * @param testNodeList
+     * @param testNodeTable
      * @return best ParentedBinaryTreeNode based on descendant connectivity and/or proximity
      */
     private ParentedBinaryTreeNode determineBestMatch(List matchList, ParentedBinaryTreeNode goldNode,
-                                                      List testNodeList) {
+                                                      NodeTable testNodeTable) {
 
         if (writeDetails) System.out.println("Determining best match");
+        if (runMetrics != null) {
+            runMetrics.addBestMatchSearch();
+        }
         List confirmList = new ArrayList();
         ParentedBinaryTreeNode descendantNode, testDescendantNode, testNode, match;
 
@@ -733,9 +1280,10 @@ public class DiademMetric {
             List nearbyList;
 
             // Path distances
-            Map pathLengthMap = new HashMap();
-            pathLengthMap.put(goldNode, new SwcSecondaryData());
-            SwcSecondaryData parentPathLength, goldPathLength, testPathLength;
+            NeuronArrays gold = testNodeTable.getPartnerTable().getArrays();
+            NeuronArrays test = testNodeTable.getArrays();
+            int goldPosition = goldNode.getIndex(), descendantPosition, testDescendantPosition, ancestorDepth, depth;
+            double goldPathLength, goldXYPathLength, goldZPathLength;
             double testXYPathLength, testZPathLength;
 
             // Euclidean distances
@@ -752,10 +1300,10 @@ public class DiademMetric {
             // Traversing gold node descendants
             List currentList = new ArrayList(), nextList;
             currentList.add(goldNode.getParentedLeft());
-            trajectoryMap.put(goldNode.getParentedLeft(), goldData.getSecondaryData().getLeftTrajectoryPoint());
+            trajectoryMap.put(goldNode.getParentedLeft(), getLeftTrajectoryPoint(goldData));
             descendantBranchLeft.put(goldNode.getParentedLeft(), new Boolean(true));
             currentList.add(goldNode.getParentedRight());
-            trajectoryMap.put(goldNode.getParentedRight(), goldData.getSecondaryData().getRightTrajectoryPoint());
+            trajectoryMap.put(goldNode.getParentedRight(), getRightTrajectoryPoint(goldData));
             descendantBranchLeft.put(goldNode.getParentedRight(), new Boolean(false));
 
             while (currentList.size() > 0 && confirmList.size() == 0) {
@@ -767,14 +1315,7 @@ public class DiademMetric {
                     targetTrajectory = (EuclideanPoint) trajectoryMap.get(descendantNode);
                     // Must determine trajectory based on specific path
                     if (targetTrajectory.getX() == ReadSWC.TRAJECTORY_NONE || targetTrajectory.getZ() == ReadSWC.TRAJECTORY_NONE) {
-                        EuclideanPoint tmpTrajectory = getTrajectoryForPath(goldNode, descendantNode);
-                        if (targetTrajectory.getX() == ReadSWC.TRAJECTORY_NONE) {
-                            targetTrajectory.setX(tmpTrajectory.getX());
-                            targetTrajectory.setY(tmpTrajectory.getY());
-                        }
-                        if (targetTrajectory.getZ() == ReadSWC.TRAJECTORY_NONE) {
-                            targetTrajectory.setZ(tmpTrajectory.getZ());
-                        }
+                        resolveTrajectory(targetTrajectory, getTrajectoryForPath(goldNode, descendantNode));
                     }
 
                     descendantTrajectory = descendantNode.getSwcData().getSecondaryData().getParentTrajectoryPoint();
@@ -790,21 +1331,20 @@ public class DiademMetric {
                     if (writeDetails)
                         System.out.println("Descendant node: " + descendantNode.getSwcData().getPositionString());
 
-                    // Calculate path length from target node to current descendant
-                    goldPathLength = new SwcSecondaryData();
-                    goldPathLength.incrementPathLengths(descendantNode.getSwcData().getSecondaryData());
-                    parentPathLength = (SwcSecondaryData) pathLengthMap.get(descendantNode.getParent());
-                    goldPathLength.incrementPathLengths(parentPathLength);
-                    pathLengthMap.put(descendantNode, goldPathLength);
+                    // Path length from target node to current descendant
+                    descendantPosition = descendantNode.getIndex();
+                    goldPathLength = gold.getPathLength(goldPosition, descendantPosition);
+                    goldXYPathLength = gold.getXYPathLength(goldPosition, descendantPosition);
+                    goldZPathLength = gold.getZPathLength(goldPosition, descendantPosition);
 
                     // Find test nodes that match current descendant
-                    nearbyList = findNearestNodes(descendantNode, testNodeList, true);
+                    nearbyList = findNearestNodes(descendantNode, testNodeTable, true);
 
                     // Determine if any of these nodes is a descendant of a target node match
                     for (int j = 0; j < nearbyList.size(); j++) {
-                        // testDescendant stays set as this, testNode climbs to look for match node
+                        // testDescendant stays set as this, testNode is the match node it descends from
                         testDescendantNode = testNode = (ParentedBinaryTreeNode) nearbyList.get(j);
-                        testPathLength = new SwcSecondaryData();
+                        testDescendantPosition = testDescendantNode.getIndex();
 
                         if (writeDetails)
                             System.out.println("Nearby descendant test node: " + testNode.getSwcData().getPositionString());
@@ -814,12 +1354,26 @@ public class DiademMetric {
                         descendantDistances.setXYPathLength(getXYDistance(descendantNode, testNode));
                         descendantDistances.setZPathLength(getZDistance(descendantNode, testNode));
 
-                        // Climb matched descendant until a target match is found or the root is hit
-                        while (testNode.getParent() != null) {
-                            testPathLength.incrementPathLengths(testNode.getSwcData().getSecondaryData());
-
-                            testNode = testNode.getParent();
-                            // Check whether one of the match nodes is encountered while climbing
+                        // Take the match nodes that are ancestors of the descendant nearest first,
+                        // as climbing to the root would
+                        ancestorDepth = test.getDepth(testDescendantPosition);
+                        while (ancestorDepth > 0) {
+                            testNode = null;
+                            for (int k = 0; k < matchList.size(); k++) {
+                                match = (ParentedBinaryTreeNode) matchList.get(k);
+                                depth = test.getDepth(match.getIndex());
+                                if (depth < ancestorDepth && (testNode == null || depth > test.getDepth(testNode.getIndex()))
+                                        && test.isAncestor(match.getIndex(), testDescendantPosition)) {
+                                    testNode = match;
+                                }
+                            }
+                            if (testNode == null) {
+                                break;
+                            }
+                            if (runMetrics != null) {
+                                runMetrics.addClimb();
+                            }
+                            ancestorDepth = test.getDepth(testNode.getIndex());
                             for (int k = 0; k < matchList.size(); k++) {
                                 match = (ParentedBinaryTreeNode) matchList.get(k);
                                 if (testNode == match) {
@@ -829,15 +1383,16 @@ public class DiademMetric {
                                     // Found a target match, need to check path length
 
                                     // Calculate test XY and Z path length modified by end node positions
-                                    testXYPathLength = testPathLength.getXYPathLength()
+                                    testXYPathLength = test.getXYPathLength(testNode.getIndex(), testDescendantPosition)
                                             + getEndNodeXYDistanceDifference(goldData, targetTrajectory, testNode.getSwcData())
                                             + getEndNodeXYDistanceDifference(descendantNode.getSwcData(), descendantTrajectory, testDescendantNode.getSwcData());
-                                    testZPathLength = testPathLength.getZPathLength()
+                                    testZPathLength = test.getZPathLength(testNode.getIndex(), testDescendantPosition)
                                             + getEndNodeZDistanceDifference(goldData, targetTrajectory, testNode.getSwcData())
                                             + getEndNodeZDistanceDifference(descendantNode.getSwcData(), descendantTrajectory, testDescendantNode.getSwcData());
 
                                     // If path lengths are within threshold, return this specific target match
-                                    if (pathLengthMatches(goldPathLength, testXYPathLength, testZPathLength)) {
+                                    if (pathLengthMatches(goldPathLength, goldXYPathLength, goldZPathLength,
+                                            testXYPathLength, testZPathLength)) {
                                         confirmList.add(match);
                                         matchList.remove(k);
                                         k--;
@@ -878,7 +1433,7 @@ public class DiademMetric {
     }
 
     private ParentedBinaryTreeNode getNMPTerminationMatch(
-            ParentedBinaryTreeNode goldNode, List goldNodeList, List testNodeList) {
+            ParentedBinaryTreeNode goldNode, NodeTable goldNodeTable, NodeTable testNodeTable) {
 
         // Assemble termination node's ancestor path
         Set ancestors = new LinkedHashSet();
@@ -889,7 +1444,7 @@ public class DiademMetric {
         } while (node != null);
 
         // Find nearest node to parent
-        List matchList = findNearestNMPTerminationMatches(goldNode, testNodeList);
+        List matchList = findNearestNMPTerminationMatches(goldNode, testNodeTable);
         ParentedBinaryTreeNode testNode, bestMatch = null, initialNode;
 
         if (writeDetails) System.out.println(matchList.size() + " matches");
@@ -915,11 +1470,11 @@ public class DiademMetric {
             testNode = (ParentedBinaryTreeNode) matchList.get(i);
 
             // Attempt to match via normal means
-            percentDifference = getMatchPathLengthDifference(goldNode, testNode, goldNodeList, testNodeList);
+            percentDifference = getMatchPathLengthDifference(goldNode, testNode, goldNodeTable, testNodeTable);
 
             // If no match, try matching accounting for rosettes
             if (percentDifference == 1) {
-                percentDifference = getNMPTerminationMatchPathDifference(goldNode, testNode, goldNodeList, testNodeList);
+                percentDifference = getNMPTerminationMatchPathDifference(goldNode, testNode, goldNodeTable, testNodeTable);
             }
 
             // Check whether nodes' paths match
@@ -938,12 +1493,12 @@ public class DiademMetric {
 
         // Remove all nodes below the gold termination from test list
         if (bestMatch != null && bestMatch.hasChildren()) {
-            LinkedStack stack = new LinkedStack();
+            ArrayStack stack = context.matchStack;
             stack.push(bestMatch.getRight());
             stack.push(bestMatch.getLeft());
             while (!stack.isEmpty()) {
                 testNode = (ParentedBinaryTreeNode) stack.pop();
-                matches.put(testNode, goldNode);
+                testNodeTable.setMatch(testNode, goldNode);
                 if (testNode.hasChildren()) {
                     stack.push(testNode.getLeft());
                     stack.push(testNode.getRight());
@@ -955,18 +1510,19 @@ public class DiademMetric {
     }
 
     private List findNearestNMPTerminationMatches(
-            ParentedBinaryTreeNode goldNode, List testNodeList) {
+            ParentedBinaryTreeNode goldNode, NodeTable testNodeTable) {
         List nearestNodeList = new ArrayList();
         ParentedBinaryTreeNode testNode, tmpNode;
-        LinkedStack stack;
+        ArrayStack stack = new ArrayStack();
         boolean addNode;
 
-        // Loop through test nodes
-        for (int i = 0; i < testNodeList.size(); i++) {
-            testNode = (ParentedBinaryTreeNode) testNodeList.get(i);
+        // Loop through test nodes in the box around the rosette threshold sphere
+        int[] candidates = testNodeTable.findWithin(goldNode, ROSETTE_THRESHOLD, ROSETTE_THRESHOLD);
+        for (int i = 0; i < candidates.length; i++) {
+            testNode = testNodeTable.getNode(candidates[i]);
             // Gets distance between two nodes in space
             // If the distance is within the threshold, and this node hasn't been overused, add to list
-            if (!matches.containsKey(testNode) && getDistance(goldNode, testNode) < ROSETTE_THRESHOLD) {
+            if (!testNodeTable.isMatched(testNode) && getDistance(goldNode, testNode) < ROSETTE_THRESHOLD) {
                 if (writeDetails) {
                     SwcDataNode dat = testNode.getSwcData();
                     System.out.println("Found node: " + dat.getX() + "; " + dat.getY()
@@ -976,7 +1532,7 @@ public class DiademMetric {
                 addNode = true;
                 if (testNode.hasChildren()) {
                     // To ensure this node is a rosette node, make sure it has no children outside the possible range of a rosette
-                    stack = new LinkedStack();
+                    stack.clear();
                     stack.push(testNode.getRight());
                     stack.push(testNode.getLeft());
                     while (!stack.isEmpty()) {
@@ -999,14 +1555,14 @@ public class DiademMetric {
     /**
      * @param goldNode
      * @param testNode
-     * @param goldNodeList
-     * @param testNodeList
+     * @param goldNodeTable
+     * @param testNodeTable
      * @return Path distance difference percentage if swc continuation is found within threshold of the gold termination
      * and the path lengths are within threshold, otherwise 1.
      */
     private double getNMPTerminationMatchPathDifference(
             ParentedBinaryTreeNode goldNode, ParentedBinaryTreeNode testNode,
-            List goldNodeList, List testNodeList) {
+            NodeTable goldNodeTable, NodeTable testNodeTable) {
         if (testNode.getParent() == null) {
             return -1;
         }
@@ -1098,7 +1654,7 @@ public class DiademMetric {
                         notDone = false;
                     } else {
                         // Before moving on, check whether node matches a previously tested node
-                        nearbyNodes = findNearestNodes(goldNode, testNodeList, false);
+                        nearbyNodes = findNearestNodes(goldNode, testNodeTable, false);
                         for (int i = 0; i < nearbyNodes.size(); i++) {
                             if (checkedNodes.contains(nearbyNodes.get(i))) {
                                 // Node match found, path length by definition has not checked out
@@ -1122,7 +1678,7 @@ public class DiademMetric {
                         notDone = false;
                     } else {
                         // Before moving on, check whether node matches a previously tested node
-                        nearbyNodes = findNearestNodes(testNode, goldNodeList, false);
+                        nearbyNodes = findNearestNodes(testNode, goldNodeTable, false);
                         for (int i = 0; i < nearbyNodes.size(); i++) {
                             if (checkedNodes.contains(nearbyNodes.get(i))) {
                                 // Node match found, path length by definition has not checked out
@@ -1152,55 +1708,47 @@ public class DiademMetric {
 
     /**
      * @param goldNode
-     * @param testNodeList
+     * @param testNodeTable
      * @return Whether or not a node is a continuation in the test tree
      * Find first parent known to be in test tree.
      * Search down from gold node for matches (within dist threshold), then compare path lengths
      */
-    private boolean isContinuation(ParentedBinaryTreeNode goldNode, List testNodeList) {
-        return isContinuation(goldNode, testNodeList, true);
+    private boolean isContinuation(ParentedBinaryTreeNode goldNode, NodeTable testNodeTable) {
+        return isContinuation(goldNode, testNodeTable, true);
     }
 
-    private boolean isContinuation(ParentedBinaryTreeNode goldNode, List testNodeList, boolean addToLists) {
+    private boolean isContinuation(ParentedBinaryTreeNode goldNode, NodeTable testNodeTable, boolean addToLists) {
         // Terminal nodes can't be continuations
         if (!goldNode.hasChildren()) {
             return false;
         }
         List ancestorNodeMatches;
-
-        // Get path length at each node
-        SwcSecondaryData goldPathLength = new SwcSecondaryData();
+        NodeTable goldNodeTable = testNodeTable.getPartnerTable();
 
         // Find first parent of gold node that has a match
         ParentedBinaryTreeNode ancestorMatch = null, ancestorNode = goldNode.getParent();
-        goldPathLength.setPathLength(goldNode.getSwcData().getSecondaryData().getPathLength());
-        goldPathLength.setXYPathLength(goldNode.getSwcData().getSecondaryData().getXYPathLength());
-        goldPathLength.setZPathLength(goldNode.getSwcData().getSecondaryData().getZPathLength());
         boolean isMatch = false, isBranchLeft = goldNode.isLeft();
 
         // Look for match until one is found or root is reached
         while (ancestorNode != null) {
             // If known match, use it (and don't keep looking)
-            if (matches.containsKey(ancestorNode)) {
+            if (goldNodeTable.isMatched(ancestorNode)) {
                 if (writeDetails) System.out.println("Known ancestor node");
-                ancestorMatch = (ParentedBinaryTreeNode) matches.get(ancestorNode);
+                ancestorMatch = goldNodeTable.getMatch(ancestorNode);
                 return isContinuation(goldNode, ancestorNode, ancestorMatch, isBranchLeft,
-                        goldPathLength, testNodeList, addToLists);
+                        testNodeTable, addToLists);
             }
             // While no match was made, that might just be because the node's connection to its parent was wrong
-            ancestorNodeMatches = findNearestNodes(ancestorNode, testNodeList);
+            ancestorNodeMatches = findNearestNodes(ancestorNode, testNodeTable);
             for (int i = 0; i < ancestorNodeMatches.size() && !isMatch; i++) {
                 ancestorMatch = (ParentedBinaryTreeNode) ancestorNodeMatches.get(i);
                 isMatch = isContinuation(goldNode, ancestorNode, ancestorMatch, isBranchLeft,
-                        goldPathLength, testNodeList, addToLists);
+                        testNodeTable, addToLists);
                 // If we've found the match, let's get out of here
                 if (isMatch) return true;
             }
 
             // No match, keep going
-            goldPathLength.incrementPathLength(ancestorNode.getSwcData().getSecondaryData().getPathLength());
-            goldPathLength.incrementXYPathLength(ancestorNode.getSwcData().getSecondaryData().getXYPathLength());
-            goldPathLength.incrementZPathLength(ancestorNode.getSwcData().getSecondaryData().getZPathLength());
             isBranchLeft = ancestorNode.isLeft();
             ancestorNode = ancestorNode.getParent();
         }
@@ -1211,8 +1759,8 @@ public class DiademMetric {
 
     // Subroutine for overall isContinuation function
     private boolean isContinuation(ParentedBinaryTreeNode goldNode, ParentedBinaryTreeNode ancestorNode,
-                                   ParentedBinaryTreeNode ancestorMatch, boolean isLeftBranch, SwcSecondaryData goldPathLength,
-                                   List testNodeList, boolean addToLists) {
+                                   ParentedBinaryTreeNode ancestorMatch, boolean isLeftBranch,
+                                   NodeTable testNodeTable, boolean addToLists) {
 
         // If there is no parent match, this cannot be confirmed as a continuation
         if (ancestorMatch == null) return false;
@@ -1220,44 +1768,47 @@ public class DiademMetric {
         if (writeDetails)
             System.out.println("Ancestor Match, Gold: " + getPositionString(ancestorNode) + "; test: " + getPositionString(ancestorMatch));
 
-        Map pathLengthMap = new HashMap();
-        pathLengthMap.put(goldNode, goldPathLength);
-
         ParentedBinaryTreeNode leftChildMatch, rightChildMatch;
         EuclideanPoint ancestorTrajectory;
         if (isLeftBranch) {
-            ancestorTrajectory = ancestorNode.getSwcData().getSecondaryData().getLeftTrajectoryPoint();
+            ancestorTrajectory = getLeftTrajectoryPoint(ancestorNode.getSwcData());
         } else {
-            ancestorTrajectory = ancestorNode.getSwcData().getSecondaryData().getRightTrajectoryPoint();
+            ancestorTrajectory = getRightTrajectoryPoint(ancestorNode.getSwcData());
         }
 
         // Search down either side from gold node for match(es)
         leftChildMatch = getDescendantInForContinuation(
-                goldNode.getParentedLeft(), ancestorNode, ancestorMatch, ancestorTrajectory, pathLengthMap, testNodeList);
+                goldNode.getParentedLeft(), ancestorNode, ancestorMatch, ancestorTrajectory, testNodeTable);
         rightChildMatch = getDescendantInForContinuation(
-                goldNode.getParentedRight(), ancestorNode, ancestorMatch, ancestorTrajectory, pathLengthMap, testNodeList);
+                goldNode.getParentedRight(), ancestorNode, ancestorMatch, ancestorTrajectory, testNodeTable);
 
         // If both are found, then there is a common node outside of the threshold range
         if (leftChildMatch != null && rightChildMatch != null) {
-            ParentedBinaryTreeNode commonAncestor = leastCommonAncestor(leftChildMatch, rightChildMatch, ancestorMatch);
+            ParentedBinaryTreeNode commonAncestor = leastCommonAncestor(leftChildMatch, rightChildMatch, ancestorMatch, testNodeTable);
             // TODO: Decide whether this is an appropriate determinant
             if (commonAncestor != null && isWithinDistantMatchThreshold(commonAncestor, goldNode)) {
-                matches.put(goldNode, commonAncestor);
-                matches.put(commonAncestor, goldNode);
+                NodeTable goldNodeTable = testNodeTable.getPartnerTable();
+                if (testNodeTable.isSnapshot()) {
+                    // Made when the check is committed
+                    distantMatch = commonAncestor;
+                    return true;
+                }
+                goldNodeTable.setMatch(goldNode, commonAncestor);
+                testNodeTable.setMatch(commonAncestor, goldNode);
                 if (writeDetails)
                     System.out.println("Distant match to " + getPositionString(commonAncestor));
                 if (addToLists) {
-                    distantMatches.add(goldNode);
+                    context.distantMatches.add(goldNode);
                 }
             } else if (addToLists) {
-                continuations.add(goldNode);
+                context.continuations.add(goldNode);
             }
             return true;
         }
         // Return true if either child's side gets a match
         else if (leftChildMatch != null || rightChildMatch != null) {
             if (addToLists) {
-                continuations.add(goldNode);
+                context.continuations.add(goldNode);
             }
             return true;
         }
@@ -1267,15 +1818,18 @@ public class DiademMetric {
     private ParentedBinaryTreeNode getDescendantInForContinuation(
             ParentedBinaryTreeNode firstNode, ParentedBinaryTreeNode ancestorNode,
             ParentedBinaryTreeNode ancestorMatch, EuclideanPoint ancestorTrajectory,
-            Map pathLengthMap, List testNodeList) {
-        ParentedBinaryTreeNode childMatch = null, tmpNode, goldNode;
-        double testXYPathLength, testZPathLength;
-        boolean done;
-        SwcSecondaryData goldPathLength, prevPathLength, testPathLength;
+            NodeTable testNodeTable) {
+        ParentedBinaryTreeNode childMatch = null, goldNode;
+        double goldPathLength, goldXYPathLength, goldZPathLength;
+        double testPathLength, testXYPathLength, testZPathLength;
         EuclideanPoint specificAncestorTrajectory = ancestorTrajectory, descendantTrajectory;
         List testMatches;
+        NodeTable goldNodeTable = testNodeTable.getPartnerTable();
+        NeuronArrays gold = goldNodeTable.getArrays();
+        NeuronArrays test = testNodeTable.getArrays();
+        int ancestorPosition = ancestorNode.getIndex(), ancestorMatchPosition = ancestorMatch.getIndex(), position;
 
-        LinkedStack stack = new LinkedStack();
+        ArrayStack stack = new ArrayStack();
         stack.push(firstNode);
         // Search down from gold node for matches
         while (!stack.isEmpty()) {
@@ -1284,64 +1838,31 @@ public class DiademMetric {
             descendantTrajectory = goldNode.getSwcData().getSecondaryData().getParentTrajectoryPoint();
 
             // If there is a known match for the descendant, use it
-            if (matches.containsKey(goldNode)) {
+            if (goldNodeTable.isMatched(goldNode)) {
                 testMatches = new ArrayList();
-                testMatches.add(matches.get(goldNode));
+                testMatches.add(goldNodeTable.getMatch(goldNode));
             } else {
                 // Find nodes within threshold of descendant
-                testMatches = findNearestNodes(goldNode, testNodeList, false);
-            }
-
-            // Calculate and score gold path length
-            prevPathLength = (SwcSecondaryData) pathLengthMap.get(goldNode.getParent());
-            goldPathLength = new SwcSecondaryData();
-            goldPathLength.setPathLength(
-                    goldNode.getSwcData().getSecondaryData().getPathLength()
-                            + prevPathLength.getPathLength());
-            goldPathLength.setXYPathLength(
-                    goldNode.getSwcData().getSecondaryData().getXYPathLength()
-                            + prevPathLength.getXYPathLength());
-            goldPathLength.setZPathLength(
-                    goldNode.getSwcData().getSecondaryData().getZPathLength()
-                            + prevPathLength.getZPathLength());
-            pathLengthMap.put(goldNode, goldPathLength);
+                testMatches = findNearestNodes(goldNode, testNodeTable, false);
+            }
+
+            // Gold path length from the ancestor
+            position = goldNode.getIndex();
+            goldPathLength = gold.getPathLength(ancestorPosition, position);
+            goldXYPathLength = gold.getXYPathLength(ancestorPosition, position);
+            goldZPathLength = gold.getZPathLength(ancestorPosition, position);
 
             for (int i = 0; i < testMatches.size(); i++) {
                 childMatch = (ParentedBinaryTreeNode) testMatches.get(i);
                 if (writeDetails)
                     System.out.println("Matching on gold child: " + getPositionString(goldNode) + "; test match: " + getPositionString(childMatch));
 
-                // Go up to parent (or node with path length calculated) to find path length
-                testPathLength = new SwcSecondaryData();
-                testPathLength.addData(childMatch.getSwcData().getSecondaryData());
-                tmpNode = childMatch.getParent();
-
-                // Don't bother tracing up if child match's parent is ancestor
-                done = (tmpNode == ancestorMatch);
-                while (!done) {
-                    if (pathLengthMap.containsKey(tmpNode)) {
-                        prevPathLength = (SwcSecondaryData) pathLengthMap.get(tmpNode);
-                        testPathLength.incrementPathLengths(prevPathLength);
-                        done = true;
-                    } else {
-                        prevPathLength = (SwcSecondaryData) pathLengthMap.get(tmpNode);
-                        testPathLength.incrementPathLengths(tmpNode.getSwcData().getSecondaryData());
-                        tmpNode = tmpNode.getParent();
-                        if (tmpNode == null) {
-                            // Path not found: matched to descendant was ancestor of matched ancestor
-                            done = true;
-                        }
-                    }
-                    if (tmpNode == ancestorMatch) {
-                        done = true;
-                    }
-                }
-
                 // Only continue if the descendant match is the descendant of the ancestor match
-                if (tmpNode == null) {
+                position = childMatch.getIndex();
+                if (!test.isAncestor(ancestorMatchPosition, position)) {
                     if (writeDetails) System.out.println("Descendant match not a descendant of ancestor match");
                 } else {
-                    pathLengthMap.put(childMatch, testPathLength);
+                    testPathLength = test.getPathLength(ancestorMatchPosition, position);
                     if (ancestorTrajectory.getX() == ReadSWC.TRAJECTORY_NONE || ancestorTrajectory.getZ() == ReadSWC.TRAJECTORY_NONE) {
                         specificAncestorTrajectory = getTrajectoryForPath(ancestorNode, goldNode);
                         if (ancestorTrajectory.getX() != ReadSWC.TRAJECTORY_NONE) {
@@ -1354,22 +1875,23 @@ public class DiademMetric {
                     }
 
                     if (writeDetails)
-                        System.out.println("Path distances: " + goldPathLength.getPathLength() + " " + testPathLength.getPathLength());
+                        System.out.println("Path distances: " + goldPathLength + " " + testPathLength);
 
                     // Calculate test XY and Z path length modified by end node positions
-                    testXYPathLength = testPathLength.getXYPathLength()
+                    testXYPathLength = test.getXYPathLength(ancestorMatchPosition, position)
                             + getEndNodeXYDistanceDifference(ancestorNode.getSwcData(), specificAncestorTrajectory, ancestorMatch.getSwcData())
                             + getEndNodeXYDistanceDifference(goldNode.getSwcData(), descendantTrajectory, childMatch.getSwcData());
-                    testZPathLength = testPathLength.getZPathLength()
+                    testZPathLength = test.getZPathLength(ancestorMatchPosition, position)
                             + getEndNodeZDistanceDifference(ancestorNode.getSwcData(), specificAncestorTrajectory, ancestorMatch.getSwcData())
                             + getEndNodeZDistanceDifference(goldNode.getSwcData(), descendantTrajectory, childMatch.getSwcData());
 
                     if (writeDetails)
-                        System.out.println("XY Test Path: " + testPathLength.getXYPathLength() + "; ancestorAdjust: " +
+                        System.out.println("XY Test Path: " + test.getXYPathLength(ancestorMatchPosition, position) + "; ancestorAdjust: " +
                                 getEndNodeXYDistanceDifference(ancestorNode.getSwcData(), specificAncestorTrajectory, ancestorMatch.getSwcData()) +
                                 "; descendantAdjust: " + getEndNodeXYDistanceDifference(goldNode.getSwcData(), descendantTrajectory, childMatch.getSwcData()));
 
-                    if (pathLengthMatches(goldPathLength, testXYPathLength, testZPathLength)) {
+                    if (pathLengthMatches(goldPathLength, goldXYPathLength, goldZPathLength,
+                            testXYPathLength, testZPathLength)) {
                         if (writeDetails)
                             System.out.println("Found child match for continuation: " + childMatch.getData());
                         return childMatch;
@@ -1379,7 +1901,7 @@ public class DiademMetric {
                 }
             }
             // Add child nodes to stack only if this node didn't already have a known match
-            if (goldNode.hasChildren() && !matches.containsKey(goldNode)) {
+            if (goldNode.hasChildren() && !goldNodeTable.isMatched(goldNode)) {
                 stack.push(goldNode.getParentedLeft());
                 stack.push(goldNode.getParentedRight());
             }
@@ -1387,25 +1909,25 @@ public class DiademMetric {
         return null;
     }
 
-    private boolean pathLengthMatches(SwcSecondaryData goldPathLength,
+    private boolean pathLengthMatches(double goldPathLength, double xyGoldPathLength, double zGoldPathLength,
                                       double xyTestPathLength, double zTestPathLength) {
 
         double xyLocalPathErrorThreshold = XYPathErrorThreshold,
                 zLocalPathErrorThreshold = ZPathErrorThreshold;
 
-        double xyDiff = Math.abs(goldPathLength.getXYPathLength() - xyTestPathLength);
-        double xyErr = xyDiff / goldPathLength.getPathLength();
+        double xyDiff = Math.abs(xyGoldPathLength - xyTestPathLength);
+        double xyErr = xyDiff / goldPathLength;
         if (writeDetails)
-            System.out.println("goldXYPath: " + goldPathLength.getXYPathLength() + "; testXYPath: " + xyTestPathLength);
+            System.out.println("goldXYPath: " + xyGoldPathLength + "; testXYPath: " + xyTestPathLength);
         if (writeDetails) System.out.println("xyDiff = " + xyDiff + "; xyErr: " + xyErr);
 
-        double zDiff = Math.abs(goldPathLength.getZPathLength() - zTestPathLength);
-        double zErr = zDiff / goldPathLength.getPathLength();
+        double zDiff = Math.abs(zGoldPathLength - zTestPathLength);
+        double zErr = zDiff / goldPathLength;
         if (writeDetails)
-            System.out.println("goldZPath: " + goldPathLength.getZPathLength() + "; testZPath: " + zTestPathLength);
+            System.out.println("goldZPath: " + zGoldPathLength + "; testZPath: " + zTestPathLength);
         if (writeDetails) System.out.println("zDiff = " + zDiff + "; zErr = " + zErr);
 
-        if (goldPathLength.getXYPathLength() < XYThreshold) {
+        if (xyGoldPathLength < XYThreshold) {
             // If both paths are within the euclidean threshold distance, no check needed
             if (xyTestPathLength < XYThreshold) {
                 xyErr = 0;
@@ -1415,7 +1937,7 @@ public class DiademMetric {
                 xyLocalPathErrorThreshold = LocalPathErrorThreshold;
             }
         }
-        if (goldPathLength.getZPathLength() < ZThreshold) {
+        if (zGoldPathLength < ZThreshold) {
             // If both paths are within the euclidean threshold distance, no check needed
             if (zTestPathLength < ZThreshold) {
                 zErr = 0;
@@ -1429,57 +1951,224 @@ public class DiademMetric {
         return (xyErr < xyLocalPathErrorThreshold && zErr < zLocalPathErrorThreshold);
     }
 
+    /**
+     * Checks the missed bifurcations from firstMiss on for continuations, in parallel,
+     * against the matches as they are now. Nothing is changed.
+     *
+     * @param firstMiss
+     * @param testNodeTable
+     * @return a check for each miss from firstMiss on (null for misses that print details, which are
+     * checked as they are committed), or null if there are too few misses to be worth checking ahead
+     */
+    private ContinuationCheck[] checkContinuations(int firstMiss, NodeTable testNodeTable) throws Exception {
+        int count = context.misses.size() - firstMiss;
+        int threads = resolveContinuationThreads(false);
+        if (threads <= 1 || count < MIN_PARALLEL_CONTINUATIONS || debug) {
+            return null;
+        }
+        int tasks = Math.min(threads * 4, (count + 63) / 64);
+        List taskList = new ArrayList();
+        for (int i = 0; i < tasks; i++) {
+            taskList.add(new ContinuationTask(firstMiss + (int) ((long) count * i / tasks),
+                    firstMiss + (int) ((long) count * (i + 1) / tasks), testNodeTable));
+        }
+        ExecutorService executor = continuationExecutor != null ? continuationExecutor
+                : BatchScorer.createExecutor(Math.min(threads, tasks), virtualThreads);
+        ContinuationCheck[] checks = new ContinuationCheck[count];
+        try {
+            List futures = executor.invokeAll(taskList);
+            ContinuationTask task;
+            for (int i = 0; i < tasks; i++) {
+                task = (ContinuationTask) ((Future) futures.get(i)).get();
+                System.arraycopy(task.checks, 0, checks, task.from - firstMiss, task.checks.length);
+                if (runMetrics != null) {
+                    runMetrics.add(task.worker.runMetrics);
+                }
+            }
+        } finally {
+            if (executor != continuationExecutor) {
+                executor.shutdownNow();
+            }
+        }
+        return checks;
+    }
+
+    /**
+     * Takes the result of a check made ahead, or checks again if matches it read have changed since,
+     * with the same effect as checking the miss now
+     *
+     * @param check
+     * @param goldNode missed bifurcation
+     * @param testNodeTable
+     * @param changedGold positions of gold standard nodes matched since the checks were made, updated here
+     * @param changedTest positions of test nodes matched since the checks were made, updated here
+     * @return whether goldNode is a continuation
+     */
+    private boolean commitContinuation(ContinuationCheck check, ParentedBinaryTreeNode goldNode, NodeTable testNodeTable,
+                                       BitSet changedGold, BitSet changedTest) {
+        NodeTable goldNodeTable = testNodeTable.getPartnerTable();
+        if (check == null || check.isStale(changedGold, changedTest)) {
+            boolean continuation = isContinuation(goldNode, testNodeTable);
+            if (goldNodeTable.isMatched(goldNode)) {
+                // Distant match
+                changedGold.set(goldNode.getIndex());
+                changedTest.set(goldNodeTable.getMatch(goldNode).getIndex());
+            }
+            return continuation;
+        }
+        if (check.distantMatch != null) {
+            goldNodeTable.setMatch(goldNode, check.distantMatch);
+            testNodeTable.setMatch(check.distantMatch, goldNode);
+            changedGold.set(goldNode.getIndex());
+            changedTest.set(check.distantMatch.getIndex());
+            context.distantMatches.add(goldNode);
+        } else if (check.continuation) {
+            context.continuations.add(goldNode);
+        }
+        return check.continuation;
+    }
+
+    /**
+     * Result of checking a missed bifurcation for a continuation ahead of time,
+     * with the positions whose matches it depends on
+     */
+    private static class ContinuationCheck {
+        private boolean continuation;
+        // Test node to be matched to the bifurcation, null if none
+        private ParentedBinaryTreeNode distantMatch;
+        private int[] goldReads, testReads;
+
+        /**
+         * @return whether the match of a position read by the check has changed
+         */
+        boolean isStale(BitSet changedGold, BitSet changedTest) {
+            return isAnySet(goldReads, changedGold) || isAnySet(testReads, changedTest);
+        }
+
+        private static boolean isAnySet(int[] positions, BitSet bits) {
+            if (bits.isEmpty()) {
+                return false;
+            }
+            for (int i = 0; i < positions.length; i++) {
+                if (bits.get(positions[i])) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Checks a run of misses for continuations, with a metric and table snapshots of its own
+     */
+    private class ContinuationTask implements Callable {
+        private int from, to;
+        private NodeTable testNodeTable;
+        private DiademMetric worker;
+        private ContinuationCheck[] checks;
+
+        ContinuationTask(int from, int to, NodeTable testNodeTable) {
+            this.from = from;
+            this.to = to;
+            this.testNodeTable = testNodeTable;
+        }
+
+        public Object call() {
+            worker = new DiademMetric(DiademMetric.this);
+            if (context.runTrajectories != null) {
+                // Trajectories are only read from here on, so copies made now are the same as later ones
+                worker.context.useRunTrajectories().putAll(context.runTrajectories);
+            }
+            NodeTable testSnapshot = testNodeTable.createSnapshot();
+            NodeTable goldSnapshot = testNodeTable.getPartnerTable().createSnapshot();
+            testSnapshot.setPartnerTable(goldSnapshot);
+            goldSnapshot.setPartnerTable(testSnapshot);
+
+            checks = new ContinuationCheck[to - from];
+            ParentedBinaryTreeNode goldNode;
+            ContinuationCheck check;
+            for (int i = from; i < to; i++) {
+                goldNode = (ParentedBinaryTreeNode) context.misses.get(i);
+                // Misses printing details are checked in order, so their output is too
+                if (goldNode.isLeaf() || isWithinXYThreshold(xyCheck, goldNode.getSwcData())) {
+                    continue;
+                }
+                worker.distantMatch = null;
+                check = new ContinuationCheck();
+                check.continuation = worker.isContinuation(goldNode, testSnapshot, false);
+                check.distantMatch = worker.distantMatch;
+                check.goldReads = goldSnapshot.takeReads();
+                check.testReads = testSnapshot.takeReads();
+                checks[i - from] = check;
+            }
+            return this;
+        }
+    }
+
+    /**
+     * @param node1
+     * @param node2
+     * @param knownCommonAncestor ancestor of both nodes
+     * @param testNodeTable table of the nodes
+     * @return the nearest ancestor of node1 (not node1 itself) that is node2 or one of its ancestors,
+     * or null if that is knownCommonAncestor or above it
+     */
     private ParentedBinaryTreeNode leastCommonAncestor(
-            ParentedBinaryTreeNode node1, ParentedBinaryTreeNode node2, ParentedBinaryTreeNode knownCommonAncestor) {
-        List node1List = new ArrayList();
+            ParentedBinaryTreeNode node1, ParentedBinaryTreeNode node2, ParentedBinaryTreeNode knownCommonAncestor,
+            NodeTable testNodeTable) {
+        NeuronArrays test = testNodeTable.getArrays();
 
         if (writeDetails) {
             System.out.println("Known common ancestor: " + getPositionString(knownCommonAncestor));
-        }
-        // Assemble node1's ancestor list
-        node1 = node1.getParent();
-        while (node1 != knownCommonAncestor) {
-            if (writeDetails) System.out.println("Node1: " + getPositionString(node1));
-            node1List.add(node1);
-            node1 = node1.getParent();
+            for (ParentedBinaryTreeNode node = node1.getParent(); node != knownCommonAncestor; node = node.getParent()) {
+                System.out.println("Node1: " + getPositionString(node));
+            }
         }
 
-        // Find first ancestor node of node2 that is an ancestor node of node1
-        node1 = node2.getParent();
-        while (node2 != knownCommonAncestor && node2 != null) {
-            if (node1List.contains(node2)) {
-                return node2;
-            }
-            node2 = node2.getParent();
+        int position1 = node1.getIndex();
+        int common = test.getLeastCommonAncestor(position1, node2.getIndex());
+        if (common == position1) {
+            common = test.getParent(common);
+        }
+        if (common < 0 || !test.isAncestor(knownCommonAncestor.getIndex(), common)) {
+            return null;
         }
+        return testNodeTable.getNode(common);
+    }
 
-        return null;
+    /**
+     * @param nodeList
+     * @param root
+     * @return NodeTable over nodeList, indexed for threshold sized queries
+     */
+    private NodeTable createNodeTable(List nodeList, ParentedBinaryTreeNode root) {
+        return new NodeTable(nodeList, root, spatialIndex, XYThreshold, ZThreshold + 0.1);
     }
 
     /**
      * @param goldNode
-     * @param testNodeList
+     * @param testNodeTable
      * @return list of nearest nodes
      */
-    private List findNearestNodes(BinaryTreeNode goldNode, List testNodeList) {
-        return findNearestNodes(goldNode, testNodeList, true);
+    private List findNearestNodes(BinaryTreeNode goldNode, NodeTable testNodeTable) {
+        return findNearestNodes(goldNode, testNodeTable, true);
     }
 
-    private List findNearestNodes(BinaryTreeNode goldNode, List testNodeList, boolean checkPreviousUse) {
+    private List findNearestNodes(BinaryTreeNode goldNode, NodeTable testNodeTable, boolean checkPreviousUse) {
         List nearestNodeList = new ArrayList();
         ParentedBinaryTreeNode testNode;
 
-        // Loop through test nodes
-        for (int i = 0; i < testNodeList.size(); i++) {
-            testNode = (ParentedBinaryTreeNode) testNodeList.get(i);
-            // Gets distance between two nodes in space
-            // If the distance is within the threshold, and this node hasn't been overused, add to list
-            if (((!checkPreviousUse || !matches.containsKey(testNode))) && isWithinThreshold(goldNode, testNode)) {
+        // Loop through test nodes within the thresholds
+        int[] candidates = testNodeTable.findWithin(goldNode, XYThreshold, ZThreshold + 0.1);
+        if (runMetrics != null) {
+            runMetrics.addNearestNodeSearch(candidates.length);
+        }
+        for (int i = 0; i < candidates.length; i++) {
+            testNode = testNodeTable.getNode(candidates[i]);
+            // If this node hasn't been overused, add to list
+            if (!checkPreviousUse || !testNodeTable.isMatched(testNode)) {
                 if (writeDetails) {
-                    SwcDataNode dat = (SwcDataNode) testNode.getData();
-                    System.out.println("Found node: " + dat.getX() + "; " + dat.getY()
-                            + "; XYDist: " + getXYDistance(goldNode, testNode)
-                            + "; ZDist: " + getZDistance(goldNode, testNode));
+                    printNearestNode(goldNode, testNode);
                 }
                 nearestNodeList.add(testNode);
             }
@@ -1488,10 +2177,23 @@ public class DiademMetric {
         return nearestNodeList;
     }
 
+    private void printNearestNodes(BinaryTreeNode goldNode, int[] candidates, NodeTable testNodeTable) {
+        for (int i = 0; i < candidates.length; i++) {
+            printNearestNode(goldNode, testNodeTable.getNode(candidates[i]));
+        }
+    }
+
+    private void printNearestNode(BinaryTreeNode goldNode, BinaryTreeNode testNode) {
+        SwcDataNode dat = (SwcDataNode) testNode.getData();
+        System.out.println("Found node: " + dat.getX() + "; " + dat.getY()
+                + "; XYDist: " + getXYDistance(goldNode, testNode)
+                + "; ZDist: " + getZDistance(goldNode, testNode));
+    }
+
     // Determine whether the node is a match or not
     private boolean nodeMatches(ParentedBinaryTreeNode goldNode, ParentedBinaryTreeNode testNode,
-                                List goldNodeList, List testNodeList) {
-        double lengthDiff = getMatchPathLengthDifference(goldNode, testNode, goldNodeList, testNodeList);
+                                NodeTable goldNodeTable, NodeTable testNodeTable) {
+        double lengthDiff = getMatchPathLengthDifference(goldNode, testNode, goldNodeTable, testNodeTable);
         if (lengthDiff < 1)
             return true;
         else
@@ -1501,110 +2203,145 @@ public class DiademMetric {
     /**
      * @param goldNode
      * @param testNode
-     * @param goldNodeList
-     * @param testNodeList
+     * @param goldNodeTable
+     * @param testNodeTable
      * @return Either the path length percent difference (XY and Z included) if XY and Z length error rates are within threshold,
      * or 1 if they are not within threshold
+     * Climbs on the tables' NeuronArrays; only trajectories still to be resolved for a path are taken from the nodes.
      */
     private double getMatchPathLengthDifference(ParentedBinaryTreeNode goldNode, ParentedBinaryTreeNode testNode,
-                                                List goldNodeList, List testNodeList) {
+                                                NodeTable goldNodeTable, NodeTable testNodeTable) {
         if (testNode.getParent() == null) {
             return 1;
         }
+        NeuronArrays gold = goldNodeTable.getArrays();
+        NeuronArrays test = testNodeTable.getArrays();
+        int goldPosition = goldNode.getIndex(), testPosition = testNode.getIndex();
 
         // Used for determining path length threshold based on relative amounts of XY vs Z error
         ParentedBinaryTreeNode goldTarget = goldNode;
 
         // Get path length at each node
-        SwcSecondaryData goldPathLength = new SwcSecondaryData();
-        goldPathLength.incrementPathLengths(goldNode.getSwcData().getSecondaryData());
-        SwcSecondaryData testPathLength = new SwcSecondaryData();
-        testPathLength.incrementPathLengths(testNode.getSwcData().getSecondaryData());
-
-        SwcDataNode goldData;
+        double goldPathLength = gold.getPathLength(goldPosition),
+                goldXYPathLength = gold.getXYPathLength(goldPosition),
+                goldZPathLength = gold.getZPathLength(goldPosition);
+        double testPathLength = test.getPathLength(testPosition),
+                testXYPathLength = test.getXYPathLength(testPosition),
+                testZPathLength = test.getZPathLength(testPosition);
+
+        double trajectoryX, trajectoryY, trajectoryZ;
         EuclideanPoint ancestorTrajectory;
-        double testXYPathLength, testZPathLength;
+        double modifiedXYPathLength, modifiedZPathLength;
 
         // Calculate difference in path length for test path based on distance from gold node
-        double testPathXYMod = getEndNodeXYDistanceDifference(
-                goldNode.getSwcData(), goldNode.getSwcData().getSecondaryData().getParentTrajectoryPoint(), testNode.getSwcData());
+        trajectoryX = gold.getParentTrajectoryX(goldPosition);
+        trajectoryY = gold.getParentTrajectoryY(goldPosition);
+        trajectoryZ = gold.getParentTrajectoryZ(goldPosition);
+        if (!isResolved(trajectoryX, trajectoryZ)) {
+            // May have been resolved since the arrays were made
+            ancestorTrajectory = goldNode.getSwcData().getSecondaryData().getParentTrajectoryPoint();
+            trajectoryX = ancestorTrajectory.getX();
+            trajectoryY = ancestorTrajectory.getY();
+            trajectoryZ = ancestorTrajectory.getZ();
+        }
+        double testPathXYMod = getEndNodeXYDistanceDifference(gold, goldPosition, test, testPosition,
+                trajectoryX, trajectoryY);
         // Since this path modification will persist for all ancestor checks, it can be stored directly in the continually updated path length
-        testPathLength.incrementXYPathLength(testPathXYMod);
-        double testPathZMod = getEndNodeZDistanceDifference(
-                goldNode.getSwcData(), goldNode.getSwcData().getSecondaryData().getParentTrajectoryPoint(), testNode.getSwcData());
-        testPathLength.incrementZPathLength(testPathZMod);
+        testXYPathLength += testPathXYMod;
+        double testPathZMod = getEndNodeZDistanceDifference(gold, goldPosition, test, testPosition, trajectoryZ);
+        testZPathLength += testPathZMod;
 
         if (writeDetails)
             System.out.println("Test Path Mods (XY,Z): (" + testPathXYMod + ", " + testPathZMod + "); TrajecoryPt: " +
                     getPositionString(goldNode.getSwcData().getSecondaryData().getParentTrajectoryPoint()));
 
-        // Start with parents of original nodes, climb using goldNode and testNode
-        boolean isBranchLeft = goldNode.isLeft();
-        goldNode = goldNode.getParent();
-        testNode = testNode.getParent();
+        // Start with parents of original nodes, climb using goldPosition and testPosition
+        boolean isBranchLeft = gold.isLeft(goldPosition);
+        goldPosition = gold.getParent(goldPosition);
+        testPosition = test.getParent(testPosition);
 
-        Set checkedNodes = new HashSet();
-        List nearbyNodes;
+        // Nodes climbed past, marked with this call's stamp
+        if (++context.checkStamp == Integer.MAX_VALUE) {
+            context.checkStamp = 1;
+            context.goldChecked = context.testChecked = null;
+        }
+        if (context.goldChecked == null || context.goldChecked.length <= gold.size()) {
+            context.goldChecked = new int[gold.size() + 1];
+        }
+        if (context.testChecked == null || context.testChecked.length <= test.size()) {
+            context.testChecked = new int[test.size() + 1];
+        }
+        int[] nearbyNodes;
         boolean noMatch = true, notDone = true;
         while (noMatch && notDone) {
             if (writeDetails || debug) {
-                System.out.println("Looking at ancestor " + getPositionString(goldNode) + " and " + getPositionString(testNode));
+                System.out.println("Looking at ancestor " + getPositionString(goldNodeTable.getNode(goldPosition))
+                        + " and " + getPositionString(testNodeTable.getNode(testPosition)));
             }
             // If the gold standard and test ancestors are within threshold distance, confirm match by path length
-            if (isWithinThreshold(goldNode, testNode)) {
-                goldData = goldNode.getSwcData();
+            if (gold.getXYDistance(goldPosition, test, testPosition) <= XYThreshold
+                    && Math.abs(gold.getZ(goldPosition) - test.getZ(testPosition)) <= (ZThreshold + 0.1)) {
                 // Get the ancestor trajectory for modifying test path length
                 if (isBranchLeft) {
-                    ancestorTrajectory = goldData.getSecondaryData().getLeftTrajectoryPoint();
+                    trajectoryX = gold.getLeftTrajectoryX(goldPosition);
+                    trajectoryY = gold.getLeftTrajectoryY(goldPosition);
+                    trajectoryZ = gold.getLeftTrajectoryZ(goldPosition);
                 } else {
-                    ancestorTrajectory = goldData.getSecondaryData().getRightTrajectoryPoint();
+                    trajectoryX = gold.getRightTrajectoryX(goldPosition);
+                    trajectoryY = gold.getRightTrajectoryY(goldPosition);
+                    trajectoryZ = gold.getRightTrajectoryZ(goldPosition);
                 }
-                // If the ancestor has a child within threshold, a path specific trajectory must be calculated
-                if (ancestorTrajectory.getX() == ReadSWC.TRAJECTORY_NONE || ancestorTrajectory.getZ() == ReadSWC.TRAJECTORY_NONE) {
-                    EuclideanPoint tmpTrajectory = getTrajectoryForPath(goldNode, goldTarget);
-                    if (ancestorTrajectory.getX() == ReadSWC.TRAJECTORY_NONE) {
-                        ancestorTrajectory.setX(tmpTrajectory.getX());
-                        ancestorTrajectory.setY(tmpTrajectory.getY());
+                ancestorTrajectory = null;
+                if (!isResolved(trajectoryX, trajectoryZ) || writeDetails) {
+                    goldNode = goldNodeTable.getNode(goldPosition);
+                    if (isBranchLeft) {
+                        ancestorTrajectory = getLeftTrajectoryPoint(goldNode.getSwcData());
+                    } else {
+                        ancestorTrajectory = getRightTrajectoryPoint(goldNode.getSwcData());
                     }
-                    if (ancestorTrajectory.getZ() == ReadSWC.TRAJECTORY_NONE) {
-                        ancestorTrajectory.setZ(tmpTrajectory.getZ());
+                    // If the ancestor has a child within threshold, a path specific trajectory must be calculated
+                    if (ancestorTrajectory.getX() == ReadSWC.TRAJECTORY_NONE || ancestorTrajectory.getZ() == ReadSWC.TRAJECTORY_NONE) {
+                        resolveTrajectory(ancestorTrajectory, getTrajectoryForPath(goldNode, goldTarget));
+                        if (writeDetails)
+                            System.out.println("Getting trajectory for path with ancestor: " + getPositionString(goldNode) + "; descendant: " + getPositionString(goldTarget) + ": " + getPositionString(ancestorTrajectory));
                     }
-                    if (writeDetails)
-                        System.out.println("Getting trajectory for path with ancestor: " + getPositionString(goldNode) + "; descendant: " + getPositionString(goldTarget) + ": " + getPositionString(ancestorTrajectory));
+                    trajectoryX = ancestorTrajectory.getX();
+                    trajectoryY = ancestorTrajectory.getY();
+                    trajectoryZ = ancestorTrajectory.getZ();
                 }
 
                 if (writeDetails)
-                    System.out.println("Gold path length: " + goldPathLength.getPathLength() + "; Test path length: " + testPathLength.getPathLength()
+                    System.out.println("Gold path length: " + goldPathLength + "; Test path length: " + testPathLength
                             + "; TrajectoryPt: " + ancestorTrajectory);
 
                 // Calculate test XY and Z path length modified by end node positions
                 // tempoary variables used because this modification will change with each successive ancestor
-                testXYPathLength = testPathLength.getXYPathLength()
-                        + getEndNodeXYDistanceDifference(goldData, ancestorTrajectory, testNode.getSwcData());
-                testZPathLength = testPathLength.getZPathLength()
-                        + getEndNodeZDistanceDifference(goldData, ancestorTrajectory, testNode.getSwcData());
+                modifiedXYPathLength = testXYPathLength
+                        + getEndNodeXYDistanceDifference(gold, goldPosition, test, testPosition, trajectoryX, trajectoryY);
+                modifiedZPathLength = testZPathLength
+                        + getEndNodeZDistanceDifference(gold, goldPosition, test, testPosition, trajectoryZ);
 
-                if (pathLengthMatches(goldPathLength, testXYPathLength, testZPathLength)) {
+                if (pathLengthMatches(goldPathLength, goldXYPathLength, goldZPathLength, modifiedXYPathLength, modifiedZPathLength)) {
                     // Only used by NMP, so just return xyError
-                    return Math.abs(goldPathLength.getXYPathLength() - testXYPathLength) / goldPathLength.getPathLength();
+                    return Math.abs(goldXYPathLength - modifiedXYPathLength) / goldPathLength;
                 } else {
                     return 1;
                 }
                 // Otherwise keep trying, as the "match" by location may have been wrong
             } else {
                 // Decide which node to traverse up next
-                if (goldPathLength.getPathLength() < testPathLength.getPathLength()) {
-                    // If at root OR if ancestor has a known match and it hasn't been tried, then this node is a miss
-					/*if (goldNode.getParent() == null ||
-							(matches.containsKey(goldNode) && testNode != matches.get(goldNode))){*/
+                if (goldPathLength < testPathLength) {
                     // If at root, done (not stopping in other cases. false positives better than false negatives)
-                    if (goldNode.getParent() == null) {
+                    if (gold.getParent(goldPosition) < 0) {
                         notDone = false;
                     } else {
                         // Before moving on, check whether node matches a previously tested node
-                        nearbyNodes = findNearestNodes(goldNode, testNodeList, false);
-                        for (int i = 0; i < nearbyNodes.size(); i++) {
-                            if (checkedNodes.contains(nearbyNodes.get(i))) {
+                        nearbyNodes = testNodeTable.findWithin(gold, goldPosition, XYThreshold, ZThreshold + 0.1);
+                        if (writeDetails) {
+                            printNearestNodes(goldNodeTable.getNode(goldPosition), nearbyNodes, testNodeTable);
+                        }
+                        for (int i = 0; i < nearbyNodes.length; i++) {
+                            if (context.testChecked[nearbyNodes[i]] == context.checkStamp) {
                                 // Node match found, path length by definition has not checked out
                                 notDone = false;
                                 break;
@@ -1612,22 +2349,27 @@ public class DiademMetric {
                         }
 
                         // Add node to checked nodes
-                        checkedNodes.add(goldNode);
+                        context.goldChecked[goldPosition] = context.checkStamp;
                         // Update path length
-                        goldPathLength.incrementPathLengths(goldNode.getSwcData().getSecondaryData());
+                        goldPathLength += gold.getPathLength(goldPosition);
+                        goldXYPathLength += gold.getXYPathLength(goldPosition);
+                        goldZPathLength += gold.getZPathLength(goldPosition);
                         // Climb to next parent
-                        isBranchLeft = goldNode.isLeft();
-                        goldNode = goldNode.getParent();
+                        isBranchLeft = gold.isLeft(goldPosition);
+                        goldPosition = gold.getParent(goldPosition);
                     }
                 } else {
-                    // If at root OR if ancestor has a known match and it hasn't been tried, then this node is a miss
-                    if (testNode.getParent() == null) {
+                    // If at root, done
+                    if (test.getParent(testPosition) < 0) {
                         notDone = false;
                     } else {
                         // Before moving on, check whether node matches a previously tested node
-                        nearbyNodes = findNearestNodes(testNode, goldNodeList, false);
-                        for (int i = 0; i < nearbyNodes.size(); i++) {
-                            if (checkedNodes.contains(nearbyNodes.get(i))) {
+                        nearbyNodes = goldNodeTable.findWithin(test, testPosition, XYThreshold, ZThreshold + 0.1);
+                        if (writeDetails) {
+                            printNearestNodes(testNodeTable.getNode(testPosition), nearbyNodes, goldNodeTable);
+                        }
+                        for (int i = 0; i < nearbyNodes.length; i++) {
+                            if (context.goldChecked[nearbyNodes[i]] == context.checkStamp) {
                                 // Node match found, path length by definition has not checked out
                                 notDone = false;
                                 break;
@@ -1635,11 +2377,13 @@ public class DiademMetric {
                         }
 
                         // Add node to checked nodes
-                        checkedNodes.add(testNode);
+                        context.testChecked[testPosition] = context.checkStamp;
                         // Update path length
-                        testPathLength.incrementPathLengths(testNode.getSwcData().getSecondaryData());
+                        testPathLength += test.getPathLength(testPosition);
+                        testXYPathLength += test.getXYPathLength(testPosition);
+                        testZPathLength += test.getZPathLength(testPosition);
                         // Climb to next parent
-                        testNode = testNode.getParent();
+                        testPosition = test.getParent(testPosition);
                     }
                 }
             }
@@ -1649,24 +2393,27 @@ public class DiademMetric {
         return 1;
     }
 
+    /**
+     * @return whether a trajectory point taken from NeuronArrays needs no resolving
+     * (it can then no longer change)
+     */
+    private static boolean isResolved(double trajectoryX, double trajectoryZ) {
+        return trajectoryX != ReadSWC.TRAJECTORY_NONE && trajectoryZ != ReadSWC.TRAJECTORY_NONE
+                && !Double.isNaN(trajectoryX);
+    }
+
     // Excess nodes weighed by degree of excess terms without any matches in between
-    private double weighExcess(SwcTreeNode testRoot, List goldTrees) {
+    double weighExcess(SwcTreeNode testRoot, NodeTable goldNodeTable) {
         int weightSum = 0;
-        // Traverse gold tree and get a list of nodes
-        List goldNodeList = new ArrayList();
-        ParentedBinaryTreeNode rootNode;
-        for (int i = 0; i < goldTrees.size(); i++) {
-            rootNode = (ParentedBinaryTreeNode) goldTrees.get(i);
-            goldNodeList.addAll(
-                    BinaryTreeUtils.createNodeList(rootNode));
-        }
+        NodeTable testNodeTable = goldNodeTable.getPartnerTable();
 
         ParentedBinaryTreeNode node;
-        // Get all nodes into stack such that nodes will always pop before their parents
-        LinkedStack setupStack, useStack = new LinkedStack();
+        // Get all nodes into order such that nodes always come before their parents
+        ParentedBinaryTreeNode[] order = new ParentedBinaryTreeNode[testNodeTable.size()];
+        int next = order.length;
+        ArrayStack setupStack = new ArrayStack();
         for (int i = 0; i < testRoot.getChildren().size(); i++) {
             node = (ParentedBinaryTreeNode) testRoot.getChildren().get(i);
-            setupStack = new LinkedStack();
             setupStack.push(node);
             while (!setupStack.isEmpty()) {
                 node = (ParentedBinaryTreeNode) setupStack.pop();
@@ -1674,20 +2421,20 @@ public class DiademMetric {
                     setupStack.push(node.getParentedLeft());
                     setupStack.push(node.getParentedRight());
                     // Purposefully not including root node
-                    useStack.push(node.getParentedLeft());
-                    useStack.push(node.getParentedRight());
+                    order[--next] = node.getParentedLeft();
+                    order[--next] = node.getParentedRight();
                 }
             }
         }
 
-        List nearbyNodes;
         int excess;
-        Map directTermExcess = new HashMap();
+        // Excess terms under each test node without any matches in between, by position
+        int[] directTermExcess = new int[order.length];
         SwcDataNode data;
 
         // Determine whether test nodes are excess or not
-        while (!useStack.isEmpty()) {
-            node = (ParentedBinaryTreeNode) useStack.pop();
+        for (int i = next; i < order.length; i++) {
+            node = order[i];
             data = node.getSwcData();
             writeDetails = false;
             if (isWithinXYThreshold(xyCheck, data)) {
@@ -1698,17 +2445,19 @@ public class DiademMetric {
             if (node.hasChildren()) {
                 if (writeDetails) System.out.println("Has children");
                 // Accumulating terminal hits under this node
-                excess = ((Integer) directTermExcess.get(node.getLeft())).intValue();
-                excess += ((Integer) directTermExcess.get(node.getRight())).intValue();
+                excess = directTermExcess[node.getParentedLeft().getIndex()]
+                        + directTermExcess[node.getParentedRight().getIndex()];
 				
 				/* Only add to the weight if this node is a miss, not a  
 				   continuation, and if there are no unmatched nearby nodes */
-                if (!matches.containsKey(node) && findNearestNodes(node, goldNodeList).size() == 0
-                        && !isContinuation(node, goldNodeList, false)) {
+                if (!testNodeTable.isMatched(node) && findNearestNodes(node, goldNodeTable).size() == 0
+                        && !isContinuation(node, goldNodeTable, false)) {
                     if (writeDetails) System.out.println("Is Excess");
-                    excessNodes.put(node, new Integer(excess));
+                    if (listMisses) {
+                        context.excessNodes.put(node, new Integer(excess));
+                    }
                     // don't add to the weight if this node is the parent of a spur
-                    if (!spurList.contains(node)) {
+                    if (!context.spurs.containsKey(node)) {
                         weightSum += excess;
                     }
                 } else {
@@ -1722,84 +2471,61 @@ public class DiademMetric {
                 excess = 0;
                 // Determine whether terminal node is excess (miss)
                 // Excess if not a spur, no match, no match to parent, and no non-matched node within threshold
-                if (!spurList.contains(node) && !matches.containsKey(node) && !matches.containsKey(node.getParent())
-                        && findNearestNodes(node, goldNodeList).size() == 0) {
-                    // See if an unselected gold node matches
-                    nearbyNodes = findNearestNodes(node, goldNodeList);
-                    if (nearbyNodes.size() > 0) {
-                        // Remove nearest node so it cannot be used again
-                        removeNearestNode(node, nearbyNodes, goldNodeList);
-                    } else {
-                        if (writeDetails) System.out.println("Is Excess");
-                        excess = 1;
-                        excessNodes.put(node, new Integer(1));
-                        weightSum += excess;
+                if (!context.spurs.containsKey(node) && !testNodeTable.isMatched(node) && !testNodeTable.isMatched(node.getParent())
+                        && findNearestNodes(node, goldNodeTable).size() == 0) {
+                    if (writeDetails) System.out.println("Is Excess");
+                    excess = 1;
+                    if (listMisses) {
+                        context.excessNodes.put(node, new Integer(1));
                     }
+                    weightSum += excess;
                 }
             }
             // Save excess nodes for display at end
-            directTermExcess.put(node, new Integer(excess));
+            directTermExcess[node.getIndex()] = excess;
         }
 
         return weightSum;
     }
 
-    private void removeNearestNode(ParentedBinaryTreeNode node, List nearbyNodes, List goldNodeList) {
-        double distance, closestDistance = -1;
-        ParentedBinaryTreeNode closestMatch = null, nearbyNode;
-        for (int j = 0; j < nearbyNodes.size(); j++) {
-            nearbyNode = (ParentedBinaryTreeNode) nearbyNodes.get(j);
-            // Check whether nodes' parents match
-
-            distance = getDistance(node, nearbyNode);
-            if (closestDistance == -1 || distance < closestDistance) {
-                closestDistance = distance;
-                closestMatch = nearbyNode;
-            }
-        }
-        goldNodeList.remove(closestMatch);
-    }
-
-    private void generateNodeWeights(SwcTreeNode root) {
-        // load up weightMap by degree minus all terminal spurs
-        ParentedBinaryTreeNode binaryRoot, node;
-        LinkedStack initStack, mainStack;
-        int weight;
-        for (int i = 0; i < root.getChildren().size(); i++) {
-            binaryRoot = (ParentedBinaryTreeNode) root.getChildren().get(i);
-            initStack = new LinkedStack();
-            initStack.push(binaryRoot);
-            mainStack = new LinkedStack();
-            mainStack.push(binaryRoot);
-            // Add all nodes to the main stack
-            while (!initStack.isEmpty()) {
-                node = (ParentedBinaryTreeNode) initStack.pop();
-                if (node.hasChildren()) {
-                    initStack.push(node.getParentedLeft());
-                    initStack.push(node.getParentedRight());
-                    mainStack.push(node.getParentedLeft());
-                    mainStack.push(node.getParentedRight());
-                }
-            }
+    /**
+     * Weighs gold standard nodes by degree minus all terminal spurs, into weights by position.
+     * Children come after their parents in the table, so each tree is weighed in one sweep
+     * from its last position to its first.
+     *
+     * @param root
+     * @param goldNodeTable table of root's nodes
+     */
+    void generateNodeWeights(SwcTreeNode root, NodeTable goldNodeTable) {
+        int[] weights = context.useWeights(goldNodeTable.size());
+        NeuronArrays gold = goldNodeTable.getArrays();
+        ParentedBinaryTreeNode node;
+        int first, next, left, right, weight;
+        List trees = root.getChildren();
+        for (int i = 0; i < trees.size(); i++) {
+            // Trees are listed one after another
+            first = ((ParentedBinaryTreeNode) trees.get(i)).getIndex();
+            next = i + 1 < trees.size() ? ((ParentedBinaryTreeNode) trees.get(i + 1)).getIndex() : gold.size();
 
             if (testEnvironment) System.out.println("Generating node weights");
 
-            // Check for spurs using the mainStack, from terminals to root
-            while (!mainStack.isEmpty()) {
-                node = (ParentedBinaryTreeNode) mainStack.pop();
+            // Check for spurs from terminals to root
+            for (int position = next - 1; position >= first; position--) {
+                node = goldNodeTable.getNode(position);
 
                 writeDetails = isWithinXYThreshold(xyCheck, node.getSwcData());
                 if (writeDetails || debug) {
                     System.out.println("Determining weight for " + node.getSwcData());
                 }
-                if (node.isLeaf()) {
+                if (!gold.hasChildren(position)) {
                     if (writeDetails || debug) System.out.println("  Is leaf");
-                    weightMap.put(node, new Integer(1));
+                    weights[position] = 1;
                 } else {
-                    weight = 0;
-                    if (node.getLeft().isLeaf() && node.getRight().isLeaf()) {
-                        if (spurList.contains(node.getLeft())
-                                || spurList.contains(node.getRight())) {
+                    left = gold.getLeft(position);
+                    right = gold.getRight(position);
+                    if (!gold.hasChildren(left) && !gold.hasChildren(right)) {
+                        if (context.spurs.containsKey(node.getLeft())
+                                || context.spurs.containsKey(node.getRight())) {
                             // If one child is spur and other not, this node is a continuation,
                             // but its weight still needs to be passed up to parent
                             if (writeDetails || debug) System.out.println("  At least one leaf child is spur");
@@ -1808,48 +2534,46 @@ public class DiademMetric {
                             if (writeDetails || debug) System.out.println("  Both leaf children, neither spur");
                             weight = 2;
                         }
-                    } else if (spurList.contains(node)) {
+                    } else if (context.spurs.containsKey(node)) {
                         if (writeDetails || debug) System.out.println("  One child bif, one spur leaf");
-                        // One spur leaf, one bifurcation
-                        if (node.getLeft().isLeaf()) {
-                            // Right node is bifurcation with weight, pass it upwards
-                            weight += ((Integer) weightMap.get(node.getRight())).intValue();
-                        } else {
-                            // Left node is bifurcation with weight, pass it upwards
-                            weight += ((Integer) weightMap.get(node.getLeft())).intValue();
-                        }
+                        // One spur leaf, one bifurcation: pass the bifurcation's weight upwards
+                        weight = gold.hasChildren(left) ? weights[left] : weights[right];
                     } else {
                         if (writeDetails || debug) System.out.println("  Both children bifurcations");
-                        weight += ((Integer) weightMap.get(node.getLeft())).intValue();
-                        weight += ((Integer) weightMap.get(node.getRight())).intValue();
+                        weight = weights[left] + weights[right];
                     }
-                    weightMap.put(node, new Integer(weight));
+                    weights[position] = weight;
                 }
             }
         }
     }
 
-    private void removeSpurs(SwcTreeNode root, double threshold) {
+    /**
+     * @param root
+     * @param threshold
+     * @param nodeTable table of root's nodes, null if matching hasn't started
+     */
+    void removeSpurs(SwcTreeNode root, double threshold, NodeTable nodeTable) {
         List children = new ArrayList();
         ParentedBinaryTreeNode binaryRoot;
         for (int i = 0; i < root.getChildren().size(); i++) {
             binaryRoot = (ParentedBinaryTreeNode) root.getChildren().get(i);
-            binaryRoot = removeSpurs(binaryRoot, threshold);
+            binaryRoot = removeSpurs(binaryRoot, threshold, nodeTable);
             children.add(binaryRoot);
         }
         root.setChildren(children);
     }
 
     private ParentedBinaryTreeNode removeSpurs(
-            ParentedBinaryTreeNode root, double threshold) {
+            ParentedBinaryTreeNode root, double threshold, NodeTable nodeTable) {
         ParentedBinaryTreeNode node, newNode;
-        spurList = new ArrayList();
+        context.clearSpurs();
         double distance;
         boolean bothChildrenAreSpurs;
 
         if (testEnvironment) System.out.println("Removing Spurs");
 
-        LinkedStack stack = new LinkedStack();
+        ArrayStack stack = new ArrayStack();
         stack.push(root);
         while (!stack.isEmpty()) {
             node = (ParentedBinaryTreeNode) stack.pop();
@@ -1862,30 +2586,30 @@ public class DiademMetric {
                 // Node is termination: determine if spur
                 // If node has been matched, don't count as spur
                 distance = node.getSwcData().getSecondaryData().getPathLength();
-                if (distance < threshold && !matches.containsKey(node)) {
+                if (distance < threshold && (nodeTable == null || !nodeTable.isMatched(node))) {
                     if (isWithinXYThreshold(xyCheck, node.getSwcData()))
                         System.out.println("Is Spur");
                     bothChildrenAreSpurs = false;
                     // Add to spurs list
-                    spurList.add(node);
+                    addSpur(node);
                     if (node.isRight()) {
                         // Node is right, left hasn't been checked yet
                         newNode = node.getParent().getParentedLeft();
                         // Check to see if sibling is also spur
                         if (!newNode.hasChildren() && newNode.getSwcData().getSecondaryData().getPathLength() < threshold
-                                && !matches.containsKey(node)) {
+                                && (nodeTable == null || !nodeTable.isMatched(node))) {
                             if (isWithinXYThreshold(xyCheck, newNode.getSwcData()))
                                 System.out.println("Is Spur: " + getPositionString(newNode));
                             bothChildrenAreSpurs = true;
                             // Remove left node from stack (and add to spurs list)
-                            spurList.add(newNode);
+                            addSpur(newNode);
                             stack.pop();
                         }
                     }
 
                     if (!bothChildrenAreSpurs) {
                         // Parent is not really a node now (is a continuation)
-                        spurList.add(node.getParent());
+                        addSpur(node.getParent());
                     }
                 }
             }
@@ -1893,12 +2617,86 @@ public class DiademMetric {
         return root;
     }
 
+    private void addSpur(ParentedBinaryTreeNode node) {
+        context.spurs.put(node, Boolean.TRUE);
+        context.spurCount++;
+    }
+
+    private EuclideanPoint getLeftTrajectoryPoint(SwcDataNode data) {
+        return getRunTrajectory(data.getSecondaryData().getLeftTrajectoryPoint());
+    }
+
+    private EuclideanPoint getRightTrajectoryPoint(SwcDataNode data) {
+        return getRunTrajectory(data.getSecondaryData().getRightTrajectoryPoint());
+    }
+
+    /**
+     * @param point trajectory point of a node
+     * @return point, or when scoring prepared gold and point is still to be resolved
+     * for a specific path, this run's copy of it
+     */
+    private EuclideanPoint getRunTrajectory(EuclideanPoint point) {
+        if (context.runTrajectories == null || point == null
+                || (point.getX() != ReadSWC.TRAJECTORY_NONE && point.getZ() != ReadSWC.TRAJECTORY_NONE)) {
+            return point;
+        }
+        EuclideanPoint copy = (EuclideanPoint) context.runTrajectories.get(point);
+        if (copy == null) {
+            copy = new EuclideanPoint(point.getX(), point.getY(), point.getZ());
+            context.runTrajectories.put(point, copy);
+        }
+        return copy;
+    }
+
+    /**
+     * Sets the parts of a stored trajectory that are still to be resolved.
+     * Path specific trajectories calculated so far may have used them, so are dropped.
+     *
+     * @param trajectory stored trajectory point
+     * @param pathTrajectory trajectory for a specific path from its node
+     */
+    private void resolveTrajectory(EuclideanPoint trajectory, EuclideanPoint pathTrajectory) {
+        if (trajectory.getX() == ReadSWC.TRAJECTORY_NONE) {
+            trajectory.setX(pathTrajectory.getX());
+            trajectory.setY(pathTrajectory.getY());
+        }
+        if (trajectory.getZ() == ReadSWC.TRAJECTORY_NONE) {
+            trajectory.setZ(pathTrajectory.getZ());
+        }
+        context.pathTrajectories.clear();
+    }
+
+    /**
+     * @param ancestorNode
+     * @param descendantNode
+     * @return new trajectory from ancestorNode for the path to descendantNode,
+     * walking the path only the first time it is asked for
+     */
     private EuclideanPoint getTrajectoryForPath(ParentedBinaryTreeNode ancestorNode, ParentedBinaryTreeNode descendantNode) {
-        LinkedStack pathStack = new LinkedStack();
+        Map descendants = (Map) context.pathTrajectories.get(ancestorNode);
+        EuclideanPoint trajectory = descendants == null ? null : (EuclideanPoint) descendants.get(descendantNode);
+        if (trajectory == null) {
+            trajectory = calculateTrajectoryForPath(ancestorNode, descendantNode);
+            if (trajectory == null) {
+                return null;
+            }
+            if (descendants == null) {
+                descendants = new IdentityHashMap();
+                context.pathTrajectories.put(ancestorNode, descendants);
+            }
+            descendants.put(descendantNode, trajectory);
+        }
+        // Callers may change the trajectory they are given
+        return new EuclideanPoint(trajectory.getX(), trajectory.getY(), trajectory.getZ());
+    }
+
+    private EuclideanPoint calculateTrajectoryForPath(ParentedBinaryTreeNode ancestorNode, ParentedBinaryTreeNode descendantNode) {
+        // May still hold the rest of the last path
+        context.pathStack.clear();
         SwcDataNode ancestorData = ancestorNode.getSwcData();
         // Load nodes along path into a stack, from descendant up to ancestor
         while (descendantNode != ancestorNode) {
-            pathStack.push(descendantNode);
+            context.pathStack.push(descendantNode);
             descendantNode = descendantNode.getParent();
             if (descendantNode == null) {
                 // This should not happen if descendantNode is a descendant of ancestorNode
@@ -1908,37 +2706,38 @@ public class DiademMetric {
 
         // Now we can start with the ancestor's immediate child and work down
         ParentedBinaryTreeNode nextDescendant;
-        SwcSecondaryData secData;
+        EuclideanPoint leftTrajectory, rightTrajectory;
         EuclideanPoint trajectory = new EuclideanPoint(), tmp;
 
         // Assumes original descendantNode != ancestorNode
-        descendantNode = (ParentedBinaryTreeNode) pathStack.pop();
+        descendantNode = (ParentedBinaryTreeNode) context.pathStack.pop();
         boolean doneX = false, doneZ = false;
 
-        while (!pathStack.isEmpty() && (!doneX || !doneZ)) {
-            secData = descendantNode.getSwcData().getSecondaryData();
+        while (!context.pathStack.isEmpty() && (!doneX || !doneZ)) {
+            leftTrajectory = getLeftTrajectoryPoint(descendantNode.getSwcData());
+            rightTrajectory = getRightTrajectoryPoint(descendantNode.getSwcData());
             // Pull off next node down too to check which child trajectory to use
-            nextDescendant = (ParentedBinaryTreeNode) pathStack.pop();
+            nextDescendant = (ParentedBinaryTreeNode) context.pathStack.pop();
 
             // First see if descendantNode has a trajectory to nextDescendant
             if (nextDescendant.isLeft()) {
-                if (!doneX && secData.getLeftTrajectoryPoint().getX() != ReadSWC.TRAJECTORY_NONE) {
-                    trajectory.setX(secData.getLeftTrajectoryPoint().getX());
-                    trajectory.setY(secData.getLeftTrajectoryPoint().getY());
+                if (!doneX && leftTrajectory.getX() != ReadSWC.TRAJECTORY_NONE) {
+                    trajectory.setX(leftTrajectory.getX());
+                    trajectory.setY(leftTrajectory.getY());
                     doneX = true;
                 }
-                if (!doneZ && secData.getLeftTrajectoryPoint().getZ() != ReadSWC.TRAJECTORY_NONE) {
-                    trajectory.setZ(secData.getLeftTrajectoryPoint().getZ());
+                if (!doneZ && leftTrajectory.getZ() != ReadSWC.TRAJECTORY_NONE) {
+                    trajectory.setZ(leftTrajectory.getZ());
                     doneZ = true;
                 }
-            } else if (nextDescendant.isRight() && secData.getRightTrajectoryPoint() != null) {
-                if (!doneX && secData.getRightTrajectoryPoint().getX() != ReadSWC.TRAJECTORY_NONE) {
-                    trajectory.setX(secData.getRightTrajectoryPoint().getX());
-                    trajectory.setY(secData.getRightTrajectoryPoint().getY());
+            } else if (nextDescendant.isRight() && rightTrajectory != null) {
+                if (!doneX && rightTrajectory.getX() != ReadSWC.TRAJECTORY_NONE) {
+                    trajectory.setX(rightTrajectory.getX());
+                    trajectory.setY(rightTrajectory.getY());
                     doneX = true;
                 }
-                if (!doneZ && secData.getRightTrajectoryPoint().getZ() != ReadSWC.TRAJECTORY_NONE) {
-                    trajectory.setZ(secData.getRightTrajectoryPoint().getZ());
+                if (!doneZ && rightTrajectory.getZ() != ReadSWC.TRAJECTORY_NONE) {
+                    trajectory.setZ(rightTrajectory.getZ());
                     doneZ = true;
                 }
             }
@@ -1984,6 +2783,24 @@ public class DiademMetric {
         return goldDist - testDist;
     }
 
+    private double getEndNodeXYDistanceDifference(NeuronArrays gold, int goldPosition, NeuronArrays test, int testPosition,
+                                                  double trajectoryX, double trajectoryY) {
+        double xDist = gold.getX(goldPosition) - trajectoryX;
+        double yDist = gold.getY(goldPosition) - trajectoryY;
+        double goldDist = Math.sqrt(xDist * xDist + yDist * yDist);
+        xDist = test.getX(testPosition) - trajectoryX;
+        yDist = test.getY(testPosition) - trajectoryY;
+        double testDist = Math.sqrt(xDist * xDist + yDist * yDist);
+        return goldDist - testDist;
+    }
+
+    private double getEndNodeZDistanceDifference(NeuronArrays gold, int goldPosition, NeuronArrays test, int testPosition,
+                                                 double trajectoryZ) {
+        double goldDist = Math.abs(gold.getZ(goldPosition) - trajectoryZ);
+        double testDist = Math.abs(test.getZ(testPosition) - trajectoryZ);
+        return goldDist - testDist;
+    }
+
     private double getDistance(BinaryTreeNode node1, BinaryTreeNode node2) {
         return SwcDataUtils.getDistance(node1.getSwcData(), node2.getSwcData());
     }
@@ -2048,18 +2865,27 @@ public class DiademMetric {
 
         opt = new FlaggedOption(PARAM_TEST_DATA)
                 .setStringParser(JSAP.STRING_PARSER)
-                .setRequired(true)
+                .setRequired(false)
                 .setShortFlag('T')
                 .setLongFlag(PARAM_TEST_DATA);
         jsap.registerParameter(opt);
 
         opt = new FlaggedOption(PARAM_GOLD_STANDARD_DATA)
                 .setStringParser(JSAP.STRING_PARSER)
-                .setRequired(true)
+                .setRequired(false)
                 .setShortFlag('G')
                 .setLongFlag(PARAM_GOLD_STANDARD_DATA);
         jsap.registerParameter(opt);
 
+        opt = new FlaggedOption(PARAM_MANIFEST)
+                .setStringParser(JSAP.STRING_PARSER)
+                .setRequired(false)
+                .setShortFlag(JSAP.NO_SHORTFLAG)
+                .setLongFlag(PARAM_MANIFEST);
+        opt.setHelp("CSV file listing a gold standard file and a test file on each line, scored instead of "
+                + PARAM_GOLD_STANDARD_DATA + " and " + PARAM_TEST_DATA);
+        jsap.registerParameter(opt);
+
         opt = new FlaggedOption(PARAM_DATASET)
                 .setStringParser(JSAP.INTEGER_PARSER)
                 .setRequired(true)
@@ -2080,6 +2906,69 @@ public class DiademMetric {
                 .setLongFlag(PARAM_MISSES);
         jsap.registerParameter(opt);
 
+        opt = new FlaggedOption(PARAM_THREADS)
+                .setStringParser(JSAP.INTEGER_PARSER)
+                .setRequired(false)
+                .setDefault("" + Runtime.getRuntime().availableProcessors())
+                .setShortFlag(JSAP.NO_SHORTFLAG)
+                .setLongFlag(PARAM_THREADS);
+        opt.setHelp("Number of file pairs scored at once when scoring directories");
+        jsap.registerParameter(opt);
+
+        opt = new FlaggedOption(PARAM_CONTINUATION_THREADS)
+                .setStringParser(JSAP.INTEGER_PARSER)
+                .setRequired(false)
+                .setDefault("0")
+                .setShortFlag(JSAP.NO_SHORTFLAG)
+                .setLongFlag(PARAM_CONTINUATION_THREADS);
+        opt.setHelp("Number of threads checking the missed bifurcations of a pair for continuations "
+                + "(0 for as many as there are processors when pairs are scored one at a time, otherwise none)");
+        jsap.registerParameter(opt);
+
+        opt = new FlaggedOption(PARAM_SWC_CACHE)
+                .setStringParser(JSAP.STRING_PARSER)
+                .setRequired(false)
+                .setShortFlag(JSAP.NO_SHORTFLAG)
+                .setLongFlag(PARAM_SWC_CACHE);
+        opt.setHelp("Directory keeping binary copies of the SWC files read, so they are parsed only once");
+        jsap.registerParameter(opt);
+
+        opt = new FlaggedOption(PARAM_GOLD_CACHE_NODES)
+                .setStringParser(JSAP.INTEGER_PARSER)
+                .setRequired(false)
+                .setDefault("0")
+                .setShortFlag(JSAP.NO_SHORTFLAG)
+                .setLongFlag(PARAM_GOLD_CACHE_NODES);
+        opt.setHelp("Total nodes of the gold standards kept prepared, so a gold standard listed for "
+                + "several test files is read once (0 to read it for each pair)");
+        jsap.registerParameter(opt);
+
+        opt = new FlaggedOption(PARAM_RESULTS)
+                .setStringParser(JSAP.STRING_PARSER)
+                .setRequired(false)
+                .setShortFlag(JSAP.NO_SHORTFLAG)
+                .setLongFlag(PARAM_RESULTS);
+        opt.setHelp("File the scores of each pair, and their total, are appended to");
+        jsap.registerParameter(opt);
+
+        opt = new FlaggedOption(PARAM_METRICS)
+                .setStringParser(JSAP.BOOLEAN_PARSER)
+                .setRequired(false)
+                .setDefault("false")
+                .setShortFlag(JSAP.NO_SHORTFLAG)
+                .setLongFlag(PARAM_METRICS);
+        opt.setHelp("Whether to record the time spent in each phase of scoring, and counts of the work done");
+        jsap.registerParameter(opt);
+
+        opt = new FlaggedOption(PARAM_RESULTS_FORMAT)
+                .setStringParser(JSAP.STRING_PARSER)
+                .setRequired(false)
+                .setDefault("csv")
+                .setShortFlag(JSAP.NO_SHORTFLAG)
+                .setLongFlag(PARAM_RESULTS_FORMAT);
+        opt.setHelp("Format of the results file: csv or jsonl");
+        jsap.registerParameter(opt);
+
         if (testEnvironment) {
             opt = new FlaggedOption(PARAM_WEIGHTED)
                     .setStringParser(JSAP.BOOLEAN_PARSER)
@@ -2179,6 +3068,11 @@ public class DiademMetric {
         }
 
         JSAPResult config = jsap.parse(args);
+        if (config.success() && config.getString(PARAM_MANIFEST) == null
+                && (config.getString(PARAM_TEST_DATA) == null || config.getString(PARAM_GOLD_STANDARD_DATA) == null)) {
+            config.addException(PARAM_MANIFEST, new Exception("Either " + PARAM_MANIFEST + " or both "
+                    + PARAM_GOLD_STANDARD_DATA + " and " + PARAM_TEST_DATA + " are required"));
+        }
         if (!config.success()) {
             for (java.util.Iterator errs = config.getErrorMessageIterator(); errs.hasNext(); ) {
                 System.err.println("Error: " + errs.next());
@@ -2196,56 +3090,85 @@ public class DiademMetric {
     }
 
     public static void main(String args[]) {
+        ResultSink resultSink = null;
         try {
-            String gtdirname = "F:\\u\\data_newmetric\\diadem_dataset\\diadem_gt";
-            String predirname = "F:\\u\\data_newmetric\\diadem_dataset\\diadem_app2";
-            File f1 = new File(gtdirname);
-            if (f1.isDirectory()) {
-                System.out.println("目录 " + gtdirname);
-                String s[] = f1.list();
-                for (int i = 0; i < s.length; i++) {
-                    File f = new File(gtdirname + "/" + s[i]);
-                    System.out.println(f);
-                    File ff = new File(predirname + "/" + s[i]);
-//					System.out.println(ff);
-                    String goldSwcFilename = f.toString();
-                    String testSwcFilename = ff.toString();
-
-                    int dataset = 1;
-                    File testSwcFile = new File(testSwcFilename);
-                    File goldSwcFile = new File(goldSwcFilename);
-
-                    // Validate parameters
-                    validate(goldSwcFilename, testSwcFilename, dataset);
-
-                    // Create DiademMetric object and assign any relevant parameters
-                    DiademMetric metric = new DiademMetric(testSwcFile, goldSwcFile, dataset);
-                    metric.setListMisses(false);
-
-                    // 存文件名
-                    File result_file = null;
-                    FileWriter fw = null;
-                    result_file = new File("F:\\u\\result\\metric12\\diadem\\dataset\\dataset_5_result.txt");
-                    if (!result_file.exists()) {
-                        result_file.createNewFile();
-                    }
-                    BufferedWriter output = new BufferedWriter(new FileWriter(result_file, true));
-                    output.write(testSwcFilename + ":\n");
-                    output.flush();
-                    output.close();
+            JSAPResult config = readParameters(args);
+            int dataset = config.getInt(PARAM_DATASET);
+            DiademMetric metric;
+            if (config.getString(PARAM_MANIFEST) != null) {
+                File manifest = new File(config.getString(PARAM_MANIFEST));
+                if (!manifest.isFile()) {
+                    System.out.println("Manifest " + manifest + " does not exist");
+                    System.exit(1);
+                }
+                metric = new DiademMetric(manifest, manifest, dataset);
+                metric.setManifest(manifest);
+            } else {
+                String testSwcFilename = config.getString(PARAM_TEST_DATA);
+                String goldSwcFilename = config.getString(PARAM_GOLD_STANDARD_DATA);
 
-                    // Run the metric
-                    metric.scoreReconstruction();
+                // Validate parameters
+                validate(goldSwcFilename, testSwcFilename, dataset);
 
-                }
+                // Create DiademMetric object and assign any relevant parameters
+                metric = new DiademMetric(new File(testSwcFilename), new File(goldSwcFilename), dataset);
             }
-//
+            metric.setListMisses(config.getBoolean(PARAM_MISSES));
+            metric.setThreads(config.getInt(PARAM_THREADS));
+            metric.setContinuationThreads(config.getInt(PARAM_CONTINUATION_THREADS));
+            metric.setCollectMetrics(config.getBoolean(PARAM_METRICS));
+            metric.setGoldCacheNodes(config.getInt(PARAM_GOLD_CACHE_NODES));
+            if (config.getString(PARAM_SWC_CACHE) != null) {
+                metric.setSwcCache(new SwcBinaryCache(new File(config.getString(PARAM_SWC_CACHE))));
+            }
+            if (testEnvironment) {
+                metric.setWeighted(config.getBoolean(PARAM_WEIGHTED));
+                metric.setXYThreshold(config.getDouble(PARAM_XY_THRESHOLD));
+                metric.setZThreshold(config.getDouble(PARAM_Z_THRESHOLD));
+                metric.setXYPathErrorThreshold(config.getDouble(PARAM_XY_PATH_THRESHOLD));
+                metric.setZPathErrorThreshold(config.getDouble(PARAM_Z_PATH_THRESHOLD));
+                metric.setListContinuations(config.getBoolean(PARAM_CONTINUATIONS));
+                metric.setListDistantMatches(config.getBoolean(PARAM_DISTANT_MATCHES));
+                metric.setZPath(config.getBoolean(PARAM_Z_PATH));
+                metric.setRemoveSpurs(config.getDouble(PARAM_REMOVE_SPURS));
+                metric.setDebug(config.getBoolean("debug"));
+            }
+            if (config.getString(PARAM_RESULTS) != null) {
+                resultSink = createResultSink(new File(config.getString(PARAM_RESULTS)), config.getString(PARAM_RESULTS_FORMAT));
+                metric.setResultSink(resultSink);
+            }
+
+            // Run the metric
+            metric.scoreReconstruction();
         } catch (DataFormatException e) {
             System.out.println("Failure due to: " + e.getMessage());
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            if (resultSink != null) {
+                try {
+                    resultSink.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param file
+     * @param format csv or jsonl
+     * @return sink appending results to file in the given format
+     */
+    private static ResultSink createResultSink(File file, String format) throws IOException {
+        if ("csv".equalsIgnoreCase(format)) {
+            return new CsvResultSink(file);
+        } else if ("jsonl".equalsIgnoreCase(format)) {
+            return new JsonLinesResultSink(file);
         }
+        throw new IllegalArgumentException("Unknown results format " + format + ", expected csv or jsonl");
     }
+
 //为了适应1741
 //    public static void main(String args[]) {
 //        try {
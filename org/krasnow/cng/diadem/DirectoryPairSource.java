@@ -0,0 +1,153 @@
+package org.krasnow.cng.diadem;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Pairs the SWC files under a gold standard directory with the files at the
+ * same relative paths under a test directory, at any depth.
+ * The directories are walked on their own thread, which waits once capacity
+ * pairs are found but not yet taken. Gold standard files without a test file
+ * come in walk order with the matched pairs; test files without a gold standard
+ * file come after them.
+ * Two plain files are a single pair.
+ * Pairs are taken by one thread at a time.
+ */
+public class DirectoryPairSource implements PairSource {
+
+    public final static int DEFAULT_CAPACITY = 1024;
+
+    // Put after the last pair
+    private final static FilePair END = new FilePair(null, null);
+    private final static Set FOLLOW_LINKS = EnumSet.of(FileVisitOption.FOLLOW_LINKS);
+
+    private File goldRoot;
+    private File testRoot;
+    private BlockingQueue queue;
+    private volatile Thread walker;
+    // Failure of the walk, thrown once the pairs found before it are taken
+    private volatile Exception failure;
+    private volatile boolean done;
+
+    /**
+     * @param goldRoot
+     * @param testRoot
+     */
+    public DirectoryPairSource(File goldRoot, File testRoot) {
+        this(goldRoot, testRoot, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param goldRoot
+     * @param testRoot
+     * @param capacity largest number of pairs found ahead of those taken
+     */
+    public DirectoryPairSource(File goldRoot, File testRoot, int capacity) {
+        this.goldRoot = goldRoot;
+        this.testRoot = testRoot;
+        queue = new ArrayBlockingQueue(Math.max(1, capacity));
+    }
+
+    public FilePair next() throws Exception {
+        if (done) {
+            return null;
+        }
+        if (!goldRoot.isDirectory()) {
+            // For case in which the files are swc files rather than directories
+            done = true;
+            return new FilePair(goldRoot, testRoot);
+        }
+        if (walker == null) {
+            walker = new Thread(new Runnable() {
+                public void run() {
+                    walk();
+                }
+            }, "Pair discovery " + goldRoot);
+            walker.setDaemon(true);
+            walker.start();
+        }
+        FilePair pair = (FilePair) queue.take();
+        if (pair == END) {
+            done = true;
+            if (failure != null) {
+                throw failure;
+            }
+            return null;
+        }
+        return pair;
+    }
+
+    public void close() {
+        done = true;
+        Thread thread = walker;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        queue.clear();
+    }
+
+    private void walk() {
+        try {
+            final Path gold = goldRoot.toPath(), test = testRoot.toPath();
+            // Gold standard files, with their test files where there are any
+            Files.walkFileTree(gold, FOLLOW_LINKS, Integer.MAX_VALUE, new SwcVisitor() {
+                void visitSwc(Path file) throws InterruptedException {
+                    File testFile = test.resolve(gold.relativize(file)).toFile();
+                    queue.put(new FilePair(file.toFile(), testFile.isFile() ? testFile : null));
+                }
+            });
+            // Test files without gold standard files
+            if (testRoot.isDirectory()) {
+                Files.walkFileTree(test, FOLLOW_LINKS, Integer.MAX_VALUE, new SwcVisitor() {
+                    void visitSwc(Path file) throws InterruptedException {
+                        if (!gold.resolve(test.relativize(file)).toFile().isFile()) {
+                            queue.put(new FilePair(null, file.toFile()));
+                        }
+                    }
+                });
+            }
+        } catch (InterruptedIOException e) {
+            // Closed
+            return;
+        } catch (Exception e) {
+            failure = e;
+        }
+        try {
+            queue.put(END);
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * Visits the SWC files in a directory tree, in the order the file system lists them
+     */
+    private abstract static class SwcVisitor extends SimpleFileVisitor {
+
+        abstract void visitSwc(Path file) throws InterruptedException;
+
+        public FileVisitResult visitFile(Object file, BasicFileAttributes attrs) throws IOException {
+            String filename = ((Path) file).getFileName().toString();
+            if (attrs.isRegularFile() && (filename.endsWith(".swc") || filename.endsWith(".SWC"))) {
+                try {
+                    visitSwc((Path) file);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+            return FileVisitResult.CONTINUE;
+        }
+    }
+
+}
@@ -0,0 +1,35 @@
+package org.krasnow.cng.diadem;
+
+import java.io.File;
+
+/**
+ * A gold standard file and the test file scored against it. One of the files
+ * is null when no match for the other was found.
+ */
+public class FilePair {
+
+    private File goldFile;
+    private File testFile;
+
+    public FilePair(File goldFile, File testFile) {
+        this.goldFile = goldFile;
+        this.testFile = testFile;
+    }
+
+    public File getGoldFile() {
+        return goldFile;
+    }
+
+    public File getTestFile() {
+        return testFile;
+    }
+
+    public boolean isMatched() {
+        return goldFile != null && testFile != null;
+    }
+
+    public String toString() {
+        return goldFile + " " + testFile;
+    }
+
+}
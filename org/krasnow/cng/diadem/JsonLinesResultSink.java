@@ -0,0 +1,82 @@
+package org.krasnow.cng.diadem;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes each result as a JSON object on its own line, with its run metrics
+ * as a nested object if they were collected
+ */
+public class JsonLinesResultSink extends BufferedResultSink {
+
+    public JsonLinesResultSink(Writer out) {
+        super(out);
+    }
+
+    public JsonLinesResultSink(File file) throws IOException {
+        super(file);
+    }
+
+    protected void format(ScoreResult result, StringBuffer buffer) {
+        buffer.append("{\"gold\":");
+        appendString(result.getGoldFile(), buffer);
+        buffer.append(",\"test\":");
+        appendString(result.getTestFile(), buffer);
+        buffer.append(",\"dataset\":").append(result.getDataset())
+                .append(",\"pairs\":").append(result.getPairs())
+                .append(",\"goldNodes\":").append(result.getGoldNodes());
+        buffer.append(",\"score\":");
+        appendNumber(result.getFinalScore(), buffer);
+        buffer.append(",\"qualityScore\":");
+        appendNumber(result.getQualityScore(), buffer);
+        buffer.append(",\"directMatchScore\":");
+        appendNumber(result.getDirectMatchScore(), buffer);
+        long[] metrics = result.getMetrics();
+        if (metrics != null) {
+            String[] names = RunMetrics.getNames();
+            buffer.append(",\"metrics\":{");
+            for (int i = 0; i < names.length; i++) {
+                if (i > 0) {
+                    buffer.append(',');
+                }
+                buffer.append('"').append(names[i]).append("\":").append(metrics[i]);
+            }
+            buffer.append('}');
+        }
+        buffer.append("}\n");
+    }
+
+    private static void appendString(String value, StringBuffer buffer) {
+        buffer.append('"');
+        char c;
+        for (int i = 0; i < value.length(); i++) {
+            c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                buffer.append('\\').append(c);
+            } else if (c < ' ') {
+                String hex = Integer.toHexString(c);
+                buffer.append("\\u");
+                for (int j = hex.length(); j < 4; j++) {
+                    buffer.append('0');
+                }
+                buffer.append(hex);
+            } else {
+                buffer.append(c);
+            }
+        }
+        buffer.append('"');
+    }
+
+    /**
+     * Appends value, or null where JSON has no number for it
+     */
+    private static void appendNumber(double value, StringBuffer buffer) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            buffer.append("null");
+        } else {
+            buffer.append(value);
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+package org.krasnow.cng.diadem;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+
+/**
+ * Reads the pairs to score from a CSV manifest, one line at a time.
+ * Each line holds a gold standard file and a test file; fields holding commas
+ * are quoted. Relative paths are taken from the manifest's directory.
+ * Blank lines and lines starting with # are skipped, and a first remaining
+ * line of "gold,test" is a header. Listed files that don't exist are supplied as unmatched.
+ */
+public class ManifestPairSource implements PairSource {
+
+    private File manifest;
+    private File directory;
+    private BufferedReader reader;
+    private int lineNumber;
+    // Whether a line other than a blank line or comment has been read
+    private boolean started;
+    // Test file of a line whose gold standard file doesn't exist either, supplied next
+    private FilePair pending;
+
+    /**
+     * @param manifest
+     */
+    public ManifestPairSource(File manifest) throws IOException {
+        this.manifest = manifest;
+        directory = manifest.getAbsoluteFile().getParentFile();
+        reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), "UTF-8"));
+    }
+
+    public FilePair next() throws Exception {
+        if (pending != null) {
+            FilePair pair = pending;
+            pending = null;
+            return pair;
+        }
+        if (reader == null) {
+            return null;
+        }
+        String line;
+        List fields;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().length() == 0 || line.trim().startsWith("#")) {
+                continue;
+            }
+            fields = parseLine(line);
+            if (!started) {
+                started = true;
+                if ("gold".equalsIgnoreCase((String) fields.get(0))) {
+                    continue;
+                }
+            }
+            if (fields.size() != 2) {
+                throw new DataFormatException("Line " + lineNumber + " of " + manifest
+                        + " does not have a gold standard file and a test file");
+            }
+            File goldFile = resolve((String) fields.get(0)), testFile = resolve((String) fields.get(1));
+            if (!goldFile.isFile()) {
+                if (testFile.isFile()) {
+                    return new FilePair(null, testFile);
+                }
+                pending = new FilePair(null, testFile);
+                return new FilePair(goldFile, null);
+            }
+            return new FilePair(goldFile, testFile.isFile() ? testFile : null);
+        }
+        close();
+        return null;
+    }
+
+    public void close() {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // Nothing more is read
+            }
+            reader = null;
+        }
+    }
+
+    private File resolve(String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(directory, path);
+    }
+
+    /**
+     * @return the trimmed fields of a CSV line, quotes removed
+     */
+    private static List parseLine(String line) {
+        List fields = new ArrayList();
+        StringBuffer field = new StringBuffer();
+        boolean quoted = false;
+        char c;
+        for (int i = 0; i < line.length(); i++) {
+            c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append(c);
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().trim());
+        return fields;
+    }
+
+}
@@ -0,0 +1,34 @@
+package org.krasnow.cng.diadem;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps results in memory, in the order they were written
+ */
+public class MemoryResultSink implements ResultSink {
+
+    private List results = new ArrayList();
+
+    public synchronized void write(ScoreResult result) {
+        results.add(result);
+    }
+
+    public void flush() {
+    }
+
+    public void close() {
+    }
+
+    /**
+     * @return copy of the results written so far
+     */
+    public synchronized List getResults() {
+        return new ArrayList(results);
+    }
+
+    public synchronized void clear() {
+        results.clear();
+    }
+
+}
@@ -0,0 +1,234 @@
+package org.krasnow.cng.diadem;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.krasnow.cng.domain.BinaryTreeNode;
+import org.krasnow.cng.domain.GridSpatialIndex;
+import org.krasnow.cng.domain.LinearSpatialIndex;
+import org.krasnow.cng.domain.NeuronArrays;
+import org.krasnow.cng.domain.ParentedBinaryTreeNode;
+import org.krasnow.cng.domain.SpatialIndex;
+import org.krasnow.cng.domain.SwcDataNode;
+
+/**
+ * Nodes of one reconstruction in traversal order, with a spatial index over
+ * their positions for candidate match lookup, and the match (if any) of each
+ * node in the partner table (the other reconstruction).
+ * Nodes are numbered by their position, which is stored in the node's index,
+ * and the same positions are used in the table's NeuronArrays.
+ * The root joining the trees comes after all other nodes and is never returned
+ * by queries.
+ * A snapshot of a table reads its matches without changing them, recording
+ * the positions whose matches were read.
+ */
+class NodeTable {
+
+    private List nodeList;
+    private ParentedBinaryTreeNode root;
+    private NeuronArrays arrays;
+    private SpatialIndex index;
+    // Position of each node's match in partnerTable, -1 if unmatched
+    private int[] partners;
+    private NodeTable partnerTable;
+    // Positions whose matches were read, null unless this is a snapshot
+    private int[] reads;
+    private int readCount;
+
+    /**
+     * @param nodeList     ParentedBinaryTreeNodes in traversal order
+     * @param root         parent given to the root of each tree in nodeList
+     * @param indexType    DiademMetric.SPATIAL_INDEX_LINEAR or DiademMetric.SPATIAL_INDEX_GRID
+     * @param xyCellSize   expected XY query radius
+     * @param zCellSize    expected Z query radius
+     */
+    NodeTable(List nodeList, ParentedBinaryTreeNode root, int indexType, double xyCellSize, double zCellSize) {
+        this.nodeList = nodeList;
+        this.root = root;
+        int size = nodeList.size();
+        arrays = new NeuronArrays(nodeList, root);
+        double[] x = new double[size];
+        double[] y = new double[size];
+        double[] z = new double[size];
+        for (int i = 0; i < size; i++) {
+            x[i] = arrays.getX(i);
+            y[i] = arrays.getY(i);
+            z[i] = arrays.getZ(i);
+        }
+        if (indexType == DiademMetric.SPATIAL_INDEX_GRID) {
+            index = new GridSpatialIndex(x, y, z, xyCellSize, zCellSize);
+        } else {
+            index = new LinearSpatialIndex(x, y, z);
+        }
+        partners = new int[size + 1];
+        Arrays.fill(partners, -1);
+    }
+
+    /**
+     * Shares nodes and index with table, with no partner table
+     *
+     * @param table
+     * @param partners matches of the new table
+     */
+    private NodeTable(NodeTable table, int[] partners) {
+        nodeList = table.nodeList;
+        root = table.root;
+        arrays = table.arrays;
+        index = table.index;
+        this.partners = partners;
+    }
+
+    /**
+     * @return table sharing nodes and index with this table, but with no matches
+     * or partner table, so this table itself is never changed
+     */
+    NodeTable createRunTable() {
+        int[] partners = new int[size() + 1];
+        Arrays.fill(partners, -1);
+        return new NodeTable(this, partners);
+    }
+
+    /**
+     * @return table sharing nodes, index and matches with this table, that can't change matches
+     * and records the positions whose matches it reads. Its partner table is to be set.
+     */
+    NodeTable createSnapshot() {
+        NodeTable table = new NodeTable(this, partners);
+        table.reads = new int[16];
+        return table;
+    }
+
+    boolean isSnapshot() {
+        return reads != null;
+    }
+
+    /**
+     * @return positions whose matches were read since the last call, in the order read
+     */
+    int[] takeReads() {
+        int[] positions = new int[readCount];
+        System.arraycopy(reads, 0, positions, 0, readCount);
+        readCount = 0;
+        return positions;
+    }
+
+    private void recordRead(int position) {
+        if (readCount == reads.length) {
+            int[] newReads = new int[reads.length * 2];
+            System.arraycopy(reads, 0, newReads, 0, readCount);
+            reads = newReads;
+        }
+        reads[readCount++] = position;
+    }
+
+    int size() {
+        return nodeList.size();
+    }
+
+    ParentedBinaryTreeNode getNode(int position) {
+        if (position == nodeList.size()) {
+            return root;
+        }
+        return (ParentedBinaryTreeNode) nodeList.get(position);
+    }
+
+    /**
+     * @return parent given to the root of each tree
+     */
+    ParentedBinaryTreeNode getRoot() {
+        return root;
+    }
+
+    /**
+     * @return the nodes in arrays, as they were when the table was created
+     */
+    NeuronArrays getArrays() {
+        return arrays;
+    }
+
+    NodeTable getPartnerTable() {
+        return partnerTable;
+    }
+
+    void setPartnerTable(NodeTable partnerTable) {
+        this.partnerTable = partnerTable;
+    }
+
+    /**
+     * @param node
+     * @return position of node, or -1 if it is not in this table
+     */
+    private int positionOf(ParentedBinaryTreeNode node) {
+        int position = node.getIndex();
+        if (position < 0 || position > nodeList.size() || getNode(position) != node) {
+            return -1;
+        }
+        return position;
+    }
+
+    /**
+     * @param node
+     * @return whether node has been matched (or used) by a node of the partner table
+     */
+    boolean isMatched(ParentedBinaryTreeNode node) {
+        int position = positionOf(node);
+        if (reads != null && position != -1) {
+            recordRead(position);
+        }
+        return position != -1 && partners[position] != -1;
+    }
+
+    /**
+     * @param node
+     * @return node's match in the partner table, null if unmatched
+     */
+    ParentedBinaryTreeNode getMatch(ParentedBinaryTreeNode node) {
+        int position = positionOf(node);
+        if (reads != null && position != -1) {
+            recordRead(position);
+        }
+        if (position == -1 || partners[position] == -1) {
+            return null;
+        }
+        return partnerTable.getNode(partners[position]);
+    }
+
+    /**
+     * Records match (a node of the partner table) as the match of node.
+     * The partner table is not updated.
+     *
+     * @param node
+     * @param match
+     */
+    void setMatch(ParentedBinaryTreeNode node, ParentedBinaryTreeNode match) {
+        if (reads != null) {
+            throw new IllegalStateException("Matches can't be changed through a snapshot");
+        }
+        partners[node.getIndex()] = match.getIndex();
+    }
+
+    /**
+     * @param node
+     * @param xyRadius
+     * @param zRadius
+     * @return positions of nodes within the radii of node, in traversal order
+     */
+    int[] findWithin(BinaryTreeNode node, double xyRadius, double zRadius) {
+        SwcDataNode data = node.getSwcData();
+        return index.findWithin(data.getX(), data.getY(), data.getZ(),
+                xyRadius, zRadius);
+    }
+
+    /**
+     * @param nodeArrays arrays of this or the partner table
+     * @param position   position in nodeArrays
+     * @param xyRadius
+     * @param zRadius
+     * @return positions of nodes within the radii of the node at position, in traversal order
+     */
+    int[] findWithin(NeuronArrays nodeArrays, int position, double xyRadius, double zRadius) {
+        return index.findWithin(nodeArrays.getX(position), nodeArrays.getY(position), nodeArrays.getZ(position),
+                xyRadius, zRadius);
+    }
+
+}
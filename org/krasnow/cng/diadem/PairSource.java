@@ -0,0 +1,20 @@
+package org.krasnow.cng.diadem;
+
+/**
+ * Supplies the file pairs to score one at a time, so that the pairs of a
+ * large corpus never have to be held at once.
+ * Files without a match are supplied too, as pairs missing one file.
+ */
+public interface PairSource {
+
+    /**
+     * @return the next pair, null when there are none left
+     */
+    FilePair next() throws Exception;
+
+    /**
+     * Stops finding pairs, releasing anything held
+     */
+    void close();
+
+}
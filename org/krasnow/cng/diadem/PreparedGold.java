@@ -0,0 +1,86 @@
+package org.krasnow.cng.diadem;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+
+import org.krasnow.cng.domain.SwcTreeNode;
+
+/**
+ * A gold standard reconstruction read and made ready for scoring: its trees
+ * with trajectories, spurs removed, node weights and node table (including the
+ * spatial index). Built by DiademMetric.prepareGold and then never changed,
+ * so it can be scored against any number of test reconstructions, at the
+ * same time from different threads. Trajectories that depend on the test
+ * reconstruction are resolved separately by each run.
+ */
+public final class PreparedGold {
+
+    private final File goldFile;
+    private final String parameters;
+    private final SwcTreeNode goldRoot;
+    private final NodeTable goldNodeTable;
+    private final Map spurs;
+    private final int spurCount;
+    // Weight of each node by its position in the node table
+    private final int[] weights;
+
+    PreparedGold(File goldFile, String parameters, SwcTreeNode goldRoot,
+                 NodeTable goldNodeTable, Map spurs, int spurCount, int[] weights) {
+        this.goldFile = goldFile;
+        this.parameters = parameters;
+        this.goldRoot = goldRoot;
+        this.goldNodeTable = goldNodeTable;
+        this.spurs = Collections.unmodifiableMap(spurs);
+        this.spurCount = spurCount;
+        this.weights = weights;
+    }
+
+    public File getGoldFile() {
+        return goldFile;
+    }
+
+    /**
+     * @return number of gold standard nodes, a measure of the memory held
+     */
+    public int size() {
+        return goldNodeTable.size();
+    }
+
+    /**
+     * @return DiademMetric parameters the gold standard was prepared with
+     */
+    String getParameters() {
+        return parameters;
+    }
+
+    SwcTreeNode getGoldRoot() {
+        return goldRoot;
+    }
+
+    /**
+     * @return a node table of the gold standard for one run, with no matches
+     */
+    NodeTable createRunTable() {
+        return goldNodeTable.createRunTable();
+    }
+
+    /**
+     * @return spurs as keys, compared by identity
+     */
+    Map getSpurs() {
+        return spurs;
+    }
+
+    int getSpurCount() {
+        return spurCount;
+    }
+
+    /**
+     * @return weight of each node by its position, not to be changed
+     */
+    int[] getWeights() {
+        return weights;
+    }
+
+}
@@ -0,0 +1,137 @@
+package org.krasnow.cng.diadem;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Keeps prepared gold standards so that scoring many test reconstructions
+ * against the same gold standard reads and prepares it only once.
+ * Gold standards are kept by file (changed files are prepared again) and by
+ * the parameters they were prepared with. Once the total number of nodes held
+ * is over the limit, the least recently used gold standards are dropped.
+ * Safe to share between threads; a gold standard requested by several threads
+ * at once is prepared by one of them while the others wait for it.
+ */
+public class PreparedGoldCache {
+
+    private int maxNodes;
+    private int nodes;
+    // Gold standards prepared, rather than found already prepared
+    private int prepared;
+    // Key -> Entry, least recently used first
+    private LinkedHashMap entries = new LinkedHashMap(16, 0.75f, true);
+
+    /**
+     * @param maxNodes total number of gold standard nodes kept; the most recently used
+     *                 gold standard is kept even if it is larger
+     */
+    public PreparedGoldCache(int maxNodes) {
+        this.maxNodes = maxNodes;
+    }
+
+    /**
+     * @param settings metric whose parameters the gold standard is prepared with
+     * @param goldFile
+     * @return the prepared gold standard
+     * @throws Exception the failure to read or prepare the gold standard
+     */
+    public PreparedGold get(final DiademMetric settings, final File goldFile) throws Exception {
+        File file = goldFile.getAbsoluteFile();
+        String key = file.getPath() + "|" + file.lastModified() + "|" + file.length()
+                + "|" + settings.getGoldParameters();
+        Entry entry;
+        boolean owner = false;
+        synchronized (this) {
+            entry = (Entry) entries.get(key);
+            if (entry == null) {
+                entry = new Entry(new FutureTask(new Callable() {
+                    public Object call() throws Exception {
+                        return settings.prepareGold(goldFile);
+                    }
+                }));
+                entries.put(key, entry);
+                prepared++;
+                owner = true;
+            }
+        }
+
+        if (owner) {
+            entry.task.run();
+        }
+        try {
+            PreparedGold gold = (PreparedGold) entry.task.get();
+            if (owner) {
+                added(key, entry, gold.size());
+            }
+            return gold;
+        } catch (ExecutionException e) {
+            if (owner) {
+                // Don't keep failures, the file may be fixed
+                synchronized (this) {
+                    if (entries.get(key) == entry) {
+                        entries.remove(key);
+                    }
+                }
+            }
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public synchronized int getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return number of gold standards prepared (including any that failed), rather than found prepared
+     */
+    public synchronized int getPrepared() {
+        return prepared;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        nodes = 0;
+    }
+
+    /**
+     * Counts a newly prepared gold standard, dropping others to stay within the limit
+     */
+    private synchronized void added(Object key, Entry entry, int size) {
+        if (entries.get(key) != entry) {
+            // Cleared while being prepared
+            return;
+        }
+        entry.size = size;
+        nodes += size;
+        Map.Entry mapEntry;
+        Entry old;
+        for (Iterator it = entries.entrySet().iterator(); it.hasNext() && nodes > maxNodes; ) {
+            mapEntry = (Map.Entry) it.next();
+            old = (Entry) mapEntry.getValue();
+            // Entries still being prepared are not counted yet
+            if (old != entry && old.size > 0) {
+                nodes -= old.size;
+                it.remove();
+            }
+        }
+    }
+
+    private static class Entry {
+        private FutureTask task;
+        // Number of nodes, 0 until prepared
+        private int size;
+
+        Entry(FutureTask task) {
+            this.task = task;
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+package org.krasnow.cng.diadem;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Map that remembers the keys put in it, so that clearing it takes as long as
+ * the number of keys put since it was last cleared, rather than as long as
+ * sweeping the table it has grown to. Values must not be null.
+ */
+class ResettableMap extends AbstractMap {
+
+    private final Map map;
+    // Keys put since the last clear (a key removed and put again is listed twice)
+    private final ArrayList keys;
+
+    /**
+     * @param map      empty map holding the entries, which decides how keys are compared
+     * @param capacity number of keys expected
+     */
+    ResettableMap(Map map, int capacity) {
+        this.map = map;
+        keys = new ArrayList(capacity);
+    }
+
+    public Object put(Object key, Object value) {
+        Object old = map.put(key, value);
+        if (old == null) {
+            keys.add(key);
+        }
+        return old;
+    }
+
+    public Object get(Object key) {
+        return map.get(key);
+    }
+
+    public boolean containsKey(Object key) {
+        return map.containsKey(key);
+    }
+
+    public Object remove(Object key) {
+        return map.remove(key);
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    public void clear() {
+        // Keys already removed are removed again, which does nothing
+        for (int i = keys.size() - 1; i >= 0; i--) {
+            map.remove(keys.get(i));
+        }
+        keys.clear();
+    }
+
+    public Set entrySet() {
+        return map.entrySet();
+    }
+
+}
@@ -0,0 +1,26 @@
+package org.krasnow.cng.diadem;
+
+import java.io.IOException;
+
+/**
+ * Receives the scores of each file pair, and of each whole run.
+ * Implementations are safe to write to from several threads at once.
+ */
+public interface ResultSink {
+
+    /**
+     * @param result
+     */
+    void write(ScoreResult result) throws IOException;
+
+    /**
+     * Writes out any results still held
+     */
+    void flush() throws IOException;
+
+    /**
+     * Flushes, then releases the output. Nothing may be written afterwards.
+     */
+    void close() throws IOException;
+
+}
@@ -0,0 +1,201 @@
+package org.krasnow.cng.diadem;
+
+import org.krasnow.cng.data.ReadStatistics;
+
+/**
+ * Time spent in each phase of scoring, and counts of the work done in them.
+ * Each metric keeps its own, so pairs scored in parallel don't share counters;
+ * the metrics of pairs are added to the metric of their run in pair order.
+ */
+public class RunMetrics {
+
+    private final static String[] NAMES = {
+            "pairs", "files", "cachedFiles", "swcNodes", "parseNanos", "trajectoryNanos", "binaryNanos",
+            "prepareNanos", "matchNanos", "continuationNanos", "excessNanos",
+            "goldNodes", "testNodes", "nearestNodeSearches", "candidates", "maxCandidates",
+            "bestMatchSearches", "climbs", "continuationAttempts", "continuations"};
+
+    private ReadStatistics reads = new ReadStatistics();
+    private int pairs;
+    // Removing spurs, weighing and indexing the gold standard (reading it too, when prepared gold is cached)
+    private long prepareNanos;
+    // Indexing the test nodes and matching gold standard nodes directly
+    private long matchNanos;
+    private long continuationNanos;
+    // Removing test spurs and weighing excess nodes
+    private long excessNanos;
+    private long goldNodes, testNodes;
+    // Searches for test nodes within the thresholds, and the candidates they found
+    private long nearestNodeSearches, candidates;
+    private int maxCandidates;
+    // Choices between several matches, and the match ancestors climbed to in them
+    private long bestMatchSearches, climbs;
+    // Missed bifurcations checked for continuations, and those found to be continuations
+    private long continuationAttempts, continuations;
+
+    /**
+     * Adds the metrics of another pair
+     *
+     * @param other
+     */
+    public void add(RunMetrics other) {
+        reads.add(other.reads);
+        pairs += other.pairs;
+        prepareNanos += other.prepareNanos;
+        matchNanos += other.matchNanos;
+        continuationNanos += other.continuationNanos;
+        excessNanos += other.excessNanos;
+        goldNodes += other.goldNodes;
+        testNodes += other.testNodes;
+        nearestNodeSearches += other.nearestNodeSearches;
+        candidates += other.candidates;
+        maxCandidates = Math.max(maxCandidates, other.maxCandidates);
+        bestMatchSearches += other.bestMatchSearches;
+        climbs += other.climbs;
+        continuationAttempts += other.continuationAttempts;
+        continuations += other.continuations;
+    }
+
+    /**
+     * @return statistics passed to the reads of SWC files
+     */
+    public ReadStatistics getReads() {
+        return reads;
+    }
+
+    void addPair() {
+        pairs++;
+    }
+
+    void addPrepareNanos(long nanos) {
+        prepareNanos += nanos;
+    }
+
+    void addMatchNanos(long nanos) {
+        matchNanos += nanos;
+    }
+
+    void addContinuationNanos(long nanos) {
+        continuationNanos += nanos;
+    }
+
+    void addExcessNanos(long nanos) {
+        excessNanos += nanos;
+    }
+
+    void addNodes(long goldNodes, long testNodes) {
+        this.goldNodes += goldNodes;
+        this.testNodes += testNodes;
+    }
+
+    void addNearestNodeSearch(int candidates) {
+        nearestNodeSearches++;
+        this.candidates += candidates;
+        if (candidates > maxCandidates) {
+            maxCandidates = candidates;
+        }
+    }
+
+    void addBestMatchSearch() {
+        bestMatchSearches++;
+    }
+
+    void addClimb() {
+        climbs++;
+    }
+
+    void addContinuationAttempt(boolean found) {
+        continuationAttempts++;
+        if (found) {
+            continuations++;
+        }
+    }
+
+    /**
+     * @return names of the values, in the order getValues gives them
+     */
+    public static String[] getNames() {
+        return (String[]) NAMES.clone();
+    }
+
+    /**
+     * @return every metric, in the order of getNames
+     */
+    public long[] getValues() {
+        return new long[]{
+                pairs, reads.getFiles(), reads.getCachedFiles(), reads.getNodes(), reads.getParseNanos(),
+                reads.getTrajectoryNanos(), reads.getBinaryNanos(),
+                prepareNanos, matchNanos, continuationNanos, excessNanos,
+                goldNodes, testNodes, nearestNodeSearches, candidates, maxCandidates,
+                bestMatchSearches, climbs, continuationAttempts, continuations};
+    }
+
+    public int getPairs() {
+        return pairs;
+    }
+
+    public long getPrepareNanos() {
+        return prepareNanos;
+    }
+
+    public long getMatchNanos() {
+        return matchNanos;
+    }
+
+    public long getContinuationNanos() {
+        return continuationNanos;
+    }
+
+    public long getExcessNanos() {
+        return excessNanos;
+    }
+
+    public long getGoldNodes() {
+        return goldNodes;
+    }
+
+    public long getTestNodes() {
+        return testNodes;
+    }
+
+    public long getNearestNodeSearches() {
+        return nearestNodeSearches;
+    }
+
+    public long getCandidates() {
+        return candidates;
+    }
+
+    public int getMaxCandidates() {
+        return maxCandidates;
+    }
+
+    public long getBestMatchSearches() {
+        return bestMatchSearches;
+    }
+
+    public long getClimbs() {
+        return climbs;
+    }
+
+    public long getContinuationAttempts() {
+        return continuationAttempts;
+    }
+
+    public long getContinuations() {
+        return continuations;
+    }
+
+    public String toString() {
+        StringBuffer buffer = new StringBuffer();
+        long[] values = getValues();
+        for (int i = 0; i < NAMES.length; i++) {
+            if (i > 0) {
+                buffer.append(' ');
+            }
+            buffer.append(NAMES[i]).append('=').append(values[i]);
+        }
+        return buffer.toString();
+    }
+
+}
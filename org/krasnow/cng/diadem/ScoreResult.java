@@ -0,0 +1,89 @@
+package org.krasnow.cng.diadem;
+
+import java.io.File;
+
+/**
+ * Scores of one scored metric, with the files and dataset they are for.
+ * Files are directories for the total of a run over directories.
+ */
+public class ScoreResult {
+
+    private String goldFile;
+    private String testFile;
+    private int dataset;
+    private int pairs;
+    private int goldNodes;
+    private double finalScore;
+    private double qualityScore;
+    private double directMatchScore;
+    private long[] metrics;
+
+    /**
+     * @param metric metric whose scores have been calculated
+     * @param pairs number of file pairs the scores are over
+     */
+    ScoreResult(DiademMetric metric, int pairs) {
+        this(metric.getGoldSwcFile(), metric.getTestSwcFile(), metric.getDataset(), pairs,
+                metric.getGoldNodeCount(), metric.getFinalScore(), metric.getQualityScore(),
+                metric.getDirectMatchScore());
+        if (metric.getRunMetrics() != null) {
+            metrics = metric.getRunMetrics().getValues();
+        }
+    }
+
+    public ScoreResult(File goldFile, File testFile, int dataset, int pairs, int goldNodes,
+                       double finalScore, double qualityScore, double directMatchScore) {
+        this.goldFile = goldFile.getPath();
+        this.testFile = testFile.getPath();
+        this.dataset = dataset;
+        this.pairs = pairs;
+        this.goldNodes = goldNodes;
+        this.finalScore = finalScore;
+        this.qualityScore = qualityScore;
+        this.directMatchScore = directMatchScore;
+    }
+
+    public String getGoldFile() {
+        return goldFile;
+    }
+
+    public String getTestFile() {
+        return testFile;
+    }
+
+    public int getDataset() {
+        return dataset;
+    }
+
+    public int getPairs() {
+        return pairs;
+    }
+
+    public int getGoldNodes() {
+        return goldNodes;
+    }
+
+    public double getFinalScore() {
+        return finalScore;
+    }
+
+    public double getQualityScore() {
+        return qualityScore;
+    }
+
+    public double getDirectMatchScore() {
+        return directMatchScore;
+    }
+
+    /**
+     * @return values of the run metrics, named by RunMetrics.getNames, null if they weren't collected
+     */
+    public long[] getMetrics() {
+        return metrics;
+    }
+
+    public String toString() {
+        return goldFile + " " + testFile + " " + finalScore;
+    }
+
+}
@@ -0,0 +1,133 @@
+package org.krasnow.cng.diadem;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.krasnow.cng.domain.ArrayStack;
+
+/**
+ * State a DiademMetric changes while scoring: the nodes it lists, spurs,
+ * node weights, score sums and the buffers of its traversals.
+ * A context can be reset and given to the metric of another pair. Its
+ * collections and arrays are kept, so a thread scoring many pairs with one
+ * context stops allocating them once they have grown to the largest pair.
+ * Resetting doesn't depend on their capacity: buffers are marked with stamps,
+ * and collections are only cleared of what the last pair put in them (maps
+ * remember their keys, as clearing a hash table sweeps all of it).
+ */
+class ScoringContext {
+
+    // Nodes expected in a pair, for the initial size of collections
+    public final static int DEFAULT_CAPACITY = 1024;
+
+    List misses;
+    List continuations;
+    List distantMatches;
+    // Spurs of the last tree spurs were removed from, as keys, and the number of them
+    Map spurs;
+    int spurCount;
+    // Weight of each gold standard node, by its position in the gold node table
+    int[] weights;
+    // Weights of the misses and continuations added from other pairs, kept for listing them
+    Map listedWeights;
+    // Excess test nodes and their weights, kept only for listing them
+    Map excessNodes;
+    // Copies of shared gold trajectory points resolved during this run, null unless scoring prepared gold
+    Map runTrajectories;
+    // Stacks of traversals done for each node, kept to save growing new ones
+    ArrayStack matchStack;
+    ArrayStack pathStack;
+    // Path specific trajectories, ancestor -> (descendant -> trajectory), until a stored trajectory is resolved
+    Map pathTrajectories;
+    // Gold and test positions climbed past by the current path length check, marked with its stamp
+    int[] goldChecked, testChecked;
+    int checkStamp;
+
+    double scoreSum, weightSum, quantityScoreSum;
+    // Part of weightSum due to excess nodes, and number of gold nodes scored
+    double excessWeightSum;
+    int goldNodeCount;
+
+    // Spurs, weights and trajectory copies of this context, which are gone back to when reset
+    // (a prepared gold standard lends its own spurs and weights)
+    private ResettableMap ownSpurs, ownRunTrajectories;
+    private int[] ownWeights;
+
+    ScoringContext() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of nodes expected in a pair
+     */
+    ScoringContext(int capacity) {
+        misses = new ArrayList(capacity / 4);
+        continuations = new ArrayList(capacity / 16);
+        distantMatches = new ArrayList(capacity / 64);
+        spurs = ownSpurs = new ResettableMap(new IdentityHashMap(capacity / 16), capacity / 16);
+        weights = ownWeights = new int[capacity];
+        listedWeights = new ResettableMap(new HashMap(capacity / 4), capacity / 4);
+        excessNodes = new ResettableMap(new LinkedHashMap(capacity / 8), capacity / 8);
+        ownRunTrajectories = new ResettableMap(new IdentityHashMap(capacity / 16), capacity / 16);
+        matchStack = new ArrayStack(capacity / 8);
+        pathStack = new ArrayStack(capacity / 8);
+        pathTrajectories = new ResettableMap(new IdentityHashMap(capacity / 16), capacity / 16);
+    }
+
+    /**
+     * Makes the context as new, for scoring another pair
+     */
+    void reset() {
+        misses.clear();
+        continuations.clear();
+        distantMatches.clear();
+        clearSpurs();
+        // Weights are all written before they are read
+        weights = ownWeights;
+        listedWeights.clear();
+        excessNodes.clear();
+        runTrajectories = null;
+        matchStack.clear();
+        pathStack.clear();
+        pathTrajectories.clear();
+        // Marks of earlier checks are told apart by their stamps
+        scoreSum = weightSum = quantityScoreSum = excessWeightSum = 0;
+        goldNodeCount = 0;
+    }
+
+    /**
+     * @return spurs, emptied and no longer those of a prepared gold standard
+     */
+    Map clearSpurs() {
+        ownSpurs.clear();
+        spurs = ownSpurs;
+        spurCount = 0;
+        return spurs;
+    }
+
+    /**
+     * @param size number of gold standard nodes
+     * @return weights, of at least size, and no longer those of a prepared gold standard
+     */
+    int[] useWeights(int size) {
+        if (ownWeights.length < size) {
+            ownWeights = new int[size];
+        }
+        weights = ownWeights;
+        return weights;
+    }
+
+    /**
+     * @return runTrajectories, emptied, for scoring prepared gold
+     */
+    Map useRunTrajectories() {
+        ownRunTrajectories.clear();
+        runTrajectories = ownRunTrajectories;
+        return runTrajectories;
+    }
+
+}
@@ -0,0 +1,364 @@
+package org.krasnow.cng.diadem;
+
+import java.io.File;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.krasnow.cng.data.SwcBinaryCache;
+
+import com.martiansoftware.jsap.FlaggedOption;
+import com.martiansoftware.jsap.JSAP;
+import com.martiansoftware.jsap.JSAPResult;
+
+/**
+ * Scores the same reconstructions with many sets of thresholds in one process,
+ * for calibrating thresholds to a new microscope.
+ * Trajectories and spatial indexes depend on the XY and Z thresholds, so each
+ * pair of files is prepared once for each XY and Z threshold: the gold standard
+ * is prepared and the test reconstruction read once, then shared by all the path
+ * error thresholds scored with them (each run scoring its own copy of the test trees).
+ * Sets of thresholds are scored in parallel; scores don't depend on the number of threads.
+ * Each set of thresholds reuses one scoring context from pair to pair.
+ * Continuation checks of all runs share one executor, and by default run
+ * serially when sets of thresholds are scored in parallel.
+ */
+public class ThresholdSweep {
+
+    public final static String PARAM_XY_THRESHOLDS = "xy-thresholds";
+    public final static String PARAM_Z_THRESHOLDS = "z-thresholds";
+    public final static String PARAM_XY_PATH_THRESHOLDS = "xy-path-thresholds";
+    public final static String PARAM_Z_PATH_THRESHOLDS = "z-path-thresholds";
+
+    private DiademMetric settings;
+    // Thresholds to score with, each XY, Z, XY path error and Z path error
+    private List thresholds = new ArrayList();
+
+    /**
+     * @param settings metric with the files to score and all parameters other than thresholds
+     */
+    public ThresholdSweep(DiademMetric settings) {
+        this.settings = settings;
+    }
+
+    public void addThresholds(double xyThreshold, double zThreshold,
+                              double xyPathErrorThreshold, double zPathErrorThreshold) {
+        thresholds.add(new double[]{xyThreshold, zThreshold, xyPathErrorThreshold, zPathErrorThreshold});
+    }
+
+    /**
+     * Adds every combination of the given thresholds
+     */
+    public void addGrid(double[] xyThresholds, double[] zThresholds,
+                        double[] xyPathErrorThresholds, double[] zPathErrorThresholds) {
+        for (int i = 0; i < xyThresholds.length; i++) {
+            for (int j = 0; j < zThresholds.length; j++) {
+                for (int k = 0; k < xyPathErrorThresholds.length; k++) {
+                    for (int l = 0; l < zPathErrorThresholds.length; l++) {
+                        addThresholds(xyThresholds[i], zThresholds[j],
+                                xyPathErrorThresholds[k], zPathErrorThresholds[l]);
+                    }
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return thresholds.size();
+    }
+
+    /**
+     * @return a metric with the scores of each set of thresholds, in the order they were added
+     * @throws Exception the failure of the first run (in order) that could not be scored
+     */
+    public DiademMetric[] score() throws Exception {
+        int runs = thresholds.size();
+        DiademMetric[] results = new DiademMetric[runs];
+        // Context each run scores its pairs with, free again once the pair's results are added
+        ScoringContext[] contexts = new ScoringContext[runs];
+        double[] values;
+        for (int i = 0; i < runs; i++) {
+            values = (double[]) thresholds.get(i);
+            results[i] = new DiademMetric(settings);
+            results[i].setXYThreshold(values[0]);
+            results[i].setZThreshold(values[1]);
+            results[i].setXYPathErrorThreshold(values[2]);
+            results[i].setZPathErrorThreshold(values[3]);
+            contexts[i] = new ScoringContext();
+        }
+
+        ExecutorService executor = settings.getExecutor();
+        boolean shutdown = false;
+        if (executor == null && runs > 1 && settings.getThreads() > 1) {
+            executor = BatchScorer.createExecutor(Math.min(settings.getThreads(), runs), settings.isVirtualThreads());
+            shutdown = true;
+        }
+        int continuationThreads = settings.resolveContinuationThreads(executor != null);
+        ExecutorService continuationExecutor = continuationThreads > 1
+                ? BatchScorer.createExecutor(continuationThreads, settings.isVirtualThreads()) : null;
+        for (int i = 0; i < runs; i++) {
+            results[i].setContinuationThreads(continuationThreads);
+            results[i].setContinuationExecutor(continuationExecutor);
+        }
+        // Gold standards prepared for the current pair, one for each XY and Z threshold
+        PreparedGoldCache goldCache = new PreparedGoldCache(Integer.MAX_VALUE);
+        PairSource pairs = settings.createPairSource();
+        FilePair pair;
+        try {
+            while ((pair = pairs.next()) != null) {
+                if (!pair.isMatched()) {
+                    settings.reportUnmatched(pair);
+                    continue;
+                }
+                scorePair(results, contexts, pair.getGoldFile(), pair.getTestFile(), goldCache, executor);
+                goldCache.clear();
+            }
+        } finally {
+            pairs.close();
+            if (shutdown) {
+                executor.shutdownNow();
+            }
+            if (continuationExecutor != null) {
+                continuationExecutor.shutdownNow();
+                for (int i = 0; i < runs; i++) {
+                    results[i].setContinuationExecutor(null);
+                }
+            }
+        }
+        for (int i = 0; i < runs; i++) {
+            results[i].calculateScores();
+        }
+        return results;
+    }
+
+    /**
+     * Scores one pair of files with each set of thresholds, adding to the results in order
+     */
+    private void scorePair(DiademMetric[] results, ScoringContext[] contexts, File goldFile, File testFile,
+                           PreparedGoldCache goldCache, ExecutorService executor) throws Exception {
+        // Test trees read for the pair, by the parameters they were read with
+        Map testTrees = new HashMap();
+        RunTask[] tasks = new RunTask[results.length];
+        for (int i = 0; i < results.length; i++) {
+            tasks[i] = new RunTask(results[i], contexts[i], goldFile, testFile, goldCache, testTrees);
+        }
+
+        if (executor == null) {
+            for (int i = 0; i < tasks.length; i++) {
+                results[i].addPairResult((DiademMetric) tasks[i].call());
+            }
+            return;
+        }
+        // Runs sharing a gold standard are next to each other, so they wait for the same preparation
+        Future[] futures = new Future[tasks.length];
+        for (int i = 0; i < tasks.length; i++) {
+            futures[i] = executor.submit(tasks[i]);
+        }
+        for (int i = 0; i < tasks.length; i++) {
+            try {
+                results[i].addPairResult((DiademMetric) futures[i].get());
+            } catch (ExecutionException e) {
+                for (int j = i + 1; j < futures.length; j++) {
+                    futures[j].cancel(true);
+                }
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Scores one pair of files with one set of thresholds
+     */
+    private static class RunTask implements Callable {
+        private DiademMetric settings;
+        private ScoringContext context;
+        private File goldFile;
+        private File testFile;
+        private PreparedGoldCache goldCache;
+        private Map testTrees;
+
+        RunTask(DiademMetric settings, ScoringContext context, File goldFile, File testFile,
+                PreparedGoldCache goldCache, Map testTrees) {
+            this.settings = settings;
+            this.context = context;
+            this.goldFile = goldFile;
+            this.testFile = testFile;
+            this.goldCache = goldCache;
+            this.testTrees = testTrees;
+        }
+
+        public Object call() throws Exception {
+            DiademMetric metric = new DiademMetric(settings, context);
+            metric.setGoldCache(goldCache);
+            byte[] trees = getTestTrees(metric);
+            metric.scorePair(goldFile, testFile, trees == null ? null : SwcBinaryCache.fromByteArray(trees));
+            return metric;
+        }
+
+        /**
+         * @return the test trees read with the parameters of metric, read by the first run that needs them;
+         * null where each run must read them itself
+         */
+        private byte[] getTestTrees(final DiademMetric metric) throws Exception {
+            if (metric.getDataset() == DiademMetric.DATASET_NM_PROJECTION) {
+                // Read along with their path nodes
+                return null;
+            }
+            String key = metric.getGoldParameters();
+            FutureTask task;
+            boolean owner = false;
+            synchronized (testTrees) {
+                task = (FutureTask) testTrees.get(key);
+                if (task == null) {
+                    task = new FutureTask(new Callable() {
+                        public Object call() throws Exception {
+                            return SwcBinaryCache.toByteArray(metric.readTrees(testFile));
+                        }
+                    });
+                    testTrees.put(key, task);
+                    owner = true;
+                }
+            }
+            if (owner) {
+                task.run();
+            }
+            try {
+                return (byte[]) task.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+
+    private static JSAPResult readParameters(String[] args) throws Exception {
+        JSAP jsap = new JSAP();
+
+        FlaggedOption opt;
+
+        opt = new FlaggedOption(DiademMetric.PARAM_TEST_DATA)
+                .setStringParser(JSAP.STRING_PARSER)
+                .setRequired(true)
+                .setShortFlag('T')
+                .setLongFlag(DiademMetric.PARAM_TEST_DATA);
+        jsap.registerParameter(opt);
+
+        opt = new FlaggedOption(DiademMetric.PARAM_GOLD_STANDARD_DATA)
+                .setStringParser(JSAP.STRING_PARSER)
+                .setRequired(true)
+                .setShortFlag('G')
+                .setLongFlag(DiademMetric.PARAM_GOLD_STANDARD_DATA);
+        jsap.registerParameter(opt);
+
+        opt = new FlaggedOption(DiademMetric.PARAM_DATASET)
+                .setStringParser(JSAP.INTEGER_PARSER)
+                .setRequired(true)
+                .setShortFlag('D')
+                .setLongFlag(DiademMetric.PARAM_DATASET);
+        opt.setHelp("Data set whose parameters are used for all but the thresholds swept");
+        jsap.registerParameter(opt);
+
+        String[] lists = {PARAM_XY_THRESHOLDS, PARAM_Z_THRESHOLDS, PARAM_XY_PATH_THRESHOLDS, PARAM_Z_PATH_THRESHOLDS};
+        for (int i = 0; i < lists.length; i++) {
+            opt = new FlaggedOption(lists[i])
+                    .setStringParser(JSAP.DOUBLE_PARSER)
+                    .setRequired(false)
+                    .setList(true)
+                    .setListSeparator(',')
+                    .setShortFlag(JSAP.NO_SHORTFLAG)
+                    .setLongFlag(lists[i]);
+            opt.setHelp("Comma separated values to score with, the data set's value if not given");
+            jsap.registerParameter(opt);
+        }
+
+        opt = new FlaggedOption(DiademMetric.PARAM_THREADS)
+                .setStringParser(JSAP.INTEGER_PARSER)
+                .setRequired(false)
+                .setDefault("" + Runtime.getRuntime().availableProcessors())
+                .setShortFlag(JSAP.NO_SHORTFLAG)
+                .setLongFlag(DiademMetric.PARAM_THREADS);
+        opt.setHelp("Number of sets of thresholds scored at once");
+        jsap.registerParameter(opt);
+
+        opt = new FlaggedOption(DiademMetric.PARAM_SWC_CACHE)
+                .setStringParser(JSAP.STRING_PARSER)
+                .setRequired(false)
+                .setShortFlag(JSAP.NO_SHORTFLAG)
+                .setLongFlag(DiademMetric.PARAM_SWC_CACHE);
+        opt.setHelp("Directory keeping binary copies of the SWC files read, so they are parsed only once");
+        jsap.registerParameter(opt);
+
+        JSAPResult config = jsap.parse(args);
+        if (!config.success()) {
+            for (java.util.Iterator errs = config.getErrorMessageIterator(); errs.hasNext(); ) {
+                System.err.println("Error: " + errs.next());
+            }
+            System.err.println();
+            System.err.println("Usage: java -cp DiademMetric.jar " + ThresholdSweep.class.getName());
+            System.err.println("                " + jsap.getUsage());
+            System.err.println();
+            System.err.println(jsap.getHelp());
+            System.exit(1);
+        }
+
+        return config;
+    }
+
+    private static double[] getValues(JSAPResult config, String id, double defaultValue) {
+        if (!config.contains(id)) {
+            return new double[]{defaultValue};
+        }
+        return config.getDoubleArray(id);
+    }
+
+    /**
+     * Prints a table of the scores of each set of thresholds, tab separated
+     */
+    public static void main(String[] args) {
+        try {
+            JSAPResult config = readParameters(args);
+            DiademMetric settings = new DiademMetric(new File(config.getString(DiademMetric.PARAM_TEST_DATA)),
+                    new File(config.getString(DiademMetric.PARAM_GOLD_STANDARD_DATA)),
+                    config.getInt(DiademMetric.PARAM_DATASET));
+            settings.setThreads(config.getInt(DiademMetric.PARAM_THREADS));
+            if (config.contains(DiademMetric.PARAM_SWC_CACHE)) {
+                settings.setSwcCache(new SwcBinaryCache(new File(config.getString(DiademMetric.PARAM_SWC_CACHE))));
+            }
+
+            ThresholdSweep sweep = new ThresholdSweep(settings);
+            sweep.addGrid(getValues(config, PARAM_XY_THRESHOLDS, settings.getXYThreshold()),
+                    getValues(config, PARAM_Z_THRESHOLDS, settings.getZThreshold()),
+                    getValues(config, PARAM_XY_PATH_THRESHOLDS, settings.getXYPathErrorThreshold()),
+                    getValues(config, PARAM_Z_PATH_THRESHOLDS, settings.getZPathErrorThreshold()));
+            DiademMetric[] results = sweep.score();
+
+            NumberFormat nf = NumberFormat.getInstance();
+            nf.setMaximumFractionDigits(6);
+            nf.setGroupingUsed(false);
+            System.out.println("XY threshold\tZ threshold\tXY path error\tZ path error\tScore\tQuality score\tDirect hit score");
+            for (int i = 0; i < results.length; i++) {
+                System.out.println(nf.format(results[i].getXYThreshold()) + "\t" + nf.format(results[i].getZThreshold())
+                        + "\t" + nf.format(results[i].getXYPathErrorThreshold())
+                        + "\t" + nf.format(results[i].getZPathErrorThreshold())
+                        + "\t" + nf.format(results[i].getFinalScore()) + "\t" + nf.format(results[i].getQualityScore())
+                        + "\t" + nf.format(results[i].getDirectMatchScore()));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+}
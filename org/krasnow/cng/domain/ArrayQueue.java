@@ -0,0 +1,78 @@
+package org.krasnow.cng.domain;
+
+/**
+ * 
+ * @author gillette
+ * Queue with the same use as LinkedQueue, kept in a growable ring buffer so
+ * that enqueuing doesn't create a list node. The buffer is kept once emptied,
+ * so a queue reused for another traversal doesn't grow again.
+ *
+ */
+public class ArrayQueue {
+
+	private Object[] elements;
+	// Position of the first element, and number of elements
+	private int head = 0;
+	private int size = 0;
+	
+	public ArrayQueue(){
+		this(16);
+	}
+	/**
+	 * @param capacity number of elements held before the buffer grows
+	 */
+	public ArrayQueue(int capacity){
+		elements = new Object[Math.max(capacity, 1)];
+	}
+	
+	public void enqueue(Object object){
+		if (size == elements.length){
+			// Unwrap into a larger buffer
+			Object[] tmp = new Object[size*2];
+			int first = elements.length - head;
+			System.arraycopy(elements, head, tmp, 0, first);
+			System.arraycopy(elements, 0, tmp, first, head);
+			elements = tmp;
+			head = 0;
+		}
+		int tail = head + size;
+		if (tail >= elements.length){
+			tail -= elements.length;
+		}
+		elements[tail] = object;
+		size++;
+	}
+	
+	/**
+	 * @return the first element enqueued, null if empty
+	 */
+	public Object dequeue(){
+		if (size == 0){
+			return null;
+		}
+		Object obj = elements[head];
+		elements[head] = null;
+		head++;
+		if (head == elements.length){
+			head = 0;
+		}
+		size--;
+		return obj;
+	}
+	
+	public boolean isEmpty(){
+		return (size == 0);
+	}
+	
+	public int getSize(){
+		return size;
+	}
+	
+	public void clear(){
+		while (size > 0){
+			dequeue();
+		}
+		head = 0;
+	}
+
+}
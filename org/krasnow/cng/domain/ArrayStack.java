@@ -0,0 +1,69 @@
+package org.krasnow.cng.domain;
+
+/**
+ * 
+ * @author gillette
+ * Stack with the same use as LinkedStack, kept in a growable array so that
+ * pushing doesn't create a list node. The array is kept once emptied, so a
+ * stack reused for another traversal doesn't grow again.
+ *
+ */
+public class ArrayStack {
+
+	private Object[] elements;
+	private int size = 0;
+	
+	public ArrayStack(){
+		this(16);
+	}
+	/**
+	 * @param capacity number of elements held before the array grows
+	 */
+	public ArrayStack(int capacity){
+		elements = new Object[Math.max(capacity, 1)];
+	}
+	
+	public void push(Object object){
+		if (size == elements.length){
+			Object[] tmp = new Object[size*2];
+			System.arraycopy(elements, 0, tmp, 0, size);
+			elements = tmp;
+		}
+		elements[size++] = object;
+	}
+	
+	/**
+	 * @return the last element pushed, null if empty
+	 */
+	public Object pop(){
+		if (size == 0){
+			return null;
+		}
+		Object obj = elements[--size];
+		// Don't keep popped elements from being collected
+		elements[size] = null;
+		return obj;
+	}
+	
+	/**
+	 * @return the last element pushed, left on the stack, null if empty
+	 */
+	public Object peek(){
+		return size == 0 ? null : elements[size-1];
+	}
+	
+	public boolean isEmpty(){
+		return (size == 0);
+	}
+	
+	public int getSize(){
+		return size;
+	}
+	
+	public void clear(){
+		while (size > 0){
+			elements[--size] = null;
+		}
+	}
+
+}
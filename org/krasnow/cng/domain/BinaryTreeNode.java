@@ -22,7 +22,8 @@ public class BinaryTreeNode {
 
     protected int treeSize;
     protected NodeMetaData metaData;
-    private Map asymmetryMap = new HashMap();
+    // Morphometric results, created when the first is set (scoring never needs them)
+    private Map asymmetryMap;
     
     public BinaryTreeNode(){
         data = null;
@@ -140,8 +141,8 @@ public class BinaryTreeNode {
 
     public static void updateTreeSizeDown(BinaryTreeNode node){
     	BinaryTreeNode current;
-    	LinkedStack assembleStack = new LinkedStack();
-    	LinkedStack branchStack = new LinkedStack();
+    	ArrayStack assembleStack = new ArrayStack();
+    	ArrayStack branchStack = new ArrayStack();
     	int treeSize, height;
     	assembleStack.push(node);
     	branchStack.push(node);
@@ -179,8 +180,8 @@ public class BinaryTreeNode {
 
     public static void updateStatisticsDown(BinaryTreeNode node){
     	BinaryTreeNode current;
-    	LinkedStack assembleStack = new LinkedStack();
-    	LinkedStack branchStack = new LinkedStack();
+    	ArrayStack assembleStack = new ArrayStack();
+    	ArrayStack branchStack = new ArrayStack();
     	int treeSize, maxHeight, totalHeight, leaves, leftSize, rightSize, leftDeg, rightDeg;
     	assembleStack.push(node);
     	branchStack.push(node);
@@ -443,7 +444,7 @@ public class BinaryTreeNode {
 		return toStringBySize(order,null);
 	}
     public String toStringBySize(String order, String[] topoMap) throws Exception{
-    	LinkedStack stack = new LinkedStack();
+    	ArrayStack stack = new ArrayStack();
     	BinaryTreeNode current, right, left;
     	StringBuffer seq = new StringBuffer();
     	stack.push(this);
@@ -508,7 +509,7 @@ public class BinaryTreeNode {
     	return toStringByHeight(order,null);
     }
     public String toStringByHeight(String order, String[] topoMap) throws Exception{
-    	LinkedStack stack = new LinkedStack();
+    	ArrayStack stack = new ArrayStack();
     	BinaryTreeNode current, right, left;
     	StringBuffer seq = new StringBuffer();
     	stack.push(this);
@@ -570,7 +571,7 @@ public class BinaryTreeNode {
     }
 
     private void addToStack(
-    		LinkedStack stack, 
+    		ArrayStack stack, 
     		BinaryTreeNode larger, 
     		BinaryTreeNode smaller,
     		String direction) throws Exception{
@@ -593,7 +594,7 @@ public class BinaryTreeNode {
     }
 
     public String toStringPreorder(){
-    	LinkedStack stack = new LinkedStack();
+    	ArrayStack stack = new ArrayStack();
     	BinaryTreeNode current, right, left;
     	StringBuffer seq = new StringBuffer();
     	stack.push(this);
@@ -658,7 +659,7 @@ public class BinaryTreeNode {
 		double totalWeights = 0, weight;
 		int degree;
     	BinaryTreeNode current;
-    	LinkedStack calcStack = new LinkedStack();
+    	ArrayStack calcStack = new ArrayStack();
     	calcStack.push(this);
     	while (!calcStack.isEmpty()){
     		current = (BinaryTreeNode)calcStack.pop();
@@ -719,7 +720,7 @@ public class BinaryTreeNode {
 		}
 		int degree;
     	BinaryTreeNode current;
-    	LinkedStack calcStack = new LinkedStack();
+    	ArrayStack calcStack = new ArrayStack();
     	calcStack.push(this);
     	Asymmetry asym;
     	while (!calcStack.isEmpty()){
@@ -766,7 +767,7 @@ public class BinaryTreeNode {
 		double sumDiff = 0, sumSum = 0;
 		int leftDeg, rightDeg, leftBranch, rightBranch;
     	BinaryTreeNode current;
-    	LinkedStack calcStack = new LinkedStack();
+    	ArrayStack calcStack = new ArrayStack();
     	calcStack.push(this);
     	while (!calcStack.isEmpty()){
     		current = (BinaryTreeNode)calcStack.pop();
@@ -799,7 +800,7 @@ public class BinaryTreeNode {
 		return sumDiff/sumSum;
 	}
 	
-	private class NodeMetaData{
+	private static class NodeMetaData{
 	    protected int height;
 	    protected int totalHeight;
 	    protected float averageBranchHeight;
@@ -832,10 +833,6 @@ public class BinaryTreeNode {
 		public void setTotalHeight(int totalHeight) {
 			this.totalHeight = totalHeight;
 		}
-		public float getTreeAsymmetry() {
-			return totalAsymmetry/((treeSize-1)/2);
-		}
-		
 		public float getTotalAsymmetry() {
 			return totalAsymmetry;
 		}
@@ -852,16 +849,6 @@ public class BinaryTreeNode {
 		public void setPartitionAsymmetry(float partitionAsymmetry) {
 			this.partitionAsymmetry = partitionAsymmetry;
 		}
-		public float getBifurcationAsymmetry() {
-			if (treeSize <= 2){
-				return 0;
-			}
-			else if (treeSize == 3){
-				return 1;
-			}
-			return (float)(treeSize - 2 * Math.min(left.getTreeSize(),right.getTreeSize()))
-				/ (treeSize - 2);
-		}
 		public BigInteger getShapeNum() {
 			return shapeNum;
 		}
@@ -881,6 +868,13 @@ public class BinaryTreeNode {
 	public Asymmetry getAsymmetry()throws Exception{
 		return getAsymmetry(Asymmetry.METRIC_NODES, Asymmetry.SIZE_MODE_SUM);
 	}
+	/**
+	 * @return whether branch statistics (other than tree size) have been set
+	 */
+	public boolean hasStatistics(){
+		return metaData != null;
+	}
+
 	/**
 	 * Traditional partition asymmetry 
 	 * @return partition asymmetry calculated as tree was built; based on degree, not size
@@ -939,11 +933,22 @@ public class BinaryTreeNode {
 	public Asymmetry getAsymmetry(int metric)throws Exception{
 		return getAsymmetry(metric,Asymmetry.SIZE_MODE_SUM);
 	}
+	/**
+	 * Calculates the asymmetry if it hasn't been yet
+	 * @param metric
+	 * @param sizeMode
+	 * @return asymmetry of this node; null if it has no children, in which case
+	 * no asymmetry map may have been created for it
+	 * @throws Exception
+	 */
 	public Asymmetry getAsymmetry(int metric, int sizeMode) throws Exception{
 		Integer key = getAsymmetryKey(metric, sizeMode);
-		if (!asymmetryMap.containsKey(key)){
+		if (asymmetryMap == null || !asymmetryMap.containsKey(key)){
 			this.calculateAsymmetry(metric, sizeMode);
 		}
+		if (asymmetryMap == null){
+			return null;
+		}
 		return (Asymmetry)asymmetryMap.get(getAsymmetryKey(metric, sizeMode));
 	}
 
@@ -951,6 +956,9 @@ public class BinaryTreeNode {
 		setAsymmetry(metric,Asymmetry.SIZE_MODE_SUM,asym);
 	}
 	public void setAsymmetry(int metric, int sizeMode, Asymmetry asym){
+		if (asymmetryMap == null){
+			asymmetryMap = new HashMap();
+		}
 		asymmetryMap.put(getAsymmetryKey(metric,sizeMode), asym);
 	}
 
@@ -965,7 +973,8 @@ public class BinaryTreeNode {
 	}
 	public BinaryTreeNode getLargerSubtree(int metric, int sizeMode)throws Exception{
 		Asymmetry asym = getAsymmetry(metric, sizeMode);
-		return asym == null ? null : (asym.isLargerSubtreeLeft() ? left : right);
+		// Through the getters, subclasses keep their own children
+		return asym == null ? null : (asym.isLargerSubtreeLeft() ? getLeft() : getRight());
 	}
 	public BinaryTreeNode getSmallerSubtree()throws Exception{
 		return getSmallerSubtree(Asymmetry.METRIC_NODES);
@@ -976,7 +985,7 @@ public class BinaryTreeNode {
 	public BinaryTreeNode getSmallerSubtree(int metric, int sizeMode)
 	throws Exception{
 		Asymmetry asym = getAsymmetry(metric, sizeMode);
-		return asym == null ? null : (asym.isLargerSubtreeLeft() ? right : left);
+		return asym == null ? null : (asym.isLargerSubtreeLeft() ? getRight() : getLeft());
 	}
 	
 	public BinaryTreeNode copy(BinaryTreeNode copy){
@@ -987,12 +996,17 @@ public class BinaryTreeNode {
 		this.asymmetryMap = asymmetryMap;
 	}
 	public BinaryTreeNode copy(BinaryTreeNode copy, boolean keepData){
-		Map asymMap = new HashMap();
-		copy.setAsymmetryMap(asymMap);
-		Object key;
-		for (Iterator it = asymmetryMap.keySet().iterator(); it.hasNext();){
-			key = it.next();
-			asymMap.put(key,((Asymmetry)asymmetryMap.get(key)).copy());
+		if (asymmetryMap != null){
+			Map asymMap = new HashMap();
+			copy.setAsymmetryMap(asymMap);
+			Object key;
+			for (Iterator it = asymmetryMap.keySet().iterator(); it.hasNext();){
+				key = it.next();
+				asymMap.put(key,((Asymmetry)asymmetryMap.get(key)).copy());
+			}
+		}
+		else{
+			copy.setAsymmetryMap(null);
 		}
     	copy.setTreeSize(treeSize);
     	if (metaData != null){
@@ -1074,7 +1088,7 @@ public class BinaryTreeNode {
 					". Data member of given in put is type "+getData().getClass());
 		}
 		// Get all bifurcating nodes from leaf to root
-		LinkedStack stack = BinaryTreeUtils.getLeavesToRootStack(this, true);
+		ArrayStack stack = BinaryTreeUtils.getLeavesToRootArrayStack(this, true);
 
 		ParentedBinaryTreeNode node, left, right;
 		SwcDataNode parentData, leftData, rightData;
@@ -0,0 +1,218 @@
+package org.krasnow.cng.domain;
+
+import java.util.Arrays;
+
+/**
+ * SpatialIndex backed by a uniform grid of XY squares stacked in Z slabs.
+ * Only occupied cells are stored (in an open addressing hash table), so memory
+ * use depends on the number of points rather than on the extent of the
+ * reconstruction. When the cell sizes are the query radii, a query visits at
+ * most 3x3x3 cells.
+ */
+public class GridSpatialIndex implements SpatialIndex {
+
+	// Keeps cell coordinates of far away points from overflowing
+	private static final double MAX_CELL = 1 << 29;
+	// Relative margin added to query bounds to absorb floating point error
+	private static final double BOUNDS_MARGIN = 1e-9;
+
+	private double[] x;
+	private double[] y;
+	private double[] z;
+	private double xyCellSize;
+	private double zCellSize;
+
+	// Hash table of occupied cells, slot -> cell number (-1 when empty)
+	private int[] slots;
+	private int mask;
+	// Cell coordinates by cell number
+	private int[] cellX;
+	private int[] cellY;
+	private int[] cellZ;
+	private int cells;
+	// Points of cell c are cellPoints[cellStart[c]] to cellPoints[cellStart[c+1]-1], in ascending order
+	private int[] cellStart;
+	private int[] cellPoints;
+
+	/**
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param xyCellSize width of the XY squares, normally the XY query radius
+	 * @param zCellSize height of the Z slabs, normally the Z query radius.
+	 * Sizes that are not positive put all points in a single row or slab.
+	 */
+	public GridSpatialIndex(double[] x, double[] y, double[] z, double xyCellSize, double zCellSize){
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.xyCellSize = validCellSize(xyCellSize);
+		this.zCellSize = validCellSize(zCellSize);
+		build();
+	}
+
+	private static double validCellSize(double size){
+		if (size > 0 && !Double.isInfinite(size)){
+			return size;
+		}
+		return Double.POSITIVE_INFINITY;
+	}
+
+	private static int cell(double value, double cellSize){
+		if (cellSize == Double.POSITIVE_INFINITY){
+			return 0;
+		}
+		double c = Math.floor(value / cellSize);
+		if (c < -MAX_CELL){
+			return (int)-MAX_CELL;
+		}
+		if (c > MAX_CELL){
+			return (int)MAX_CELL;
+		}
+		return (int)c;
+	}
+
+	private static int hash(int cx, int cy, int cz){
+		int h = cx * 73856093 ^ cy * 19349663 ^ cz * 83492791;
+		return h ^ (h >>> 16);
+	}
+
+	private void build(){
+		int n = x.length;
+		int capacity = 2;
+		while (capacity < 2*n){
+			capacity <<= 1;
+		}
+		slots = new int[capacity];
+		Arrays.fill(slots, -1);
+		mask = capacity - 1;
+		cellX = new int[Math.max(n, 1)];
+		cellY = new int[Math.max(n, 1)];
+		cellZ = new int[Math.max(n, 1)];
+		cells = 0;
+
+		// Assign each point to a cell, creating cells as they are encountered
+		int[] cellOf = new int[n];
+		int cx, cy, cz, c, slot;
+		for (int i = 0; i < n; i++){
+			cx = cell(x[i], xyCellSize);
+			cy = cell(y[i], xyCellSize);
+			cz = cell(z[i], zCellSize);
+			slot = hash(cx, cy, cz) & mask;
+			c = slots[slot];
+			while (c != -1 && (cellX[c] != cx || cellY[c] != cy || cellZ[c] != cz)){
+				slot = (slot + 1) & mask;
+				c = slots[slot];
+			}
+			if (c == -1){
+				c = cells++;
+				slots[slot] = c;
+				cellX[c] = cx;
+				cellY[c] = cy;
+				cellZ[c] = cz;
+			}
+			cellOf[i] = c;
+		}
+
+		// Lay points out cell by cell, keeping ascending order within each cell
+		cellStart = new int[cells + 1];
+		for (int i = 0; i < n; i++){
+			cellStart[cellOf[i] + 1]++;
+		}
+		for (c = 0; c < cells; c++){
+			cellStart[c + 1] += cellStart[c];
+		}
+		int[] next = new int[cells];
+		System.arraycopy(cellStart, 0, next, 0, cells);
+		cellPoints = new int[n];
+		for (int i = 0; i < n; i++){
+			cellPoints[next[cellOf[i]]++] = i;
+		}
+	}
+
+	private int findCell(int cx, int cy, int cz){
+		int slot = hash(cx, cy, cz) & mask;
+		int c = slots[slot];
+		while (c != -1 && (cellX[c] != cx || cellY[c] != cy || cellZ[c] != cz)){
+			slot = (slot + 1) & mask;
+			c = slots[slot];
+		}
+		return c;
+	}
+
+	public int size(){
+		return x.length;
+	}
+
+	public int[] findWithin(double qx, double qy, double qz,
+			double xyRadius, double zRadius){
+		double xMargin = BOUNDS_MARGIN * (Math.abs(qx) + Math.abs(xyRadius) + 1);
+		double yMargin = BOUNDS_MARGIN * (Math.abs(qy) + Math.abs(xyRadius) + 1);
+		double zMargin = BOUNDS_MARGIN * (Math.abs(qz) + Math.abs(zRadius) + 1);
+		int x0 = cell(qx - xyRadius - xMargin, xyCellSize), x1 = cell(qx + xyRadius + xMargin, xyCellSize);
+		int y0 = cell(qy - xyRadius - yMargin, xyCellSize), y1 = cell(qy + xyRadius + yMargin, xyCellSize);
+		int z0 = cell(qz - zRadius - zMargin, zCellSize), z1 = cell(qz + zRadius + zMargin, zCellSize);
+
+		if (x0 > x1 || y0 > y1 || z0 > z1){
+			return new int[0];
+		}
+
+		// Collect the occupied cells overlapping the query box
+		double span = (double)(x1 - x0 + 1) * (y1 - y0 + 1) * (z1 - z0 + 1);
+		int[] visit;
+		int visitCount = 0;
+		int c;
+		if (span > cells){
+			// Query box covers more cells than are occupied, so check the occupied ones
+			visit = new int[cells];
+			for (c = 0; c < cells; c++){
+				if (cellX[c] >= x0 && cellX[c] <= x1 && cellY[c] >= y0 && cellY[c] <= y1
+						&& cellZ[c] >= z0 && cellZ[c] <= z1){
+					visit[visitCount++] = c;
+				}
+			}
+		}
+		else{
+			visit = new int[(int)span];
+			for (int cx = x0; cx <= x1; cx++){
+				for (int cy = y0; cy <= y1; cy++){
+					for (int cz = z0; cz <= z1; cz++){
+						c = findCell(cx, cy, cz);
+						if (c != -1){
+							visit[visitCount++] = c;
+						}
+					}
+				}
+			}
+		}
+
+		int[] hits = new int[16];
+		int count = 0;
+		double xDist, yDist;
+		int p;
+		for (int v = 0; v < visitCount; v++){
+			c = visit[v];
+			for (int i = cellStart[c]; i < cellStart[c + 1]; i++){
+				p = cellPoints[i];
+				xDist = qx - x[p];
+				yDist = qy - y[p];
+				if (Math.sqrt(xDist*xDist + yDist*yDist) <= xyRadius
+						&& Math.abs(qz - z[p]) <= zRadius){
+					if (count == hits.length){
+						int[] tmp = new int[count*2];
+						System.arraycopy(hits, 0, tmp, 0, count);
+						hits = tmp;
+					}
+					hits[count++] = p;
+				}
+			}
+		}
+
+		int[] result = new int[count];
+		System.arraycopy(hits, 0, result, 0, count);
+		// Cells are visited in grid order, callers expect position order
+		Arrays.sort(result);
+		return result;
+	}
+
+}
@@ -0,0 +1,47 @@
+package org.krasnow.cng.domain;
+
+/**
+ * SpatialIndex that checks every point on each query. No setup cost, so it
+ * is the better choice for very small trees, and serves as the reference
+ * behavior for the other implementations.
+ */
+public class LinearSpatialIndex implements SpatialIndex {
+
+	private double[] x;
+	private double[] y;
+	private double[] z;
+
+	public LinearSpatialIndex(double[] x, double[] y, double[] z){
+		this.x = x;
+		this.y = y;
+		this.z = z;
+	}
+
+	public int size(){
+		return x.length;
+	}
+
+	public int[] findWithin(double qx, double qy, double qz,
+			double xyRadius, double zRadius){
+		int[] hits = new int[16];
+		int count = 0;
+		double xDist, yDist;
+		for (int i = 0; i < x.length; i++){
+			xDist = qx - x[i];
+			yDist = qy - y[i];
+			if (Math.sqrt(xDist*xDist + yDist*yDist) <= xyRadius
+					&& Math.abs(qz - z[i]) <= zRadius){
+				if (count == hits.length){
+					int[] tmp = new int[count*2];
+					System.arraycopy(hits, 0, tmp, 0, count);
+					hits = tmp;
+				}
+				hits[count++] = i;
+			}
+		}
+		int[] result = new int[count];
+		System.arraycopy(hits, 0, result, 0, count);
+		return result;
+	}
+
+}
@@ -0,0 +1,458 @@
+package org.krasnow.cng.domain;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * @author gillette
+ * Binary trees of a reconstruction kept in arrays rather than as node objects,
+ * for the parts of scoring that visit many nodes. Node i of the node list is
+ * position i, and the root given to the tree heads is the last position.
+ * Missing parents and children are -1, missing trajectory points are NaN.
+ * Built from, and turned back into, the ParentedBinaryTreeNode trees ReadSWC
+ * gives, which remain the model for everything else.
+ *
+ */
+public class NeuronArrays {
+
+	private int size;
+	// SWC ids, parent ids (as read, not the binary parent) and types
+	private int[] nodeId, parentId, type;
+	private double[] x, y, z, radius;
+	private int[] parent, left, right;
+	// Whether each node is the left child of its parent (heads keep their side)
+	private boolean[] leftSide;
+	// Levels as the nodes had them (not always their depth)
+	private long[] level;
+	// Path lengths from each node's parent
+	private double[] pathLength, xyPathLength, zPathLength;
+	// Path lengths from the root, so that the path length between a node and
+	// any of its ancestors is a difference
+	private double[] rootPathLength, rootXYPathLength, rootZPathLength;
+	// Number of ancestors of each node
+	private int[] depth;
+	// Ancestor each node can jump to when climbing, at most twice as far up as
+	// the jump of its parent (so any ancestor is reached in a logarithmic number of jumps)
+	private int[] jump;
+	// Preorder position of each node and the position after its subtree,
+	// so that the nodes below a node are those with positions between them
+	private int[] enter, exit;
+	private double[] parentTrajectoryX, parentTrajectoryY, parentTrajectoryZ;
+	private double[] leftTrajectoryX, leftTrajectoryY, leftTrajectoryZ;
+	private double[] rightTrajectoryX, rightTrajectoryY, rightTrajectoryZ;
+
+	/**
+	 * Sets the index of each node (and of root) to its position
+	 * @param nodeList ParentedBinaryTreeNodes with SwcDataNode data
+	 * @param root parent given to the head of each tree in nodeList
+	 */
+	public NeuronArrays(List nodeList, ParentedBinaryTreeNode root){
+		size = nodeList.size();
+		int length = size + 1;
+		nodeId = new int[length];
+		parentId = new int[length];
+		type = new int[length];
+		x = new double[length];
+		y = new double[length];
+		z = new double[length];
+		radius = new double[length];
+		parent = new int[length];
+		left = new int[length];
+		right = new int[length];
+		leftSide = new boolean[length];
+		level = new long[length];
+		pathLength = new double[length];
+		xyPathLength = new double[length];
+		zPathLength = new double[length];
+		rootPathLength = new double[length];
+		rootXYPathLength = new double[length];
+		rootZPathLength = new double[length];
+		depth = new int[length];
+		jump = new int[length];
+		enter = new int[length];
+		exit = new int[length];
+		parentTrajectoryX = new double[length];
+		parentTrajectoryY = new double[length];
+		parentTrajectoryZ = new double[length];
+		leftTrajectoryX = new double[length];
+		leftTrajectoryY = new double[length];
+		leftTrajectoryZ = new double[length];
+		rightTrajectoryX = new double[length];
+		rightTrajectoryY = new double[length];
+		rightTrajectoryZ = new double[length];
+
+		ParentedBinaryTreeNode[] nodes = new ParentedBinaryTreeNode[length];
+		for (int i = 0; i < size; i++){
+			nodes[i] = (ParentedBinaryTreeNode)nodeList.get(i);
+			nodes[i].setIndex(i);
+		}
+		nodes[size] = root;
+		root.setIndex(size);
+
+		ParentedBinaryTreeNode node;
+		SwcDataNode data;
+		SwcSecondaryData secondary;
+		for (int i = 0; i < length; i++){
+			node = nodes[i];
+			data = node.getSwcData();
+			nodeId[i] = data.getNodeId();
+			parentId[i] = data.getParentId();
+			type[i] = data.getType();
+			x[i] = data.getX();
+			y[i] = data.getY();
+			z[i] = data.getZ();
+			radius[i] = data.getRadius();
+			parent[i] = positionOf(node.getParent(), nodes);
+			left[i] = positionOf(node.getParentedLeft(), nodes);
+			right[i] = positionOf(node.getParentedRight(), nodes);
+			leftSide[i] = node.isLeft();
+			level[i] = node.getLevel();
+			secondary = data.getSecondaryData();
+			if (secondary != null){
+				pathLength[i] = secondary.getPathLength();
+				xyPathLength[i] = secondary.getXYPathLength();
+				zPathLength[i] = secondary.getZPathLength();
+			}
+			setPoint(i, secondary == null ? null : secondary.getParentTrajectoryPoint(),
+					parentTrajectoryX, parentTrajectoryY, parentTrajectoryZ);
+			setPoint(i, secondary == null ? null : secondary.getLeftTrajectoryPoint(),
+					leftTrajectoryX, leftTrajectoryY, leftTrajectoryZ);
+			setPoint(i, secondary == null ? null : secondary.getRightTrajectoryPoint(),
+					rightTrajectoryX, rightTrajectoryY, rightTrajectoryZ);
+		}
+		setAncestry();
+	}
+
+	/**
+	 * Sets path lengths from the root, depths, jumps and preorder positions
+	 * (parents need not come before their children)
+	 */
+	private void setAncestry(){
+		int length = size + 1;
+		// Nodes with each parent before its children
+		int[] order = new int[length];
+		int ordered = 0;
+		boolean[] done = new boolean[length];
+		int[] path = new int[length];
+		int count, p, q;
+		for (int i = 0; i < length; i++){
+			// Climb to a node already done, then work back down
+			count = 0;
+			for (p = i; p >= 0 && !done[p]; p = parent[p]){
+				path[count++] = p;
+			}
+			while (count > 0){
+				p = path[--count];
+				q = parent[p];
+				if (q >= 0){
+					rootPathLength[p] = rootPathLength[q] + pathLength[p];
+					rootXYPathLength[p] = rootXYPathLength[q] + xyPathLength[p];
+					rootZPathLength[p] = rootZPathLength[q] + zPathLength[p];
+					depth[p] = depth[q] + 1;
+					if (depth[q] - depth[jump[q]] == depth[jump[q]] - depth[jump[jump[q]]]){
+						jump[p] = jump[jump[q]];
+					}
+					else{
+						jump[p] = q;
+					}
+				}
+				else{
+					jump[p] = p;
+				}
+				done[p] = true;
+				order[ordered++] = p;
+			}
+		}
+
+		// Subtree sizes, held in exit until positions are given
+		for (int i = length - 1; i >= 0; i--){
+			exit[order[i]]++;
+			if (parent[order[i]] >= 0){
+				exit[parent[order[i]]] += exit[order[i]];
+			}
+		}
+		// Each node's subtree follows it; path holds the next free position below each node
+		int next = 0;
+		for (int i = 0; i < length; i++){
+			p = order[i];
+			q = parent[p];
+			if (q >= 0){
+				enter[p] = path[q];
+				path[q] += exit[p];
+			}
+			else{
+				enter[p] = next;
+				next += exit[p];
+			}
+			exit[p] += enter[p];
+			path[p] = enter[p] + 1;
+		}
+	}
+
+	private static int positionOf(ParentedBinaryTreeNode node, ParentedBinaryTreeNode[] nodes){
+		if (node == null){
+			return -1;
+		}
+		int position = node.getIndex();
+		if (position < 0 || position >= nodes.length || nodes[position] != node){
+			return -1;
+		}
+		return position;
+	}
+
+	private static void setPoint(int i, EuclideanPoint point, double[] px, double[] py, double[] pz){
+		if (point == null){
+			px[i] = py[i] = pz[i] = Double.NaN;
+		}
+		else{
+			px[i] = point.getX();
+			py[i] = point.getY();
+			pz[i] = point.getZ();
+		}
+	}
+
+	private static EuclideanPoint getPoint(int i, double[] px, double[] py, double[] pz){
+		if (Double.isNaN(px[i])){
+			return null;
+		}
+		return new EuclideanPoint(px[i], py[i], pz[i]);
+	}
+
+	/**
+	 * @return new trees of new nodes, in the form scoring gives them: an SwcTreeNode
+	 * of the root with the head of each binary tree as its children, each head
+	 * the child of a node of the root
+	 */
+	public SwcTreeNode toTreeList(){
+		SwcTreeNode root = new SwcTreeNode();
+		ParentedBinaryTreeNode[] nodes = new ParentedBinaryTreeNode[size + 1];
+		SwcDataNode data;
+		SwcSecondaryData secondary;
+		for (int i = 0; i <= size; i++){
+			// The root's node shares its data, as in scoring
+			data = i == size ? root.getSwcData() : new SwcDataNode();
+			data.setNodeId(nodeId[i]);
+			data.setParentId(parentId[i]);
+			data.setType(type[i]);
+			data.setX(x[i]);
+			data.setY(y[i]);
+			data.setZ(z[i]);
+			data.setRadius(radius[i]);
+			secondary = new SwcSecondaryData();
+			secondary.setPathLength(pathLength[i]);
+			secondary.setXYPathLength(xyPathLength[i]);
+			secondary.setZPathLength(zPathLength[i]);
+			secondary.setParentTrajectoryPoint(getPoint(i, parentTrajectoryX, parentTrajectoryY, parentTrajectoryZ));
+			secondary.setLeftTrajectoryPoint(getPoint(i, leftTrajectoryX, leftTrajectoryY, leftTrajectoryZ));
+			secondary.setRightTrajectoryPoint(getPoint(i, rightTrajectoryX, rightTrajectoryY, rightTrajectoryZ));
+			data.setSecondaryData(secondary);
+			nodes[i] = new ParentedBinaryTreeNode(data);
+		}
+
+		List heads = new ArrayList();
+		for (int i = 0; i < size; i++){
+			if (left[i] >= 0){
+				nodes[i].setLeft(nodes[left[i]], false);
+			}
+			if (right[i] >= 0){
+				nodes[i].setRight(nodes[right[i]], false);
+			}
+			if (parent[i] == size){
+				nodes[i].setParent(nodes[size], false);
+				nodes[i].setSide(leftSide[i]);
+				heads.add(nodes[i]);
+			}
+		}
+		for (int i = 0; i <= size; i++){
+			nodes[i].setLevel(level[i]);
+		}
+		for (int i = 0; i < heads.size(); i++){
+			ParentedBinaryTreeNode.updateBranchStatisticsDown((ParentedBinaryTreeNode)heads.get(i));
+		}
+		root.setChildren(heads);
+		return root;
+	}
+
+	/**
+	 * @return number of nodes, not counting the root
+	 */
+	public int size(){
+		return size;
+	}
+	/**
+	 * @return position of the root given to the tree heads
+	 */
+	public int getRoot(){
+		return size;
+	}
+	public int getNodeId(int i){
+		return nodeId[i];
+	}
+	/**
+	 * @param i
+	 * @return SWC id of the parent as read, which may have been a continuation
+	 * node rather than the node at getParent(i)
+	 */
+	public int getParentId(int i){
+		return parentId[i];
+	}
+	public int getType(int i){
+		return type[i];
+	}
+	public double getX(int i){
+		return x[i];
+	}
+	public double getY(int i){
+		return y[i];
+	}
+	public double getZ(int i){
+		return z[i];
+	}
+	public double getRadius(int i){
+		return radius[i];
+	}
+	public int getParent(int i){
+		return parent[i];
+	}
+	public int getLeft(int i){
+		return left[i];
+	}
+	public int getRight(int i){
+		return right[i];
+	}
+	public boolean isLeft(int i){
+		return leftSide[i];
+	}
+	public long getLevel(int i){
+		return level[i];
+	}
+	public boolean hasChildren(int i){
+		return left[i] >= 0 || right[i] >= 0;
+	}
+	public double getPathLength(int i){
+		return pathLength[i];
+	}
+	public double getXYPathLength(int i){
+		return xyPathLength[i];
+	}
+	public double getZPathLength(int i){
+		return zPathLength[i];
+	}
+	/**
+	 * @param i
+	 * @return number of ancestors of i
+	 */
+	public int getDepth(int i){
+		return depth[i];
+	}
+
+	/**
+	 * @param ancestor
+	 * @param i
+	 * @return whether ancestor is an ancestor of i (not i itself)
+	 */
+	public boolean isAncestor(int ancestor, int i){
+		return enter[ancestor] < enter[i] && enter[i] < exit[ancestor];
+	}
+
+	/**
+	 * @param i
+	 * @param j
+	 * @return the deepest node that is i or an ancestor of i, and j or an ancestor of j;
+	 * -1 if they have none
+	 */
+	public int getLeastCommonAncestor(int i, int j){
+		if (depth[i] < depth[j]){
+			int tmp = i;
+			i = j;
+			j = tmp;
+		}
+		// Climb from i to the depth of j
+		while (depth[i] > depth[j]){
+			i = depth[jump[i]] >= depth[j] ? jump[i] : parent[i];
+		}
+		// Then climb both while they differ, jumping where they would still differ
+		while (i != j){
+			if (depth[i] == 0){
+				// Different roots
+				return -1;
+			}
+			if (jump[i] != jump[j]){
+				i = jump[i];
+				j = jump[j];
+			}
+			else{
+				i = parent[i];
+				j = parent[j];
+			}
+		}
+		return i;
+	}
+
+	/**
+	 * @param ancestor
+	 * @param i
+	 * @return path length from position ancestor, which must be an ancestor of i, down to i
+	 */
+	public double getPathLength(int ancestor, int i){
+		return rootPathLength[i] - rootPathLength[ancestor];
+	}
+	public double getXYPathLength(int ancestor, int i){
+		return rootXYPathLength[i] - rootXYPathLength[ancestor];
+	}
+	public double getZPathLength(int ancestor, int i){
+		return rootZPathLength[i] - rootZPathLength[ancestor];
+	}
+	public double getParentTrajectoryX(int i){
+		return parentTrajectoryX[i];
+	}
+	public double getParentTrajectoryY(int i){
+		return parentTrajectoryY[i];
+	}
+	public double getParentTrajectoryZ(int i){
+		return parentTrajectoryZ[i];
+	}
+	public double getLeftTrajectoryX(int i){
+		return leftTrajectoryX[i];
+	}
+	public double getLeftTrajectoryY(int i){
+		return leftTrajectoryY[i];
+	}
+	public double getLeftTrajectoryZ(int i){
+		return leftTrajectoryZ[i];
+	}
+	public double getRightTrajectoryX(int i){
+		return rightTrajectoryX[i];
+	}
+	public double getRightTrajectoryY(int i){
+		return rightTrajectoryY[i];
+	}
+	public double getRightTrajectoryZ(int i){
+		return rightTrajectoryZ[i];
+	}
+
+	/**
+	 * @param i
+	 * @param j
+	 * @return XY distance between positions i and j
+	 */
+	public double getXYDistance(int i, int j){
+		double xDist = x[i] - x[j];
+		double yDist = y[i] - y[j];
+		return Math.sqrt(xDist*xDist + yDist*yDist);
+	}
+
+	/**
+	 * @param i
+	 * @param other
+	 * @param j
+	 * @return XY distance between position i and position j of other
+	 */
+	public double getXYDistance(int i, NeuronArrays other, int j){
+		double xDist = x[i] - other.x[j];
+		double yDist = y[i] - other.y[j];
+		return Math.sqrt(xDist*xDist + yDist*yDist);
+	}
+
+}
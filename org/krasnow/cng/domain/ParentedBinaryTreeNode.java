@@ -9,6 +9,7 @@ public class ParentedBinaryTreeNode extends BinaryTreeNode implements Comparable
     protected ParentedBinaryTreeNode parent;
     protected int side; // left or right of parent
     protected long level;
+    protected int index = -1; // position in the node table of its tree, -1 if not in one
     
     public ParentedBinaryTreeNode(){
         data = null;
@@ -111,54 +112,89 @@ public class ParentedBinaryTreeNode extends BinaryTreeNode implements Comparable
     
     public static void updateBranchStatisticsUp(ParentedBinaryTreeNode node){
     	ParentedBinaryTreeNode current = node;
-    	int treeSize, maxHeight, totalHeight, leaves, leftSize, rightSize;
     	while (current != null){
-    		treeSize = 1;
-    		leaves = totalHeight = maxHeight = leftSize = rightSize = 0;
+    		updateBranchStatistics(current);
+    		current = current.getParent();
+    	}
+    }
+
+    /**
+     * Updates the statistics of every node under node, and of node itself,
+     * children before parents. For trees linked with updateStats false,
+     * this gives the statistics that linking them one edge at a time would.
+     * @param node
+     */
+    public static void updateBranchStatisticsDown(ParentedBinaryTreeNode node){
+    	ParentedBinaryTreeNode current;
+    	ArrayStack assembleStack = new ArrayStack();
+    	ArrayStack branchStack = new ArrayStack();
+    	assembleStack.push(node);
+    	branchStack.push(node);
+    	while (!assembleStack.isEmpty()){
+    		current = (ParentedBinaryTreeNode)assembleStack.pop();
     		if (current.hasLeft()){
-    			leftSize = current.getLeft().getTreeSize();
-    			treeSize += current.getLeft().getTreeSize();
-    			leaves += current.getLeft().getLeaves();
-    			maxHeight = current.getLeft().getHeight() + 1;
-    			// totalLength is the total length of the children plus 1 for each child below (treeSize)
-    			totalHeight += current.getLeft().getTotalHeight()
-    				+ current.getLeft().getLeaves();
-    		}
-    		else if (current.getRight() == null){
-    			leaves++;
+    			assembleStack.push(current.getParentedLeft());
+    			branchStack.push(current.getParentedLeft());
     		}
     		if (current.hasRight()){
-    			rightSize = current.getRight().getTreeSize();
-    			treeSize += current.getRight().getTreeSize();
-    			leaves += current.getRight().getLeaves();
-    			if (current.getRight().getHeight() >= maxHeight){
-    				maxHeight = current.getRight().getHeight() + 1;
-    			}
-    			totalHeight += current.getRight().getTotalHeight()
-    				+ current.getRight().getLeaves();
+    			assembleStack.push(current.getParentedRight());
+    			branchStack.push(current.getParentedRight());
     		}
-    		current.setTreeSize(treeSize);
-    		current.setLeaves(leaves);
-    		current.setHeight(maxHeight);
-    		current.setTotalHeight(totalHeight);
-    		// treeSize-1 so this node is not included
-    		current.setAverageHeight((float)totalHeight/leaves);
-    		if (treeSize > 3){
-    			current.setPartitionAsymmetry((float)(rightSize + leftSize - 2 * Math.min(leftSize, rightSize)) /
-    					(rightSize + leftSize - 2));
-    			if (current.hasLeft() && current.hasRight()){
-    				current.setTotalAsymmetry(
-    					(float)current.getPartitionAsymmetry()
-    					+ current.getRight().getTotalAsymmetry()
-    					+ current.getLeft().getTotalAsymmetry());
-    			}
+    	}
+    	while (!branchStack.isEmpty()){
+    		updateBranchStatistics((ParentedBinaryTreeNode)branchStack.pop());
+    	}
+    }
+
+    /**
+     * Updates the statistics of node from those of its children
+     * @param node
+     */
+    public static void updateBranchStatistics(ParentedBinaryTreeNode node){
+    	int treeSize, maxHeight, totalHeight, leaves, leftSize, rightSize;
+    	treeSize = 1;
+    	leaves = totalHeight = maxHeight = leftSize = rightSize = 0;
+    	if (node.hasLeft()){
+    		leftSize = node.getLeft().getTreeSize();
+    		treeSize += node.getLeft().getTreeSize();
+    		leaves += node.getLeft().getLeaves();
+    		maxHeight = node.getLeft().getHeight() + 1;
+    		// totalLength is the total length of the children plus 1 for each child below (treeSize)
+    		totalHeight += node.getLeft().getTotalHeight()
+    			+ node.getLeft().getLeaves();
+    	}
+    	else if (node.getRight() == null){
+    		leaves++;
+    	}
+    	if (node.hasRight()){
+    		rightSize = node.getRight().getTreeSize();
+    		treeSize += node.getRight().getTreeSize();
+    		leaves += node.getRight().getLeaves();
+    		if (node.getRight().getHeight() >= maxHeight){
+    			maxHeight = node.getRight().getHeight() + 1;
     		}
-    		else{
-    			current.setPartitionAsymmetry(0);
-    			current.setTotalAsymmetry(0);
+    		totalHeight += node.getRight().getTotalHeight()
+    			+ node.getRight().getLeaves();
+    	}
+    	node.setTreeSize(treeSize);
+    	node.setLeaves(leaves);
+    	node.setHeight(maxHeight);
+    	node.setTotalHeight(totalHeight);
+    	// treeSize-1 so this node is not included
+    	node.setAverageHeight((float)totalHeight/leaves);
+    	if (treeSize > 3){
+    		node.setPartitionAsymmetry((float)(rightSize + leftSize - 2 * Math.min(leftSize, rightSize)) /
+    				(rightSize + leftSize - 2));
+    		if (node.hasLeft() && node.hasRight()){
+    			node.setTotalAsymmetry(
+    				(float)node.getPartitionAsymmetry()
+    				+ node.getRight().getTotalAsymmetry()
+    				+ node.getLeft().getTotalAsymmetry());
     		}
-
-    		current = current.getParent();
+    	}
+    	else{
+    		node.setPartitionAsymmetry(0);
+    		node.setTotalAsymmetry(0);
     	}
     }
 
@@ -212,12 +248,25 @@ public class ParentedBinaryTreeNode extends BinaryTreeNode implements Comparable
     	return side == RIGHT;
     }
 
+    /**
+     * Sets the side of a node linked with setParent, which leaves it unchanged
+     */
+    void setSide(boolean isLeft){
+    	side = isLeft ? LEFT : RIGHT;
+    }
+
 	public long getLevel() {
 		return level;
 	}
 	public void setLevel(long level) {
 		this.level = level;
 	}
+	public int getIndex() {
+		return index;
+	}
+	public void setIndex(int index) {
+		this.index = index;
+	}
     
 	public boolean hasParent(){
 		return parent != null;
@@ -0,0 +1,30 @@
+package org.krasnow.cng.domain;
+
+/**
+ * Anisotropic range search over a fixed set of points. Points are addressed by
+ * their position in the coordinate arrays the index was built from.
+ *
+ * A point matches a query when its XY (planar) distance to the query point is
+ * within the XY radius and its Z distance is within the Z radius, which is the
+ * same test DiademMetric applies when looking for candidate node matches.
+ */
+public interface SpatialIndex {
+
+	/**
+	 * @return number of points in the index
+	 */
+	public int size();
+
+	/**
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param xyRadius
+	 * @param zRadius
+	 * @return positions of all points within the XY radius and Z radius of (x,y,z),
+	 * in ascending order (the order a linear scan would find them in)
+	 */
+	public int[] findWithin(double x, double y, double z,
+			double xyRadius, double zRadius);
+
+}
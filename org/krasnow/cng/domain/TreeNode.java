@@ -38,21 +38,31 @@ public class TreeNode implements Comparable {
         parent = p;
         if (p != null && addChild){
         	if (!p.getChildren().contains(this)){
-        		p.addChildNode(this, false);
+        		p.addChildNode(this, false, true);
         		p.updateBranchSize();
         	}
         }
     }
     public void addChildNode(TreeNode n){
-    	addChildNode(n, true);
+    	addChildNode(n, true, true);
     }
-    private void addChildNode(TreeNode n, boolean setParent){
+    /**
+     * @param n
+     * @param updateStats false to leave branch statistics to a single
+     * updateBranchStatistics pass once the whole tree is built
+     */
+    public void addChildNode(TreeNode n, boolean updateStats){
+    	addChildNode(n, true, updateStats);
+    }
+    private void addChildNode(TreeNode n, boolean setParent, boolean updateStats){
     	if (setParent){
     		n.setParent(this, false);
     	}
 //    	childrenMap.put(n.getData(), n);
     	children.add(n);
-    	TreeNode.updateBranchStatisticsUp(this);
+    	if (updateStats){
+    		TreeNode.updateBranchStatisticsUp(this);
+    	}
     }
     
     public void setData(Object d){
@@ -157,8 +167,8 @@ public class TreeNode implements Comparable {
 
     public static void updateStatisticsDown(SwcTreeNode node){
     	SwcTreeNode current, child;
-    	LinkedStack assembleStack = new LinkedStack();
-    	LinkedStack branchStack = new LinkedStack();
+    	ArrayStack assembleStack = new ArrayStack();
+    	ArrayStack branchStack = new ArrayStack();
     	int branchSize, maxHeight, totalHeight, leaves;
     	assembleStack.push(node);
     	branchStack.push(node);
@@ -201,37 +211,45 @@ public class TreeNode implements Comparable {
     }
 
     public static void updateBranchStatisticsUp(TreeNode node){
-    	TreeNode current = node, child;
-    	int branchSize, maxHeight, totalHeight, leaves;
+    	TreeNode current = node;
     	while (current != null){
-    		branchSize = 1;
-    		leaves = totalHeight = maxHeight = 0;
-    		if (current.hasChildren()){
-	    		for (Iterator it = current.getChildren().iterator(); it.hasNext();){
-	    			child = (TreeNode)it.next();
-	
-	    			branchSize += child.getBranchSize();
-	    			leaves += child.getLeaves();
-	    			maxHeight = child.getHeight() + 1;
-	    			// totalLength is the total length of the children plus 1 for each child below (branchSize)
-	    			totalHeight += child.getTotalHeight()
-	    				+ child.getLeaves();
-	    		}
-    		}
-    		else{
-    			leaves++;
-    		}
-    		current.setBranchSize(branchSize);
-    		current.setLeaves(leaves);
-    		current.setHeight(maxHeight);
-    		current.setTotalHeight(totalHeight);
-    		// branchSize-1 so this node is not included
-    		current.setAverageHeight((float)totalHeight/leaves);
-    		
+    		updateBranchStatistics(current);
     		current = current.getParent();
     	}
     }
 
+    /**
+     * Updates the branch statistics of node from those of its children
+     * @param node
+     */
+    public static void updateBranchStatistics(TreeNode node){
+    	TreeNode child;
+    	int branchSize, maxHeight, totalHeight, leaves;
+    	branchSize = 1;
+    	leaves = totalHeight = maxHeight = 0;
+    	if (node.hasChildren()){
+    		for (Iterator it = node.getChildren().iterator(); it.hasNext();){
+    			child = (TreeNode)it.next();
+
+    			branchSize += child.getBranchSize();
+    			leaves += child.getLeaves();
+    			maxHeight = child.getHeight() + 1;
+    			// totalLength is the total length of the children plus 1 for each child below (branchSize)
+    			totalHeight += child.getTotalHeight()
+    				+ child.getLeaves();
+    		}
+    	}
+    	else{
+    		leaves++;
+    	}
+    	node.setBranchSize(branchSize);
+    	node.setLeaves(leaves);
+    	node.setHeight(maxHeight);
+    	node.setTotalHeight(totalHeight);
+    	// branchSize-1 so this node is not included
+    	node.setAverageHeight((float)totalHeight/leaves);
+    }
+
     public int compareTo(Object o){
     	if (o == null){
     		return 1;
@@ -10,9 +10,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.krasnow.cng.domain.ArrayQueue;
+import org.krasnow.cng.domain.ArrayStack;
 import org.krasnow.cng.domain.Asymmetry;
 import org.krasnow.cng.domain.BinaryTreeNode;
-import org.krasnow.cng.domain.LinkedQueue;
 import org.krasnow.cng.domain.LinkedStack;
 import org.krasnow.cng.domain.ParentedBinaryTreeNode;
 import org.krasnow.cng.domain.SwcDataNode;
@@ -37,7 +38,7 @@ public class BinaryTreeUtils {
 		BinaryTreeNode node = tree, smallerChild, tmp;
 		List considerList = new ArrayList();
 		// holdQueue contains smaller side nodes that have been added to main branch, await traversal
-		LinkedQueue holdQueue = new LinkedQueue();
+		ArrayQueue holdQueue = new ArrayQueue();
 		Asymmetry treeCaul = tree.getAsymmetry(metric), nodeCaul, smallCaul;
 		int numMainPathes = 1, i, insertIndex;
 		// Goes down main branch looking for smaller sides with higher C than entire tree
@@ -140,7 +141,7 @@ public class BinaryTreeUtils {
 		if (tree.getAsymmetry(metric) == null){
 			throw new Exception("Caulescence has not yet been found for this tree");
 		}
-		LinkedStack nodeStack = getLeavesToRootStack(tree);
+		ArrayStack nodeStack = getLeavesToRootArrayStack(tree);
 		Set checkedNodes = getMainPathNodes(tree);
 		
 		List topNodeList = new LinkedList();
@@ -309,7 +310,7 @@ public class BinaryTreeUtils {
 	private static void mergeTerminalParentNodes(
 			ParentedBinaryTreeNode tree, Set mainBranchNodes, BigInteger onOffBits, int metric)
 	throws Exception{
-		LinkedStack stack = new LinkedStack();
+		ArrayStack stack = new ArrayStack();
 		stack.push(tree);
 		ParentedBinaryTreeNode node;
 		int i = 0;
@@ -346,7 +347,7 @@ public class BinaryTreeUtils {
 			ParentedBinaryTreeNode tree, Set mainBranchNodes, int metric) throws Exception{
 		double caulCheck = tree.getAsymmetry().getCaulescence();
 		
-		LinkedStack stack = new LinkedStack();
+		ArrayStack stack = new ArrayStack();
 		List list = new ArrayList();
 		stack.push(tree);
 		ParentedBinaryTreeNode node, requiredNode, checkNode;
@@ -407,7 +408,7 @@ public class BinaryTreeUtils {
 	// Looking for the parents of main branch terminations
 	private static List getTerminalParentNodes(ParentedBinaryTreeNode tree, Set mainBranchNodes)
 	throws Exception{
-		LinkedStack stack = new LinkedStack();
+		ArrayStack stack = new ArrayStack();
 		List list = new ArrayList();
 		stack.push(tree);
 		ParentedBinaryTreeNode node, requiredNode;
@@ -615,7 +616,7 @@ public class BinaryTreeUtils {
 		}
 		if (tree.getTreeSize() == 1) return 0;
 		int mode = caulescenceMode;
-		LinkedStack stack1 = new LinkedStack(), stack2 = new LinkedStack();
+		ArrayStack stack1 = new ArrayStack(), stack2 = new ArrayStack();
 		ParentedBinaryTreeNode node, left, right;
 		SwcDataNode parentData = null, leftData = null, rightData = null;
 		double leftSize, rightSize, longerSummed, leftLargerSummed, rightLargerSummed, 
@@ -845,7 +846,7 @@ public class BinaryTreeUtils {
 	public static double getCNodeFraction(BinaryTreeNode tree){
 		int size = 0;
 		int cCount = 0;
-		LinkedQueue queue = new LinkedQueue();
+		ArrayQueue queue = new ArrayQueue();
 		queue.enqueue(tree);
 		BinaryTreeNode node;
 		while (!queue.isEmpty()){
@@ -870,7 +871,30 @@ public class BinaryTreeUtils {
 		return getLeavesToRootStack(tree, false);
 	}
 	public static LinkedStack getLeavesToRootStack(BinaryTreeNode tree, boolean mustHaveChildren){
-		LinkedStack initStack = new LinkedStack(), stack = new LinkedStack();
+		ArrayStack initStack = new ArrayStack();
+		LinkedStack stack = new LinkedStack();
+		BinaryTreeNode node;
+		initStack.push(tree);
+		while (!initStack.isEmpty()){
+			node = (BinaryTreeNode)initStack.pop();
+			if (!mustHaveChildren || node.hasChildren()){
+				stack.push(node);
+			}
+			if (node.hasChildren()){
+				initStack.push(node.getLeft());
+				initStack.push(node.getRight());
+			}
+		}
+		return stack;
+	}
+	/**
+	 * Same as getLeavesToRootStack, without a list node for each tree node
+	 */
+	public static ArrayStack getLeavesToRootArrayStack(BinaryTreeNode tree){
+		return getLeavesToRootArrayStack(tree, false);
+	}
+	public static ArrayStack getLeavesToRootArrayStack(BinaryTreeNode tree, boolean mustHaveChildren){
+		ArrayStack initStack = new ArrayStack(), stack = new ArrayStack();
 		BinaryTreeNode node;
 		initStack.push(tree);
 		while (!initStack.isEmpty()){
@@ -887,7 +911,7 @@ public class BinaryTreeUtils {
 	}
 
 	public static Set getAllNodesSet(BinaryTreeNode tree){
-		LinkedStack initStack = new LinkedStack();
+		ArrayStack initStack = new ArrayStack();
 		Set allNodes = new HashSet();
 		BinaryTreeNode node;
 		initStack.push(tree);
@@ -908,7 +932,7 @@ public class BinaryTreeUtils {
 	public static ParentedBinaryTreeNode copyParentedTree(
 			ParentedBinaryTreeNode tree, boolean keepData){
 		ParentedBinaryTreeNode treeCopy = tree.copyParented(keepData), node, copyNode;
-		LinkedQueue queue = new LinkedQueue(), copyQueue = new LinkedQueue();
+		ArrayQueue queue = new ArrayQueue(), copyQueue = new ArrayQueue();
 		queue.enqueue(tree);
 		copyQueue.enqueue(treeCopy);
 		while (!queue.isEmpty()){
@@ -931,7 +955,7 @@ public class BinaryTreeUtils {
 	
 	public static BinaryTreeNode copyTree(BinaryTreeNode tree){
 		BinaryTreeNode treeCopy = new BinaryTreeNode(), node, copyNode;
-		LinkedQueue queue = new LinkedQueue(), copyQueue = new LinkedQueue();
+		ArrayQueue queue = new ArrayQueue(), copyQueue = new ArrayQueue();
 		queue.enqueue(tree);
 		copyQueue.enqueue(tree.copy());
 		while (!queue.isEmpty()){
@@ -973,7 +997,7 @@ public class BinaryTreeUtils {
 
 	public static double getExcessAsymmetry(BinaryTreeNode tree, int metric)
 	throws Exception{
-		LinkedStack stack = new LinkedStack();
+		ArrayStack stack = new ArrayStack();
 		stack.push(tree);
 		BinaryTreeNode node;
 		double totalAsym = 0;
@@ -1061,7 +1085,7 @@ public class BinaryTreeUtils {
 	 * 	Set of nodes under and including root
 	 */
 	public static Set createNodeSet(BinaryTreeNode root){
-		LinkedStack stack = new LinkedStack();
+		ArrayStack stack = new ArrayStack();
 		Set set = new HashSet();
 		stack.push(root);
 		BinaryTreeNode node;
@@ -1091,7 +1115,7 @@ public class BinaryTreeUtils {
 	 * 	List of nodes under and including root
 	 */
 	public static List createNodeList(BinaryTreeNode root, boolean onlyBifurcations){
-		LinkedStack stack = new LinkedStack();
+		ArrayStack stack = new ArrayStack();
 		List list = new ArrayList();
 		stack.push(root);
 		BinaryTreeNode node;